@@ -0,0 +1,93 @@
+package io.mx51.spi;
+
+import io.mx51.spi.util.Crypto;
+import io.mx51.spi.util.CryptoContext;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message cost of encrypting, signing, verifying and decrypting, comparing the static {@link Crypto} helpers
+ * (which set up a new cipher and MAC on every call) against a reused {@link CryptoContext}.
+ * <p>
+ * Run with {@code ./gradlew :client:jmh -Pjmh.includes=CryptoBenchmark -Pjmh.profilers=gc}; the gc profiler's
+ * {@code gc.alloc.rate.norm} is the allocation per message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class CryptoBenchmark {
+
+    // 100 bytes is about a ping; 4 KB is about a purchase response with receipts.
+    @Param({"100", "4096"})
+    public int messageSize;
+
+    private byte[] encKey;
+    private byte[] hmacKey;
+    private CryptoContext context;
+    private String plainText;
+    private String cipherText;
+    private String hmac;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        final Random random = new Random(42);
+        encKey = new byte[32];
+        hmacKey = new byte[32];
+        random.nextBytes(encKey);
+        random.nextBytes(hmacKey);
+        context = new CryptoContext(encKey, hmacKey);
+
+        final StringBuilder sb = new StringBuilder(messageSize);
+        while (sb.length() < messageSize) sb.append((char) ('a' + random.nextInt(26)));
+        plainText = sb.toString();
+        cipherText = Crypto.aesEncrypt(encKey, plainText);
+        hmac = Crypto.hmacSignature(hmacKey, cipherText);
+    }
+
+    @Benchmark
+    public String encryptStatic() throws GeneralSecurityException {
+        return Crypto.aesEncrypt(encKey, plainText);
+    }
+
+    @Benchmark
+    public String encryptContext() throws GeneralSecurityException {
+        return context.aesEncrypt(plainText);
+    }
+
+    @Benchmark
+    public String signStatic() {
+        return Crypto.hmacSignature(hmacKey, cipherText);
+    }
+
+    @Benchmark
+    public String signContext() {
+        return context.hmacSignature(cipherText);
+    }
+
+    @Benchmark
+    public boolean verifyStatic() {
+        return Crypto.hmacSignature(hmacKey, cipherText).equals(hmac);
+    }
+
+    @Benchmark
+    public boolean verifyContext() {
+        return context.verifyHmac(cipherText, hmac);
+    }
+
+    @Benchmark
+    public String decryptStatic() throws GeneralSecurityException {
+        return Crypto.aesDecrypt(encKey, cipherText);
+    }
+
+    @Benchmark
+    public String decryptContext() throws GeneralSecurityException {
+        return context.aesDecrypt(cipherText);
+    }
+
+}
@@ -0,0 +1,71 @@
+package io.mx51.spi;
+
+import io.mx51.spi.model.MessageDecoder;
+import io.mx51.spi.model.MessageEnvelope;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of decrypted inbound messages, comparing the lazy and eager modes of {@link MessageDecoder} against
+ * reflective Gson binding, on payloads captured from a terminal.
+ * <p>
+ * Run with {@code ./gradlew :client:jmh -Pjmh.includes=MessageDecoderBenchmark -Pjmh.profilers=gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class MessageDecoderBenchmark {
+
+    public static final String PING = "{\"message\":{\"data\":{},\"datetime\":\"2019-06-14T16:09:46.395\",\"event\":\"ping\",\"id\":\"ping42\"}}";
+
+    public static final String PURCHASE_RESPONSE = "{\"message\":{\"data\":{\"account_type\":\"SAVINGS\",\"auth_code\":\"278045\",\"bank_cash_amount\":200,\"bank_date\":\"06062019\",\"bank_noncash_amount\":1200,\"bank_settlement_date\":\"06062019\",\"bank_time\":\"110750\",\"card_entry\":\"MAG_STRIPE\",\"cash_amount\":200,\"currency\":\"AUD\",\"customer_receipt\":\"EFTPOS FROM BANK SA\\r\\nMerchant4\\r\\n213 Miller Street\\r\\nSydney 2060\\r\\nAustralia\\r\\n\\r\\nTIME 06JUN19   11:07\\r\\nMID         22341842\\r\\nTSP     100612348842\\r\\nRRN     190606001102\\r\\nDebit(S)         SAV\\r\\nCARD............5581\\r\\nAUTH          278045\\r\\n\\r\\nPURCHASE    AUD10.00\\r\\nCASH         AUD2.00\\r\\nSURCHARGE    AUD2.00\\r\\nTOTAL       AUD14.00\\r\\n\\r\\n   (000) APPROVED\\r\\n\\r\\n  *CUSTOMER COPY*\\r\\n\\r\\n\\r\\n\\r\\n\\r\\n\\r\\n\\r\\n\",\"customer_receipt_printed\":false,\"expiry_date\":\"0822\",\"host_response_code\":\"000\",\"host_response_text\":\"APPROVED\",\"informative_text\":\"                \",\"masked_pan\":\"............5581\",\"merchant_acquirer\":\"EFTPOS FROM BANK SA\",\"merchant_addr\":\"213 Miller Street\",\"merchant_city\":\"Sydney\",\"merchant_country\":\"Australia\",\"merchant_id\":\"22341842\",\"merchant_name\":\"Merchant4\",\"merchant_postcode\":\"2060\",\"merchant_receipt\":\"EFTPOS FROM BANK SA\\r\\nMerchant4\\r\\n213 Miller Street\\r\\nSydney 2060\\r\\nAustralia\\r\\n\\r\\nTIME 06JUN19   11:07\\r\\nMID         22341842\\r\\nTSP     100612348842\\r\\nRRN     190606001102\\r\\nDebit(S)         SAV\\r\\nCARD............5581\\r\\nAUTH          278045\\r\\n\\r\\nPURCHASE    AUD10.00\\r\\nCASH         AUD2.00\\r\\nSURCHARGE    AUD2.00\\r\\nTOTAL       AUD14.00\\r\\n\\r\\n   (000) APPROVED\\r\\n\\r\\n\\r\\n\\r\\n\\r\\n\\r\\n\\r\\n\",\"merchant_receipt_printed\":false,\"online_indicator\":\"Y\",\"pos_ref_id\":\"prchs-06-06-2019-11-07-50\",\"purchase_amount\":1000,\"rrn\":\"190606001102\",\"scheme_name\":\"Debit\",\"stan\":\"001102\",\"success\":true,\"surcharge_amount\":200,\"terminal_id\":\"100612348842\",\"terminal_ref_id\":\"12348842_06062019110812\",\"transaction_type\":\"PURCHASE\"},\"datetime\":\"2019-06-06T11:08:12.946\",\"event\":\"purchase_response\",\"id\":\"prchs5\"}}";
+
+    public static final String SETTLE_RESPONSE = "{\"message\":{\"data\":{\"accumulacxted_purchase_count\":\"1\",\"accumulated_purchase_value\":\"1000\",\"accumulated_settle_by_acquirer_count\":\"1\",\"accumulated_settle_by_acquirer_value\":\"1000\",\"accumulated_total_count\":\"1\",\"accumulated_total_value\":\"1000\",\"bank_date\":\"14062019\",\"bank_time\":\"160940\",\"host_response_code\":\"941\",\"host_response_text\":\"CUTOVER COMPLETE\",\"merchant_acquirer\":\"EFTPOS FROM BANK SA\",\"merchant_address\":\"213 Miller Street\",\"merchant_city\":\"Sydney\",\"merchant_country\":\"Australia\",\"merchant_name\":\"Merchant4\",\"merchant_postcode\":\"2060\",\"merchant_receipt\":\"EFTPOS FROM BANK SA\\r\\nMerchant4\\r\\n213 Miller Street\\r\\nSydney 2060\\r\\n\\r\\nAustralia\\r\\n\\r\\n\\r\\n SETTLEMENT CUTOVER\\r\\nTSP     100612348842\\r\\nTIME   14JUN19 16:09\\r\\nTRAN   001137-001137\\r\\nFROM   13JUN19 20:00\\r\\nTO     14JUN19 16:09\\r\\n\\r\\nDebit\\r\\nTOT     0      $0.00\\r\\n\\r\\nMasterCard\\r\\nTOT     0      $0.00\\r\\n\\r\\nVisa\\r\\nPUR     1     $10.00\\r\\nTOT     1     $10.00\\r\\n\\r\\nBANKED  1     $10.00\\r\\n\\r\\nAmex\\r\\nTOT     0      $0.00\\r\\n\\r\\nDiners\\r\\nTOT     0      $0.00\\r\\n\\r\\nJCB\\r\\nTOT     0      $0.00\\r\\n\\r\\nUnionPay\\r\\nTOT     0      $0.00\\r\\n\\r\\nTOTAL\\r\\nPUR     1     $10.00\\r\\nTOT     1     $10.00\\r\\n\\r\\n (941) CUTOVER COMP\\r\\n\\r\\n\\r\\n\\r\\n\\r\\n\\r\\n\\r\\n\\r\\n\\r\\n\\r\\n\",\"schemes\":[{\"scheme_name\":\"Debit\",\"settle_by_acquirer\":\"Yes\",\"total_count\":\"0\",\"total_value\":\"0\"},{\"scheme_name\":\"MasterCard\",\"settle_by_acquirer\":\"Yes\",\"total_count\":\"0\",\"total_value\":\"0\"},{\"scheme_name\":\"Visa\",\"settle_by_acquirer\":\"Yes\",\"total_count\":\"1\",\"total_purchase_count\":\"1\",\"total_purchase_value\":\"1000\",\"total_value\":\"1000\"},{\"scheme_name\":\"Amex\",\"settle_by_acquirer\":\"No\",\"total_count\":\"0\",\"total_value\":\"0\"},{\"scheme_name\":\"Diners\",\"settle_by_acquirer\":\"No\",\"total_count\":\"0\",\"total_value\":\"0\"},{\"scheme_name\":\"JCB\",\"settle_by_acquirer\":\"No\",\"total_count\":\"0\",\"total_value\":\"0\"},{\"scheme_name\":\"UnionPay\",\"settle_by_acquirer\":\"No\",\"total_count\":\"0\",\"total_value\":\"0\"}],\"settlement_period_end_date\":\"14Jun19\",\"settlement_period_end_time\":\"16:09\",\"settlement_period_start_date\":\"13Jun19\",\"settlement_period_start_time\":\"20:00\",\"settlement_triggered_date\":\"14Jun19\",\"settlement_triggered_time\":\"16:09:40\",\"stan\":\"000000\",\"success\":true,\"terminal_id\":\"100612348842\",\"transaction_range\":\"001137-001137\"},\"datetime\":\"2019-06-14T16:09:46.395\",\"event\":\"settle_response\",\"id\":\"settle116\"}}";
+
+    @Param({"ping", "purchase_response", "settle_response"})
+    public String event;
+
+    private String json;
+
+    @Setup
+    public void setUp() {
+        if ("ping".equals(event)) {
+            json = PING;
+        } else if ("purchase_response".equals(event)) {
+            json = PURCHASE_RESPONSE;
+        } else {
+            json = SETTLE_RESPONSE;
+        }
+    }
+
+    /**
+     * Headers only, as when routing a ping or pong; {@code data} stays undecoded.
+     */
+    @Benchmark
+    public MessageEnvelope lazy() {
+        return MessageDecoder.decodeEnvelope(json);
+    }
+
+    /**
+     * Headers, then all of {@code data} on first access.
+     */
+    @Benchmark
+    public Object lazyThenData() {
+        return MessageDecoder.decodeEnvelope(json).getMessage().getData();
+    }
+
+    @Benchmark
+    public MessageEnvelope streaming() {
+        return MessageDecoder.decodeEnvelopeEagerly(json);
+    }
+
+    @Benchmark
+    public MessageEnvelope reflective() {
+        return MessageDecoder.decodeEnvelopeReflectively(json);
+    }
+
+}
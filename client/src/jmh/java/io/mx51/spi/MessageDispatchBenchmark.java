@@ -0,0 +1,85 @@
+package io.mx51.spi;
+
+import io.mx51.spi.model.Message;
+import io.mx51.spi.util.Events;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of finding the handler for an incoming message, comparing {@link MessageDispatcher} against the chain of
+ * comparisons it replaced, in the same order.
+ * <p>
+ * Run with {@code ./gradlew :client:jmh -Pjmh.includes=MessageDispatchBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class MessageDispatchBenchmark {
+
+    private static final String[] CHAIN = {
+            Events.KEY_REQUEST, Events.KEY_CHECK, Events.PAIR_RESPONSE, Events.DROP_KEYS_ADVICE,
+            Events.PURCHASE_RESPONSE, Events.REFUND_RESPONSE, Events.CASHOUT_ONLY_RESPONSE, Events.MOTO_PURCHASE_RESPONSE,
+            Events.SIGNATURE_REQUIRED, Events.AUTH_CODE_REQUIRED, Events.GET_LAST_TRANSACTION_RESPONSE,
+            Events.SETTLEMENT_ENQUIRY_RESPONSE, Events.SETTLE_RESPONSE, Events.PING, Events.PONG, Events.KEY_ROLL_REQUEST,
+            Events.CANCEL_TRANSACTION_RESPONSE, Events.SET_POS_INFO_RESPONSE, Events.PAY_AT_TABLE_GET_TABLE_CONFIG,
+            Events.PAY_AT_TABLE_GET_BILL_DETAILS, Events.PAY_AT_TABLE_BILL_PAYMENT, Events.PAY_AT_TABLE_GET_OPEN_TABLES,
+            Events.PAY_AT_TABLE_BILL_PAYMENT_FLOW_ENDED, Events.PRINTING_RESPONSE, Events.TERMINAL_STATUS_RESPONSE,
+            Events.BATTERY_LEVEL_CHANGED, Events.TERMINAL_CONFIGURATION_RESPONSE, Events.ERROR, Events.INVALID_HMAC_SIGNATURE
+    };
+
+    @Param({"ping", "pong", "purchase_response"})
+    public String event;
+
+    private Message message;
+    private MessageDispatcher dispatcher;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        this.blackhole = blackhole;
+        // A copy, as a decoded message's event name is never the same instance as the constant.
+        message = new Message("1", new String(event.toCharArray()), null, false);
+
+        final Map<String, Spi.EventHandler<Message>> handlers = new HashMap<String, Spi.EventHandler<Message>>();
+        for (final String name : CHAIN) {
+            handlers.put(name, new Spi.EventHandler<Message>() {
+                @Override
+                public void onEvent(Message value) {
+                    blackhole.consume(name);
+                }
+            });
+        }
+        dispatcher = new MessageDispatcher(handlers);
+    }
+
+    @Benchmark
+    public boolean registry() {
+        return dispatcher.dispatch(message);
+    }
+
+    @Benchmark
+    public boolean chain() {
+        final String eventName = message.getEventName();
+        // Spi checked for preauth events first.
+        if (eventName.startsWith("preauth") || Events.PREAUTH_COMPLETE_RESPONSE.equals(eventName)
+                || Events.PREAUTH_COMPLETE_REQUEST.equals(eventName) || Events.ACCOUNT_VERIFY_REQUEST.equals(eventName)
+                || Events.ACCOUNT_VERIFY_RESPONSE.equals(eventName)) {
+            return false;
+        }
+        for (String name : CHAIN) {
+            if (name.equals(eventName)) {
+                blackhole.consume(name);
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
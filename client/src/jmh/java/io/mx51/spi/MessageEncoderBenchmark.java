@@ -0,0 +1,101 @@
+package io.mx51.spi;
+
+import com.google.gson.Gson;
+import io.mx51.spi.model.*;
+import io.mx51.spi.util.CryptoContext;
+import io.mx51.spi.util.Hex;
+import io.mx51.spi.util.PingHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of outgoing encrypted messages, comparing the single-pass {@link MessageEncoder} against serialising,
+ * encrypting, signing and serialising again.
+ * <p>
+ * Run with {@code ./gradlew :client:jmh -Pjmh.includes=MessageEncoderBenchmark -Pjmh.profilers=gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class MessageEncoderBenchmark {
+
+    private static final Gson GSON = new Gson();
+
+    @Param({"ping", "purchase_request", "printing_request", "bill_status_response"})
+    public String event;
+
+    private CryptoContext crypto;
+    private Message message;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        final byte[] encKey = new byte[32];
+        final byte[] hmacKey = new byte[32];
+        random.nextBytes(encKey);
+        random.nextBytes(hmacKey);
+        crypto = new CryptoContext(encKey, hmacKey);
+
+        message = newMessage(event);
+        // Stamps the time, which is not part of what is measured.
+        message.toJson(new MessageStamp("POS1", new Secrets(Hex.encode(encKey), Hex.encode(hmacKey)), 0));
+    }
+
+    /**
+     * @return An outgoing message of the given kind, shaped like the ones SPI sends.
+     */
+    public static Message newMessage(String event) {
+        final Message message;
+        if ("ping".equals(event)) {
+            message = PingHelper.generatePingRequest();
+        } else if ("purchase_request".equals(event)) {
+            final PurchaseRequest request = new PurchaseRequest(1000, "prchs-06-06-2019-11-07-50");
+            request.setTipAmount(200);
+            message = request.toMessage();
+        } else if ("printing_request".equals(event)) {
+            final StringBuilder payload = new StringBuilder();
+            for (int i = 0; i < 40; i++) payload.append("Item ").append(i).append("              $10.00\n");
+            message = new PrintingRequest("sdkhfsd4h", payload.toString()).toMessage();
+        } else {
+            final List<PaymentHistoryEntry> history = new ArrayList<PaymentHistoryEntry>();
+            for (int i = 0; i < 5; i++) {
+                final Map<String, Object> summary = new HashMap<String, Object>();
+                summary.put("purchase_amount", 1000);
+                summary.put("terminal_ref_id", "12348842_0606201911081" + i);
+                history.add(new PaymentHistoryEntry("card", summary));
+            }
+            final BillStatusResponse response = new BillStatusResponse();
+            response.setResult(BillRetrievalResult.SUCCESS);
+            response.setBillId("1554246591041");
+            response.setTableId("12");
+            response.setTotalAmount(5000);
+            response.setOutstandingAmount(0);
+            response.setBillData(BillStatusResponse.toBillData(history));
+            message = response.toMessage("bill1");
+        }
+        return message;
+    }
+
+    @Benchmark
+    public String singlePass() throws GeneralSecurityException {
+        return MessageEncoder.encodeEncrypted(message, crypto, "POS1");
+    }
+
+    @Benchmark
+    public String twoPass() throws GeneralSecurityException {
+        final String plain = GSON.toJson(new MessageEnvelope(message));
+        final String enc = crypto.aesEncrypt(plain);
+        return GSON.toJson(new MessageEnvelope(enc, crypto.hmacSignature(enc), "POS1"));
+    }
+
+}
@@ -0,0 +1,40 @@
+package io.mx51.spi;
+
+import io.mx51.spi.util.RandomHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generating a Diffie-Hellman private key below the MODP-2048 prime, comparing rejection sampling of random bits
+ * against the two older techniques in {@link RandomHelper}.
+ * <p>
+ * Run with {@code ./gradlew :client:jmh -Pjmh.includes=PrivateKeyBenchmark -Pjmh.profilers=gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class PrivateKeyBenchmark {
+
+    private static final BigInteger MODP_2048_P = new BigInteger("32317006071311007300338913926423828248817941241140239112842009751400741706634354222619689417363569347117901737909704191754605873209195028853758986185622153212175412514901774520270235796078236248884246189477587641105928646099411723245426622522193230540919037680524235519125679715870117001058055877651038861847280257976054903569732561526167081339361799541336476559160368317896729073178384589680639671900977202194168647225871031411336429319536193471636533209717077448227988588565369208645296636077250268955505928362751121174096972998068410554359584866583291642136218231078990999448652468262416972035911852507045361090559");
+
+    @Benchmark
+    public BigInteger rejectionSampling() {
+        return RandomHelper.randomBigIntBelow(MODP_2048_P);
+    }
+
+    @Benchmark
+    public BigInteger method1() {
+        return RandomHelper.randomBigIntMethod1(MODP_2048_P);
+    }
+
+    @Benchmark
+    public BigInteger method2() {
+        return RandomHelper.randomBigIntMethod2(MODP_2048_P);
+    }
+
+}
@@ -0,0 +1,45 @@
+package io.mx51.spi;
+
+import io.mx51.spi.util.DiffieHellman;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computing a Diffie-Hellman public key for the MODP-2048 group, comparing the precomputed fixed-base table behind
+ * {@link DiffieHellman#publicKey(BigInteger, BigInteger, BigInteger)} against {@link BigInteger#modPow}.
+ * <p>
+ * Run with {@code ./gradlew :client:jmh -Pjmh.includes=PublicKeyBenchmark -Pjmh.profilers=gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class PublicKeyBenchmark {
+
+    private static final BigInteger MODP_2048_P = new BigInteger("32317006071311007300338913926423828248817941241140239112842009751400741706634354222619689417363569347117901737909704191754605873209195028853758986185622153212175412514901774520270235796078236248884246189477587641105928646099411723245426622522193230540919037680524235519125679715870117001058055877651038861847280257976054903569732561526167081339361799541336476559160368317896729073178384589680639671900977202194168647225871031411336429319536193471636533209717077448227988588565369208645296636077250268955505928362751121174096972998068410554359584866583291642136218231078990999448652468262416972035911852507045361090559");
+    private static final BigInteger MODP_2048_G = BigInteger.valueOf(2);
+
+    private BigInteger privateKey;
+
+    @Setup
+    public void setUp() {
+        privateKey = DiffieHellman.randomPrivateKey(MODP_2048_P);
+        // Builds the table outside the measurement.
+        DiffieHellman.publicKey(MODP_2048_P, MODP_2048_G, privateKey);
+    }
+
+    @Benchmark
+    public BigInteger fixedBaseTable() {
+        return DiffieHellman.publicKey(MODP_2048_P, MODP_2048_G, privateKey);
+    }
+
+    @Benchmark
+    public BigInteger modPow() {
+        return MODP_2048_G.modPow(privateKey, MODP_2048_P);
+    }
+
+}
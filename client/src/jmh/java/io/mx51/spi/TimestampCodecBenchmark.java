@@ -0,0 +1,64 @@
+package io.mx51.spi;
+
+import io.mx51.spi.util.TimestampCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting and parsing message timestamps and settlement times, comparing {@link TimestampCodec} against a new
+ * {@link SimpleDateFormat} per call, as the message and settlement code used to do.
+ * <p>
+ * Run with {@code ./gradlew :client:jmh -Pjmh.includes=TimestampCodecBenchmark -Pjmh.profilers=gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class TimestampCodecBenchmark {
+
+    private static final String DATE_TIME = "2019-06-14T16:09:46.395";
+    private static final String SETTLEMENT_TIME = "16:09:4014Jun19";
+
+    private long millis = System.currentTimeMillis();
+
+    @Benchmark
+    public String formatSimpleDateFormat() {
+        // A ping a second apart each time, so the codec cannot reuse the previous second.
+        millis += 1000;
+        return new SimpleDateFormat(TimestampCodec.Layout.DATE_TIME.getPattern(), Locale.US).format(new Date(millis));
+    }
+
+    @Benchmark
+    public String formatCodec() {
+        millis += 1000;
+        return TimestampCodec.formatDateTime(millis);
+    }
+
+    @Benchmark
+    public long parseSimpleDateFormat() throws ParseException {
+        return new SimpleDateFormat(TimestampCodec.Layout.DATE_TIME.getPattern(), Locale.US).parse(DATE_TIME).getTime();
+    }
+
+    @Benchmark
+    public long parseCodec() throws ParseException {
+        return TimestampCodec.parse(DATE_TIME, TimestampCodec.Layout.DATE_TIME);
+    }
+
+    @Benchmark
+    public long parseSettlementSimpleDateFormat() throws ParseException {
+        return new SimpleDateFormat(TimestampCodec.Layout.TIME_SECONDS_SHORT_DATE.getPattern(), Locale.US).parse(SETTLEMENT_TIME).getTime();
+    }
+
+    @Benchmark
+    public long parseSettlementCodec() throws ParseException {
+        return TimestampCodec.parse(SETTLEMENT_TIME, TimestampCodec.Layout.TIME_SECONDS_SHORT_DATE);
+    }
+
+}
@@ -0,0 +1,135 @@
+package io.mx51.spi;
+
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures threads and heap held per connected terminal, comparing a single shared {@link TransportContext}
+ * against one context per connection (which is what every {@link Connection} used to build for itself).
+ * <p>
+ * Run with {@code ./gradlew :client:jmh -Pjmh.includes=TransportFootprintBenchmark}; the per-terminal figures are
+ * reported as secondary results.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class TransportFootprintBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Terminals {
+
+        @Param({"1", "10", "100", "500"})
+        public int terminals;
+
+        @Param({"shared", "isolated"})
+        public String mode;
+
+        MockWebServer server;
+        String address;
+        List<TransportContext> contexts = new ArrayList<TransportContext>();
+
+        @Setup(Level.Iteration)
+        public void setUp() throws Exception {
+            server = new MockWebServer();
+            for (int i = 0; i < terminals; i++) {
+                server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+                }));
+            }
+            server.start();
+            address = "ws://" + server.getHostName() + ":" + server.getPort();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws Exception {
+            for (TransportContext context : contexts) {
+                context.shutdown();
+            }
+            contexts.clear();
+            server.shutdown();
+        }
+
+        TransportContext contextFor(int terminal) {
+            if ("shared".equals(mode)) {
+                if (contexts.isEmpty()) contexts.add(new TransportContext());
+                return contexts.get(0);
+            }
+            final TransportContext context = new TransportContext();
+            contexts.add(context);
+            return context;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public double threadsPerTerminal;
+        public double heapBytesPerTerminal;
+    }
+
+    @Benchmark
+    public List<Connection> connectAll(Terminals t, Footprint footprint) throws Exception {
+        final int threadsBefore = clientThreadCount();
+        final long heapBefore = usedHeap();
+
+        final CountDownLatch connected = new CountDownLatch(t.terminals);
+        final List<Connection> connections = new ArrayList<Connection>(t.terminals);
+        for (int i = 0; i < t.terminals; i++) {
+            final Connection connection = new Connection(t.address, t.contextFor(i));
+            connection.setEventHandler(new Connection.EventHandler() {
+                @Override
+                public void onConnectionStateChanged(Connection.State state) {
+                    if (state == Connection.State.CONNECTED) connected.countDown();
+                }
+
+                @Override
+                public void onMessageReceived(String message) {
+                }
+
+                @Override
+                public void onError(Throwable thr) {
+                }
+            });
+            connection.connect();
+            connections.add(connection);
+        }
+
+        if (!connected.await(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException(connected.getCount() + " connections did not open");
+        }
+
+        footprint.threadsPerTerminal = (clientThreadCount() - threadsBefore) / (double) t.terminals;
+        footprint.heapBytesPerTerminal = (usedHeap() - heapBefore) / (double) t.terminals;
+
+        for (Connection connection : connections) {
+            connection.dispose();
+        }
+        return connections;
+    }
+
+    /**
+     * Counts client-side OkHttp threads only; the mock server names its own threads differently.
+     */
+    private static int clientThreadCount() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("OkHttp")) count++;
+        }
+        return count;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+}
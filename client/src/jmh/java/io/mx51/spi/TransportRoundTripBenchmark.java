@@ -0,0 +1,112 @@
+package io.mx51.spi;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the round-trip latency of a single message through each {@link Transport}, against a local echo server.
+ * <p>
+ * Run with {@code ./gradlew :client:jmh -Pjmh.includes=TransportRoundTripBenchmark -Pjmh.profilers=gc} on Java 11 or
+ * later to also get the allocation rate per round trip. The echo server runs in the same JVM and allocates the same
+ * amount for both transports, so the difference between them is down to the client side.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class TransportRoundTripBenchmark {
+
+    // Roughly the size of an encrypted ping/pong envelope.
+    private static final String MESSAGE = "{\"enc\":\"" + repeat('A', 320) + "\",\"hmac\":\"" + repeat('B', 64) + "\"}";
+
+    @Param({"okhttp", "jdk"})
+    public String transport;
+
+    private final BlockingQueue<String> replies = new LinkedBlockingQueue<String>();
+    private TransportContext context;
+    private MockWebServer server;
+    private Connection connection;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                webSocket.send(text);
+            }
+
+            @Override
+            public void onClosing(WebSocket webSocket, int code, String reason) {
+                webSocket.close(code, null);
+            }
+
+            @Override
+            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            }
+        }));
+        server.start();
+
+        context = new TransportContext();
+        final Transport selected = "jdk".equals(transport) ? TransportContext.newJdkWebSocketTransport() : context.getTransport();
+        if (selected == null) {
+            throw new IllegalStateException("The JDK web socket transport needs Java 11 or later");
+        }
+
+        final CountDownLatch connected = new CountDownLatch(1);
+        connection = new Connection("ws://" + server.getHostName() + ":" + server.getPort(), context, selected,
+                new OutboundQueueConfig());
+        connection.setEventHandler(new Connection.EventHandler() {
+            @Override
+            public void onConnectionStateChanged(Connection.State state) {
+                if (state == Connection.State.CONNECTED) connected.countDown();
+            }
+
+            @Override
+            public void onMessageReceived(String message) {
+                replies.add(message);
+            }
+
+            @Override
+            public void onError(Throwable thr) {
+            }
+        });
+        connection.connect();
+        if (!connected.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Connection did not open");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connection.dispose();
+        context.shutdown();
+        server.shutdown();
+    }
+
+    @Benchmark
+    public String roundTrip() throws InterruptedException {
+        if (!connection.send(MESSAGE)) {
+            throw new IllegalStateException("Message not accepted");
+        }
+        return replies.take();
+    }
+
+    private static String repeat(char c, int count) {
+        final StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) sb.append(c);
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,81 @@
+package io.mx51.spi.model;
+
+import io.mx51.spi.MessageDecoderBenchmark;
+import io.mx51.spi.MessageEncoderBenchmark;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and allocation of each {@link JsonProvider} backend on the work done per message: reading the data of
+ * incoming messages captured from a terminal, and writing outgoing ones. In this package, as that part of the provider
+ * is not public.
+ * <p>
+ * Run with {@code ./gradlew :client:jmh -Pjmh.includes=JsonProviderBenchmark -Pjmh.profilers=gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JsonProviderBenchmark {
+
+    @State(Scope.Thread)
+    public static class Incoming {
+        @Param({"gson", "jackson"})
+        public String backend;
+
+        @Param({"purchase_response", "settle_response"})
+        public String event;
+
+        JsonProvider provider;
+        String json;
+        int start;
+
+        @Setup
+        public void setUp() {
+            provider = provider(backend);
+            json = "purchase_response".equals(event)
+                    ? MessageDecoderBenchmark.PURCHASE_RESPONSE
+                    : MessageDecoderBenchmark.SETTLE_RESPONSE;
+            start = json.indexOf("\"data\":") + 7;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Outgoing {
+        @Param({"gson", "jackson"})
+        public String backend;
+
+        @Param({"purchase_request", "printing_request", "bill_status_response"})
+        public String event;
+
+        JsonProvider provider;
+        MessageEnvelope envelope;
+
+        @Setup
+        public void setUp() {
+            provider = provider(backend);
+            envelope = new MessageEnvelope(MessageEncoderBenchmark.newMessage(event));
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> readData(Incoming in) throws IOException {
+        return in.provider.readData(in.json, in.start, new NumericFields());
+    }
+
+    @Benchmark
+    public String writeEnvelope(Outgoing out) {
+        return out.provider.encodeEnvelope(out.envelope);
+    }
+
+    private static JsonProvider provider(String backend) {
+        final JsonProvider provider = "jackson".equals(backend) ? JsonProvider.jackson() : JsonProvider.gson();
+        if (provider == null) throw new IllegalStateException("jackson-core is not on the classpath");
+        return provider;
+    }
+
+}
@@ -1,29 +1,51 @@
 package io.mx51.spi;
 
-import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.SocketTimeoutException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class Connection {
 
     private static final Logger LOG = LoggerFactory.getLogger("spi");
 
-    private static final long CONNECTION_TIMEOUT = TimeUnit.SECONDS.toMillis(4);
+    private static final long CONNECTION_TIMEOUT = TransportContext.WEB_SOCKET_CONNECT_TIMEOUT;
+    private static final long FLUSH_INTERVAL = 100;
     private EventHandler eventHandler;
     private State state;
     private String address;
-    private WebSocket webSocket;
-    private OkHttpClient httpClient;
+    private volatile Transport.Socket socket;
+    private volatile OutboundQueue.Sink sink;
+    private final Transport transport;
+    private final ScheduledExecutorService scheduler;
+    private final OutboundQueue outboundQueue;
+    private ScheduledFuture<?> flushFuture;
+    // Moves on with every connect and close, so that callbacks from an earlier socket can be told apart.
+    private final AtomicInteger generation = new AtomicInteger();
 
     public Connection(String address) {
+        this(address, TransportContext.getDefault());
+    }
+
+    public Connection(String address, TransportContext transportContext) {
+        this(address, transportContext, new OutboundQueueConfig());
+    }
+
+    public Connection(String address, TransportContext transportContext, OutboundQueueConfig outboundQueueConfig) {
+        this(address, transportContext, transportContext.getTransport(), outboundQueueConfig);
+    }
+
+    public Connection(String address, TransportContext transportContext, Transport transport, OutboundQueueConfig outboundQueueConfig) {
         this.address = address;
         this.state = State.DISCONNECTED;
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
-                .build();
+        this.transport = transport;
+        this.scheduler = transportContext.getScheduler();
+        this.outboundQueue = new OutboundQueue(outboundQueueConfig);
     }
 
     public void setEventHandler(EventHandler eventHandler) {
@@ -65,29 +87,32 @@ class Connection {
             address = prefix + address;
         }
 
+        // Callbacks can arrive before transport.connect() returns the socket, so they are tied to it by generation, and
+        // the socket is bound by whichever comes first of onOpen() and the return.
+        final int generation = this.generation.incrementAndGet();
+
         // Create a new socket instance specifying the url, SPI protocol and web socket to use.
         // This will create a TCP/IP socket connection to the provided URL and perform HTTP web socket negotiation
-        webSocket = httpClient.newWebSocket(new Request.Builder()
-                .url(address)
-                .addHeader("Sec-WebSocket-Protocol", "spi." + Spi.PROTOCOL_VERSION)
-                .build(), new WebSocketListener() {
+        final Transport.Socket socket = transport.connect(address, "spi." + Spi.PROTOCOL_VERSION, new Transport.Listener() {
             @Override
-            public void onOpen(WebSocket webSocket, Response response) {
-                Connection.this.onOpen();
+            public void onOpen(@NotNull Transport.Socket socket) {
+                if (bind(generation, socket)) Connection.this.onOpen();
             }
 
             @Override
-            public void onMessage(WebSocket webSocket, String text) {
-                onMessageReceived(text);
+            public void onMessage(@NotNull String text) {
+                if (isCurrent()) onMessageReceived(text);
             }
 
             @Override
-            public void onClosed(WebSocket webSocket, int code, String reason) {
-                Connection.this.onClose();
+            public void onClosed() {
+                if (isCurrent()) Connection.this.onClose();
             }
 
             @Override
-            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            public void onFailure(@NotNull Throwable t) {
+                // A late failure of a socket we have already given up on says nothing about the current one.
+                if (!isCurrent()) return;
                 if (t instanceof SocketTimeoutException) {
                     // Existing users may be checking for TimeoutException,
                     // so this is required for backwards compatibility.
@@ -98,17 +123,68 @@ class Connection {
                     onClose();
                 }
             }
+
+            private boolean isCurrent() {
+                return generation == Connection.this.generation.get();
+            }
         });
+        bind(generation, socket);
+    }
+
+    /**
+     * Makes the socket the one messages go to, unless the connection has moved on from it.
+     *
+     * @return Whether the socket is still current.
+     */
+    private synchronized boolean bind(int generation, final Transport.Socket socket) {
+        if (generation != this.generation.get()) return false;
+        if (this.socket == socket) return true;
+        this.socket = socket;
+        this.sink = new OutboundQueue.Sink() {
+            @Override
+            public long queueSize() {
+                return socket.queueSize();
+            }
+
+            @Override
+            public boolean send(String message) {
+                return socket.send(message);
+            }
+        };
+        return true;
+    }
+
+    /**
+     * Sends a message through the outbound queue.
+     *
+     * @return False if the message was not accepted, either because we are not connected or because the queue is full.
+     */
+    public boolean send(String message) {
+        final OutboundQueue.Sink sink = this.sink;
+        if (state != State.CONNECTED || sink == null) return false;
+
+        switch (outboundQueue.offer(message, sink, System.nanoTime())) {
+            case ACCEPTED:
+                scheduleFlush();
+                return true;
+            case REJECTED:
+                LOG.warn("Outbound queue is full, message not sent. {}", outboundQueue.getStats());
+                return false;
+            default:
+                abort();
+                return false;
+        }
     }
 
-    public void send(String message) {
-        webSocket.send(message);
+    public OutboundQueueStats getOutboundQueueStats() {
+        return outboundQueue.getStats();
     }
 
     public void disconnect() {
         if (this.state != State.DISCONNECTED) {
             closeSession(1001);
-            onClose();
+            // The transport may have reported the close already, from inside close().
+            if (this.state != State.DISCONNECTED) onClose();
         }
     }
 
@@ -121,10 +197,62 @@ class Connection {
     }
 
     private void onClose() {
-        webSocket = null;
+        synchronized (this) {
+            generation.incrementAndGet();
+            socket = null;
+            sink = null;
+        }
+        cancelFlush();
+        outboundQueue.clear();
         setState(State.DISCONNECTED);
     }
 
+    /**
+     * Drops the socket without waiting for buffered data, used when the writer is stuck or the queue overflows.
+     */
+    private void abort() {
+        LOG.warn("Outbound traffic is not draining, dropping the connection. {}", outboundQueue.getStats());
+        final Transport.Socket socket = this.socket;
+        if (socket != null) {
+            socket.cancel();
+        }
+        if (state != State.DISCONNECTED) {
+            onClose();
+        }
+    }
+
+    /**
+     * Keeps draining the queue and watching the socket until both are empty.
+     */
+    private synchronized void scheduleFlush() {
+        if (flushFuture != null || !outboundQueue.hasPending()) return;
+
+        flushFuture = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                final OutboundQueue.Sink sink = Connection.this.sink;
+                if (sink == null) {
+                    cancelFlush();
+                    return;
+                }
+                if (outboundQueue.flush(sink, System.nanoTime()) == OutboundQueue.Result.DISCONNECT) {
+                    abort();
+                    return;
+                }
+                synchronized (Connection.this) {
+                    if (!outboundQueue.hasPending()) cancelFlush();
+                }
+            }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelFlush() {
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+    }
+
     private void onMessageReceived(String message) {
         if (eventHandler != null) eventHandler.onMessageReceived(message);
     }
@@ -134,8 +262,9 @@ class Connection {
     }
 
     private void closeSession(int code) {
-        if (webSocket != null) {
-            webSocket.close(code, null);
+        final Transport.Socket socket = this.socket;
+        if (socket != null) {
+            socket.close(code);
         }
     }
 
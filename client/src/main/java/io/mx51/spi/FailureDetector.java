@@ -0,0 +1,46 @@
+package io.mx51.spi;
+
+/**
+ * Decides when the connection to a terminal is dead, so that it can be dropped and re-established.
+ * <p>
+ * Each {@link Spi} has its own instance, told about every authenticated message from the terminal and every ping that
+ * went unanswered. The connection is dropped when {@link #isSuspected(long)} turns true, checked after each missed pong
+ * and, if {@link #getCheckIntervalMillis()} is positive, that often in between. Calls may come from different threads.
+ * <p>
+ * {@link MissedPongsFailureDetector} is the default; {@link PhiAccrualFailureDetector} reacts faster on a steady link.
+ */
+public interface FailureDetector {
+
+    /**
+     * A connection has just been established.
+     *
+     * @param nanoTime {@link System#nanoTime()} now.
+     */
+    void connected(long nanoTime);
+
+    /**
+     * An authenticated message, such as a pong, was received.
+     *
+     * @param nanoTime {@link System#nanoTime()} now.
+     */
+    void heartbeat(long nanoTime);
+
+    /**
+     * A ping was not answered in time, and nothing else was received meanwhile.
+     *
+     * @param nanoTime {@link System#nanoTime()} now.
+     */
+    void pongMissed(long nanoTime);
+
+    /**
+     * @param nanoTime {@link System#nanoTime()} now.
+     * @return Whether the connection should be considered dead.
+     */
+    boolean isSuspected(long nanoTime);
+
+    /**
+     * @return How often to check {@link #isSuspected(long)} between pings, or 0 to only check after a missed pong.
+     */
+    long getCheckIntervalMillis();
+
+}
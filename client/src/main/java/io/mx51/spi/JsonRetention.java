@@ -0,0 +1,27 @@
+package io.mx51.spi;
+
+import io.mx51.spi.model.Message;
+
+/**
+ * Whether messages keep the decrypted JSON they were sent or received as; see
+ * {@link Spi#setJsonRetention(JsonRetention)}.
+ */
+public enum JsonRetention {
+
+    /**
+     * Messages do not keep their JSON. {@link Message#getDecryptedJson()} serialises it again when asked.
+     */
+    OFF,
+
+    /**
+     * Every message keeps its JSON for as long as the message is around, which doubles the memory held by big
+     * receipts and bill histories.
+     */
+    ON,
+
+    /**
+     * Messages do not keep their JSON, but that of the most recent ones is kept in a {@link WireJournal}.
+     */
+    RING_BUFFER
+
+}
@@ -0,0 +1,72 @@
+package io.mx51.spi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How often each terminal connection is pinged to check it is still alive.
+ * <p>
+ * A ping is only sent once the terminal has sent nothing for the ping interval, as any authenticated message from it
+ * shows the connection is alive just as a pong does. The interval starts at {@link #getMinPingIntervalMillis()} and
+ * doubles after each prompt pong, up to {@link #getMaxPingIntervalMillis()}; a late or missing pong brings it back
+ * down. By default both are 18 seconds, so an idle connection is checked as often as it always was.
+ */
+public class KeepaliveConfig {
+
+    private long minPingIntervalMillis = TimeUnit.SECONDS.toMillis(18);
+    private long maxPingIntervalMillis = TimeUnit.SECONDS.toMillis(18);
+    private long pongTimeoutMillis = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * @return Silence after which the terminal is pinged, when the connection has just been checked.
+     */
+    public long getMinPingIntervalMillis() {
+        return minPingIntervalMillis;
+    }
+
+    /**
+     * @param minPingIntervalMillis Silence after which the terminal is pinged, when the connection has just been
+     *                              checked.
+     */
+    public void setMinPingIntervalMillis(long minPingIntervalMillis) {
+        if (minPingIntervalMillis < 1) throw new IllegalArgumentException("minPingIntervalMillis must be positive");
+        this.minPingIntervalMillis = minPingIntervalMillis;
+    }
+
+    /**
+     * @return Longest silence after which the terminal is pinged, however steady the connection has been.
+     */
+    public long getMaxPingIntervalMillis() {
+        return maxPingIntervalMillis;
+    }
+
+    /**
+     * @param maxPingIntervalMillis Longest silence after which the terminal is pinged, however steady the connection
+     *                              has been.
+     */
+    public void setMaxPingIntervalMillis(long maxPingIntervalMillis) {
+        if (maxPingIntervalMillis < 1) throw new IllegalArgumentException("maxPingIntervalMillis must be positive");
+        this.maxPingIntervalMillis = maxPingIntervalMillis;
+    }
+
+    /**
+     * @return How long to wait for a pong before counting the ping as missed.
+     */
+    public long getPongTimeoutMillis() {
+        return pongTimeoutMillis;
+    }
+
+    /**
+     * @param pongTimeoutMillis How long to wait for a pong before counting the ping as missed.
+     */
+    public void setPongTimeoutMillis(long pongTimeoutMillis) {
+        if (pongTimeoutMillis < 1) throw new IllegalArgumentException("pongTimeoutMillis must be positive");
+        this.pongTimeoutMillis = pongTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "MinPingIntervalMillis:" + minPingIntervalMillis + " MaxPingIntervalMillis:" + maxPingIntervalMillis +
+                " PongTimeoutMillis:" + pongTimeoutMillis;
+    }
+
+}
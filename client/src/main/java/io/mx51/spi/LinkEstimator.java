@@ -0,0 +1,143 @@
+package io.mx51.spi;
+
+/**
+ * Round-trip time and clock offset of the connection to one terminal, estimated from our pings and its pongs.
+ * <p>
+ * The round-trip time is smoothed as TCP does (RFC 6298): a moving average, and a moving average of its deviation as
+ * the jitter. The clock offset of each exchange assumes the pong was stamped half way through the round trip, as NTP
+ * does; of the last few, the one with the shortest round trip is used, as a queueing delay in either direction skews
+ * its offset by up to half that delay.
+ * <p>
+ * Those few are forgotten when the terminal's clock is stepped, which shows as an offset further from the filtered one
+ * than its round trip could explain, and when the connection is lost, as the next one may take another path.
+ */
+public final class LinkEstimator {
+
+    static final int OFFSET_SAMPLES = 8;
+    // An offset this many round trips away from the filtered one is a clock step rather than queueing.
+    static final int STEP_RTTS = 4;
+    // Covers terminals whose clocks only tick every few milliseconds, when the round trip is shorter still.
+    static final long MIN_STEP_MILLIS = 100;
+
+    private long smoothedRtt = -1;
+    private long rttVariation;
+    private long lastRtt = -1;
+    private long sampleCount;
+    // Ring of the most recent samples.
+    private final long[] offsets = new long[OFFSET_SAMPLES];
+    private final long[] delays = new long[OFFSET_SAMPLES];
+    private int offsetCount;
+    private int nextOffset;
+    private long clockOffset;
+
+    LinkEstimator() {
+    }
+
+    /**
+     * Adds the exchange of a ping and its pong.
+     *
+     * @param pingSentMillis     Our time the ping was sent.
+     * @param pongTimeMillis     The terminal's time in the pong.
+     * @param pongReceivedMillis Our time the pong was received.
+     */
+    synchronized void sample(long pingSentMillis, long pongTimeMillis, long pongReceivedMillis) {
+        final long rtt = Math.max(0, pongReceivedMillis - pingSentMillis);
+        lastRtt = rtt;
+        sampleCount++;
+        if (smoothedRtt < 0) {
+            smoothedRtt = rtt;
+            rttVariation = rtt / 2;
+        } else {
+            rttVariation = (3 * rttVariation + Math.abs(smoothedRtt - rtt)) / 4;
+            smoothedRtt = (7 * smoothedRtt + rtt) / 8;
+        }
+
+        final long offset = pongTimeMillis - (pingSentMillis + rtt / 2);
+        final long maxError = Math.max(MIN_STEP_MILLIS, STEP_RTTS * Math.max(rtt, smoothedRtt));
+        if (offsetCount > 0 && Math.abs(offset - clockOffset) > maxError) {
+            // The older samples describe a clock that no longer exists.
+            clearOffsets();
+        }
+        offsets[nextOffset] = offset;
+        delays[nextOffset] = rtt;
+        nextOffset = (nextOffset + 1) % OFFSET_SAMPLES;
+        if (offsetCount < OFFSET_SAMPLES) offsetCount++;
+        int best = 0;
+        for (int i = 1; i < offsetCount; i++) {
+            if (delays[i] < delays[best]) best = i;
+        }
+        clockOffset = offsets[best];
+    }
+
+    synchronized void reset() {
+        smoothedRtt = -1;
+        rttVariation = 0;
+        lastRtt = -1;
+        sampleCount = 0;
+        clearOffsets();
+        clockOffset = 0;
+    }
+
+    /**
+     * Forgets the samples behind the clock offset, so that the next pong sets it afresh. Until then the last offset
+     * still stands.
+     */
+    synchronized void clearOffsets() {
+        offsetCount = 0;
+        nextOffset = 0;
+    }
+
+    /**
+     * @return Whether any ping has been answered yet; until then the other values are meaningless.
+     */
+    public synchronized boolean hasSamples() {
+        return sampleCount > 0;
+    }
+
+    /**
+     * @return Number of pings answered.
+     */
+    public synchronized long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return Smoothed round-trip time in milliseconds, or -1 before the first sample.
+     */
+    public synchronized long getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    /**
+     * @return Smoothed deviation of the round-trip time in milliseconds, i.e. the jitter.
+     */
+    public synchronized long getRttVariation() {
+        return rttVariation;
+    }
+
+    /**
+     * @return The most recent round-trip time in milliseconds, or -1 before the first sample.
+     */
+    public synchronized long getLastRtt() {
+        return lastRtt;
+    }
+
+    /**
+     * @return Milliseconds to add to our clock to get the terminal's.
+     */
+    public synchronized long getClockOffset() {
+        return clockOffset;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LinkEstimator{" +
+                "smoothedRtt=" + smoothedRtt +
+                ", rttVariation=" + rttVariation +
+                ", lastRtt=" + lastRtt +
+                ", clockOffset=" + clockOffset +
+                ", sampleCount=" + sampleCount +
+                '}';
+    }
+
+}
@@ -0,0 +1,58 @@
+package io.mx51.spi;
+
+import io.mx51.spi.model.Message;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Routes incoming messages to a handler by event name, with one hash lookup instead of a chain of comparisons.
+ * <p>
+ * The handlers SPI itself needs are fixed when the dispatcher is created. Handlers for other events, such as
+ * vendor-specific ones, can be added and removed at any time, but cannot replace a built-in one.
+ */
+final class MessageDispatcher {
+
+    private final Map<String, Spi.EventHandler<Message>> builtIn;
+    private final ConcurrentMap<String, Spi.EventHandler<Message>> extra = new ConcurrentHashMap<String, Spi.EventHandler<Message>>();
+
+    MessageDispatcher(@NotNull Map<String, Spi.EventHandler<Message>> builtIn) {
+        this.builtIn = Collections.unmodifiableMap(new HashMap<String, Spi.EventHandler<Message>>(builtIn));
+    }
+
+    /**
+     * @param handler The handler, or null to remove the current one.
+     * @throws IllegalArgumentException If the event has a built-in handler.
+     */
+    void setHandler(@NotNull String eventName, @Nullable Spi.EventHandler<Message> handler) {
+        if (builtIn.containsKey(eventName)) {
+            throw new IllegalArgumentException("Event " + eventName + " is handled by SPI itself");
+        }
+        if (handler == null) {
+            extra.remove(eventName);
+        } else {
+            extra.put(eventName, handler);
+        }
+    }
+
+    /**
+     * @return Whether there was a handler for the message's event.
+     */
+    boolean dispatch(@NotNull Message m) {
+        final String eventName = m.getEventName();
+        if (eventName == null) return false;
+
+        Spi.EventHandler<Message> handler = builtIn.get(eventName);
+        if (handler == null) handler = extra.get(eventName);
+        if (handler == null) return false;
+
+        handler.onEvent(m);
+        return true;
+    }
+
+}
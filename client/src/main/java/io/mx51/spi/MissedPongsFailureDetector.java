@@ -0,0 +1,56 @@
+package io.mx51.spi;
+
+/**
+ * Considers the connection dead after a number of pings in a row went unanswered. With the default keepalive, a dead
+ * connection is noticed between 10 and 28 seconds after it dies.
+ */
+public final class MissedPongsFailureDetector implements FailureDetector {
+
+    private final int missedPongsToDisconnect;
+    private int missedPongs;
+
+    /**
+     * Considers the connection dead after 2 missed pongs.
+     */
+    public MissedPongsFailureDetector() {
+        this(2);
+    }
+
+    /**
+     * @param missedPongsToDisconnect Number of missed pongs in a row after which the connection is considered dead.
+     */
+    public MissedPongsFailureDetector(int missedPongsToDisconnect) {
+        if (missedPongsToDisconnect < 1) throw new IllegalArgumentException("missedPongsToDisconnect must be positive");
+        this.missedPongsToDisconnect = missedPongsToDisconnect;
+    }
+
+    @Override
+    public synchronized void connected(long nanoTime) {
+        missedPongs = 0;
+    }
+
+    @Override
+    public synchronized void heartbeat(long nanoTime) {
+        missedPongs = 0;
+    }
+
+    @Override
+    public synchronized void pongMissed(long nanoTime) {
+        missedPongs++;
+    }
+
+    @Override
+    public synchronized boolean isSuspected(long nanoTime) {
+        return missedPongs >= missedPongsToDisconnect;
+    }
+
+    @Override
+    public long getCheckIntervalMillis() {
+        return 0;
+    }
+
+    public int getMissedPongsToDisconnect() {
+        return missedPongsToDisconnect;
+    }
+
+}
@@ -0,0 +1,83 @@
+package io.mx51.spi;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * {@link Transport} built on OkHttp web sockets.
+ */
+public final class OkHttpTransport implements Transport {
+
+    private final OkHttpClient client;
+
+    /**
+     * @param client Client used to open the sockets. Its connect timeout applies to every socket.
+     */
+    public OkHttpTransport(@NotNull OkHttpClient client) {
+        this.client = client;
+    }
+
+    @NotNull
+    @Override
+    public Socket connect(@NotNull String url, @NotNull String subProtocol, @NotNull final Listener listener) {
+        final WebSocket webSocket = client.newWebSocket(new Request.Builder()
+                .url(url)
+                .addHeader("Sec-WebSocket-Protocol", subProtocol)
+                .build(), new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                listener.onOpen(new OkHttpSocket(webSocket));
+            }
+
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                listener.onMessage(text);
+            }
+
+            @Override
+            public void onClosed(WebSocket webSocket, int code, String reason) {
+                listener.onClosed();
+            }
+
+            @Override
+            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+                listener.onFailure(t);
+            }
+        });
+        return new OkHttpSocket(webSocket);
+    }
+
+    private static final class OkHttpSocket implements Socket {
+
+        private final WebSocket webSocket;
+
+        OkHttpSocket(WebSocket webSocket) {
+            this.webSocket = webSocket;
+        }
+
+        @Override
+        public boolean send(@NotNull String text) {
+            return webSocket.send(text);
+        }
+
+        @Override
+        public long queueSize() {
+            return webSocket.queueSize();
+        }
+
+        @Override
+        public void close(int code) {
+            webSocket.close(code, null);
+        }
+
+        @Override
+        public void cancel() {
+            webSocket.cancel();
+        }
+    }
+
+}
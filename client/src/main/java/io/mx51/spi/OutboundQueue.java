@@ -0,0 +1,175 @@
+package io.mx51.spi;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue sitting in front of a socket's own write buffer.
+ * <p>
+ * Messages pass straight through while the socket keeps up, and are held here once the socket has buffered more than
+ * the configured high watermark. The queue also watches the socket buffer for lack of progress so that a stuck
+ * writer can be detected long before keep-alive pings time out.
+ */
+class OutboundQueue {
+
+    private final OutboundQueueConfig config;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+
+    private long queuedBytes;
+    // Bytes handed to the sink since the connection opened, and the most of them it has been seen to write.
+    private long handedBytes;
+    private long writtenBytes;
+    private long lastSocketBufferedBytes;
+    private long socketBufferedBytes;
+    private long lastProgressNanos;
+    private long totalQueuedNanos;
+    private long maxQueuedNanos;
+    private long rejectedMessages;
+    private long droppedMessages;
+
+    OutboundQueue(OutboundQueueConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Offers a message for sending, handing it to the sink directly when nothing else is waiting.
+     */
+    synchronized Result offer(String message, Sink sink, long nowNanos) {
+        final long size = utf8Length(message);
+        if (entries.isEmpty() && sink.queueSize() < config.getWriteBufferHighWatermark()) {
+            if (!sink.send(message)) return Result.DISCONNECT;
+            handedBytes += size;
+            return isStalled(sink.queueSize(), nowNanos) ? Result.DISCONNECT : Result.ACCEPTED;
+        }
+
+        if (entries.size() >= config.getMaxQueuedMessages() || queuedBytes + size > config.getMaxQueuedBytes()) {
+            switch (config.getOverflowPolicy()) {
+                case DROP_OLDEST:
+                    while (!entries.isEmpty() &&
+                            (entries.size() >= config.getMaxQueuedMessages() || queuedBytes + size > config.getMaxQueuedBytes())) {
+                        queuedBytes -= entries.removeFirst().size;
+                        droppedMessages++;
+                    }
+                    break;
+                case DISCONNECT:
+                    rejectedMessages++;
+                    return Result.DISCONNECT;
+                default:
+                    rejectedMessages++;
+                    return Result.REJECTED;
+            }
+        }
+
+        entries.addLast(new Entry(message, size, nowNanos));
+        queuedBytes += size;
+        return flush(sink, nowNanos);
+    }
+
+    /**
+     * Hands queued messages to the sink while it stays below the high watermark, and checks the sink for stalls.
+     *
+     * @return {@link Result#DISCONNECT} if the connection should be dropped, {@link Result#ACCEPTED} otherwise.
+     */
+    synchronized Result flush(Sink sink, long nowNanos) {
+        while (!entries.isEmpty() && sink.queueSize() < config.getWriteBufferHighWatermark()) {
+            final Entry entry = entries.removeFirst();
+            queuedBytes -= entry.size;
+            final long waited = nowNanos - entry.enqueuedNanos;
+            totalQueuedNanos += waited;
+            if (waited > maxQueuedNanos) maxQueuedNanos = waited;
+            if (!sink.send(entry.message)) return Result.DISCONNECT;
+            handedBytes += entry.size;
+        }
+        return isStalled(sink.queueSize(), nowNanos) ? Result.DISCONNECT : Result.ACCEPTED;
+    }
+
+    /**
+     * A sink is stalled when it holds buffered bytes and has not written any of them for the stall timeout. Progress is
+     * counted in bytes written, i.e. handed over but no longer buffered, as new sends can keep the buffer from
+     * shrinking while the writer drains it.
+     */
+    private boolean isStalled(long bufferedBytes, long nowNanos) {
+        final long written = handedBytes - bufferedBytes;
+        if (bufferedBytes == 0 || written > writtenBytes || lastSocketBufferedBytes == 0) {
+            lastProgressNanos = nowNanos;
+        }
+        if (written > writtenBytes) writtenBytes = written;
+        lastSocketBufferedBytes = bufferedBytes;
+        socketBufferedBytes = bufferedBytes;
+        return bufferedBytes > 0 && nowNanos - lastProgressNanos > TimeUnit.MILLISECONDS.toNanos(config.getStallTimeoutMillis());
+    }
+
+    /**
+     * @return Whether there is anything left for the sink to write, queued here or buffered inside the sink.
+     */
+    synchronized boolean hasPending() {
+        return !entries.isEmpty() || socketBufferedBytes > 0;
+    }
+
+    /**
+     * Discards everything still queued, e.g. when the connection has gone away.
+     */
+    synchronized void clear() {
+        droppedMessages += entries.size();
+        entries.clear();
+        queuedBytes = 0;
+        handedBytes = 0;
+        writtenBytes = 0;
+        lastSocketBufferedBytes = 0;
+        socketBufferedBytes = 0;
+    }
+
+    synchronized OutboundQueueStats getStats() {
+        return new OutboundQueueStats(entries.size(), queuedBytes, socketBufferedBytes,
+                TimeUnit.NANOSECONDS.toMillis(totalQueuedNanos), TimeUnit.NANOSECONDS.toMillis(maxQueuedNanos),
+                rejectedMessages, droppedMessages);
+    }
+
+    static long utf8Length(String s) {
+        long length = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    enum Result {ACCEPTED, REJECTED, DISCONNECT}
+
+    /**
+     * The socket side of the queue.
+     */
+    interface Sink {
+        /**
+         * @return Bytes buffered by the socket that have not been written to the network yet.
+         */
+        long queueSize();
+
+        /**
+         * @return False if the socket refused the message, e.g. because it is closing.
+         */
+        boolean send(String message);
+    }
+
+    private static class Entry {
+        final String message;
+        final long size;
+        final long enqueuedNanos;
+
+        Entry(String message, long size, long enqueuedNanos) {
+            this.message = message;
+            this.size = size;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+}
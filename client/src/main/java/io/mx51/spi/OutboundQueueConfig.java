@@ -0,0 +1,122 @@
+package io.mx51.spi;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits applied to the outbound message queue of each terminal connection.
+ * <p>
+ * Messages are handed to the socket straight away while its write buffer is below
+ * {@link #getWriteBufferHighWatermark()}. Past that point they wait in a bounded queue, and when that queue is
+ * full the {@link OverflowPolicy} decides what happens next.
+ */
+public class OutboundQueueConfig {
+
+    private int maxQueuedMessages = 256;
+    private long maxQueuedBytes = 1024 * 1024;
+    private long writeBufferHighWatermark = 64 * 1024;
+    private long stallTimeoutMillis = TimeUnit.SECONDS.toMillis(5);
+    private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT_NEW;
+
+    /**
+     * @return Maximum number of messages waiting to be handed to the socket.
+     */
+    public int getMaxQueuedMessages() {
+        return maxQueuedMessages;
+    }
+
+    /**
+     * @param maxQueuedMessages Maximum number of messages waiting to be handed to the socket.
+     */
+    public void setMaxQueuedMessages(int maxQueuedMessages) {
+        if (maxQueuedMessages < 1) throw new IllegalArgumentException("maxQueuedMessages must be positive");
+        this.maxQueuedMessages = maxQueuedMessages;
+    }
+
+    /**
+     * @return Maximum number of bytes waiting to be handed to the socket.
+     */
+    public long getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    /**
+     * @param maxQueuedBytes Maximum number of bytes waiting to be handed to the socket.
+     */
+    public void setMaxQueuedBytes(long maxQueuedBytes) {
+        if (maxQueuedBytes < 1) throw new IllegalArgumentException("maxQueuedBytes must be positive");
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /**
+     * @return Number of bytes buffered inside the socket above which new messages are held back in our queue.
+     */
+    public long getWriteBufferHighWatermark() {
+        return writeBufferHighWatermark;
+    }
+
+    /**
+     * @param writeBufferHighWatermark Number of bytes buffered inside the socket above which new messages are held
+     *                                 back in our queue.
+     */
+    public void setWriteBufferHighWatermark(long writeBufferHighWatermark) {
+        if (writeBufferHighWatermark < 0) throw new IllegalArgumentException("writeBufferHighWatermark must not be negative");
+        this.writeBufferHighWatermark = writeBufferHighWatermark;
+    }
+
+    /**
+     * @return How long the socket may hold buffered bytes without writing any of them before the connection is
+     * considered stalled and is dropped so that it can be re-established.
+     */
+    public long getStallTimeoutMillis() {
+        return stallTimeoutMillis;
+    }
+
+    /**
+     * @param stallTimeoutMillis How long the socket may hold buffered bytes without writing any of them before the
+     *                           connection is considered stalled and is dropped so that it can be re-established.
+     */
+    public void setStallTimeoutMillis(long stallTimeoutMillis) {
+        if (stallTimeoutMillis < 1) throw new IllegalArgumentException("stallTimeoutMillis must be positive");
+        this.stallTimeoutMillis = stallTimeoutMillis;
+    }
+
+    /**
+     * @return What to do with a new message when the queue is full.
+     */
+    @NotNull
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @param overflowPolicy What to do with a new message when the queue is full.
+     */
+    public void setOverflowPolicy(@NotNull OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @Override
+    public String toString() {
+        return "MaxQueuedMessages:" + maxQueuedMessages + " MaxQueuedBytes:" + maxQueuedBytes +
+                " WriteBufferHighWatermark:" + writeBufferHighWatermark + " StallTimeoutMillis:" + stallTimeoutMillis +
+                " OverflowPolicy:" + overflowPolicy;
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * The new message is not sent and the send call reports failure.
+         */
+        REJECT_NEW,
+        /**
+         * The oldest queued message is discarded to make room for the new one.
+         */
+        DROP_OLDEST,
+        /**
+         * The connection is dropped so that it can be re-established; queued messages are discarded.
+         */
+        DISCONNECT
+    }
+
+}
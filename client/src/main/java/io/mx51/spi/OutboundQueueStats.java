@@ -0,0 +1,90 @@
+package io.mx51.spi;
+
+/**
+ * Point-in-time view of the outbound queue of a terminal connection.
+ */
+public class OutboundQueueStats {
+
+    private final int queuedMessages;
+    private final long queuedBytes;
+    private final long socketBufferedBytes;
+    private final long totalQueuedTimeMillis;
+    private final long maxQueuedTimeMillis;
+    private final long rejectedMessages;
+    private final long droppedMessages;
+
+    OutboundQueueStats(int queuedMessages, long queuedBytes, long socketBufferedBytes, long totalQueuedTimeMillis,
+                       long maxQueuedTimeMillis, long rejectedMessages, long droppedMessages) {
+        this.queuedMessages = queuedMessages;
+        this.queuedBytes = queuedBytes;
+        this.socketBufferedBytes = socketBufferedBytes;
+        this.totalQueuedTimeMillis = totalQueuedTimeMillis;
+        this.maxQueuedTimeMillis = maxQueuedTimeMillis;
+        this.rejectedMessages = rejectedMessages;
+        this.droppedMessages = droppedMessages;
+    }
+
+    /**
+     * @return Number of messages waiting to be handed to the socket.
+     */
+    public int getQueuedMessages() {
+        return queuedMessages;
+    }
+
+    /**
+     * @return Bytes waiting to be handed to the socket.
+     */
+    public long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * @return Bytes already handed to the socket but not yet written to the network.
+     */
+    public long getSocketBufferedBytes() {
+        return socketBufferedBytes;
+    }
+
+    /**
+     * @return All bytes sent by the POS that have not reached the network yet.
+     */
+    public long getBytesInFlight() {
+        return queuedBytes + socketBufferedBytes;
+    }
+
+    /**
+     * @return Total time messages have spent waiting in the queue since the connection was created.
+     */
+    public long getTotalQueuedTimeMillis() {
+        return totalQueuedTimeMillis;
+    }
+
+    /**
+     * @return Longest time a single message has spent waiting in the queue since the connection was created.
+     */
+    public long getMaxQueuedTimeMillis() {
+        return maxQueuedTimeMillis;
+    }
+
+    /**
+     * @return Messages refused because the queue was full.
+     */
+    public long getRejectedMessages() {
+        return rejectedMessages;
+    }
+
+    /**
+     * @return Queued messages discarded, either to make room or because the connection was dropped.
+     */
+    public long getDroppedMessages() {
+        return droppedMessages;
+    }
+
+    @Override
+    public String toString() {
+        return "QueuedMessages:" + queuedMessages + " QueuedBytes:" + queuedBytes + " SocketBufferedBytes:" + socketBufferedBytes +
+                " TotalQueuedTimeMillis:" + totalQueuedTimeMillis + " MaxQueuedTimeMillis:" + maxQueuedTimeMillis +
+                " RejectedMessages:" + rejectedMessages + " DroppedMessages:" + droppedMessages;
+    }
+
+}
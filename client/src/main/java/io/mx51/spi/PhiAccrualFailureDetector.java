@@ -0,0 +1,141 @@
+package io.mx51.spi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The phi accrual failure detector of Hayashibara et al., as used by Akka and Cassandra.
+ * <p>
+ * Keeps the intervals between the last few messages from the terminal, and from their mean and deviation works out
+ * how unlikely the current silence is: phi is -log10 of the probability that a message is still to come, so a phi of
+ * 8 means the connection would be wrongly dropped about once in 10^8 checks. Unlike a count of missed pongs, the
+ * time it takes to notice a dead connection follows how steady the link has been.
+ * <p>
+ * Messages must arrive regularly for the estimate to mean anything, so pair this with a short, fixed ping interval
+ * in {@link KeepaliveConfig}. On a LAN, pinging every second with the defaults here notices a dead connection in
+ * about 2 seconds.
+ */
+public final class PhiAccrualFailureDetector implements FailureDetector {
+
+    private final double threshold;
+    private final double minStdDeviation;
+    private final double acceptableHeartbeatPause;
+    private final long checkIntervalMillis;
+
+    // Ring of the most recent intervals in milliseconds, with their running sums.
+    private final double[] intervals;
+    private int count;
+    private int next;
+    private double sum;
+    private double sumOfSquares;
+    private long lastHeartbeat;
+    private boolean monitoring;
+
+    /**
+     * A threshold of 8, the last 200 intervals, a minimum deviation of 100 ms, no extra pause allowed, a first
+     * interval estimate of 1 second, and checks every 100 ms.
+     */
+    public PhiAccrualFailureDetector() {
+        this(8.0, 200, 100, 0, 1000, 100);
+    }
+
+    /**
+     * @param threshold                      Phi above which the connection is considered dead.
+     * @param maxSampleSize                  Number of intervals kept.
+     * @param minStdDeviationMillis          Lower bound of the deviation, so that a very steady link does not make
+     *                                       the slightest delay suspicious.
+     * @param acceptableHeartbeatPauseMillis Added to the mean interval, to allow for pauses such as garbage collection.
+     * @param firstHeartbeatEstimateMillis   Interval assumed before any have been measured.
+     * @param checkIntervalMillis            How often phi is checked.
+     */
+    public PhiAccrualFailureDetector(double threshold, int maxSampleSize, long minStdDeviationMillis,
+                                     long acceptableHeartbeatPauseMillis, long firstHeartbeatEstimateMillis,
+                                     long checkIntervalMillis) {
+        if (threshold <= 0) throw new IllegalArgumentException("threshold must be positive");
+        if (maxSampleSize < 1) throw new IllegalArgumentException("maxSampleSize must be positive");
+        if (minStdDeviationMillis < 1) throw new IllegalArgumentException("minStdDeviationMillis must be positive");
+        if (acceptableHeartbeatPauseMillis < 0) throw new IllegalArgumentException("acceptableHeartbeatPauseMillis must not be negative");
+        if (firstHeartbeatEstimateMillis < 1) throw new IllegalArgumentException("firstHeartbeatEstimateMillis must be positive");
+        if (checkIntervalMillis < 1) throw new IllegalArgumentException("checkIntervalMillis must be positive");
+        this.threshold = threshold;
+        this.minStdDeviation = minStdDeviationMillis;
+        this.acceptableHeartbeatPause = acceptableHeartbeatPauseMillis;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.intervals = new double[Math.max(2, maxSampleSize)];
+        // Seeded with a mean of the estimate and a deviation of a quarter of it.
+        final double deviation = firstHeartbeatEstimateMillis / 4.0;
+        add(firstHeartbeatEstimateMillis - deviation);
+        add(firstHeartbeatEstimateMillis + deviation);
+    }
+
+    @Override
+    public synchronized void connected(long nanoTime) {
+        // The time spent reconnecting says nothing about the link, so it is not an interval.
+        lastHeartbeat = nanoTime;
+        monitoring = true;
+    }
+
+    @Override
+    public synchronized void heartbeat(long nanoTime) {
+        if (monitoring) add((nanoTime - lastHeartbeat) / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        lastHeartbeat = nanoTime;
+        monitoring = true;
+    }
+
+    @Override
+    public void pongMissed(long nanoTime) {
+        // Only the silence counts.
+    }
+
+    @Override
+    public boolean isSuspected(long nanoTime) {
+        return phi(nanoTime) > threshold;
+    }
+
+    @Override
+    public long getCheckIntervalMillis() {
+        return checkIntervalMillis;
+    }
+
+    /**
+     * @param nanoTime {@link System#nanoTime()} now.
+     * @return The suspicion level; 0 before the first connection.
+     */
+    public synchronized double phi(long nanoTime) {
+        if (!monitoring) return 0;
+        final double elapsed = (nanoTime - lastHeartbeat) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        final double mean = sum / count;
+        final double variance = Math.max(0, sumOfSquares / count - mean * mean);
+        final double deviation = Math.max(minStdDeviation, Math.sqrt(variance));
+        return phi(elapsed, mean + acceptableHeartbeatPause, deviation);
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * -log10 of the probability that a normally distributed interval is longer than the elapsed time, with the
+     * logistic approximation of the normal distribution Akka uses.
+     */
+    static double phi(double elapsed, double mean, double deviation) {
+        final double y = (elapsed - mean) / deviation;
+        final double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsed > mean) return -Math.log10(e / (1.0 + e));
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    private void add(double interval) {
+        if (count == intervals.length) {
+            final double oldest = intervals[next];
+            sum -= oldest;
+            sumOfSquares -= oldest * oldest;
+        } else {
+            count++;
+        }
+        intervals[next] = interval;
+        next = (next + 1) % intervals.length;
+        sum += interval;
+        sumOfSquares += interval * interval;
+    }
+
+}
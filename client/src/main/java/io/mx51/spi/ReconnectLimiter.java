@@ -0,0 +1,52 @@
+package io.mx51.spi;
+
+/**
+ * A token bucket shared by the {@link Spi} instances of one JVM, bounding how often they may try to reconnect.
+ * <p>
+ * Holds up to {@code burst} tokens, refilled at {@code perSecond}. Each attempt takes a token; an attempt that finds
+ * none is put off until its token would have arrived, so a fleet of terminals dials at the refill rate however many
+ * lost their connections together.
+ */
+public final class ReconnectLimiter {
+
+    private final double burst;
+    private final double perNano;
+    private double tokens;
+    private long updated;
+
+    /**
+     * @param burst     Attempts allowed at once.
+     * @param perSecond Attempts allowed per second after that.
+     */
+    public ReconnectLimiter(int burst, double perSecond) {
+        if (burst < 1) throw new IllegalArgumentException("burst must be positive");
+        if (perSecond <= 0) throw new IllegalArgumentException("perSecond must be positive");
+        this.burst = burst;
+        this.perNano = perSecond / 1e9;
+        this.tokens = burst;
+        this.updated = System.nanoTime();
+    }
+
+    /**
+     * Takes a token for an attempt, borrowing against the refill if none is left.
+     *
+     * @return Milliseconds until the attempt may go ahead; 0 if straight away.
+     */
+    public long reserve() {
+        return reserve(System.nanoTime());
+    }
+
+    synchronized long reserve(long nanoTime) {
+        tokens = Math.min(burst, tokens + (nanoTime - updated) * perNano);
+        updated = nanoTime;
+        tokens -= 1;
+        if (tokens >= 0) return 0;
+        return (long) Math.ceil(-tokens / perNano / 1e6);
+    }
+
+    @Override
+    public String toString() {
+        return "Burst:" + (long) burst + " PerSecond:" + perNano * 1e9;
+    }
+
+}
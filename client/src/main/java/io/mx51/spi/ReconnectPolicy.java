@@ -0,0 +1,106 @@
+package io.mx51.spi;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long a paired terminal waits before each attempt to reconnect after losing its connection.
+ * <p>
+ * The first attempt comes quickly, after {@link #getFirstRetryDelayMillis()}, as most drops are brief. Later attempts
+ * back off exponentially with decorrelated jitter: each delay is drawn at random between {@link #getBaseDelayMillis()}
+ * and three times the larger of the previous delay and the base, capped at {@link #getMaxDelayMillis()}. Terminals
+ * that lost their connections together, say when a store switch restarts, so drift apart instead of redialling in
+ * lockstep.
+ * <p>
+ * To bound how many terminals dial at once, give the instances that share a network the same
+ * {@link ReconnectLimiter}.
+ */
+public class ReconnectPolicy {
+
+    private long firstRetryDelayMillis = 250;
+    private long baseDelayMillis = TimeUnit.SECONDS.toMillis(1);
+    private long maxDelayMillis = TimeUnit.SECONDS.toMillis(15);
+    private ReconnectLimiter limiter;
+
+    /**
+     * @return Delay before the first attempt after the connection is lost.
+     */
+    public long getFirstRetryDelayMillis() {
+        return firstRetryDelayMillis;
+    }
+
+    /**
+     * @param firstRetryDelayMillis Delay before the first attempt after the connection is lost.
+     */
+    public void setFirstRetryDelayMillis(long firstRetryDelayMillis) {
+        if (firstRetryDelayMillis < 0) throw new IllegalArgumentException("firstRetryDelayMillis must not be negative");
+        this.firstRetryDelayMillis = firstRetryDelayMillis;
+    }
+
+    /**
+     * @return Shortest delay before the later attempts.
+     */
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    /**
+     * @param baseDelayMillis Shortest delay before the later attempts.
+     */
+    public void setBaseDelayMillis(long baseDelayMillis) {
+        if (baseDelayMillis < 1) throw new IllegalArgumentException("baseDelayMillis must be positive");
+        this.baseDelayMillis = baseDelayMillis;
+    }
+
+    /**
+     * @return Longest delay before any attempt.
+     */
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * @param maxDelayMillis Longest delay before any attempt.
+     */
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        if (maxDelayMillis < 1) throw new IllegalArgumentException("maxDelayMillis must be positive");
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @return Limit on attempts shared with other instances, or null for none.
+     */
+    @Nullable
+    public ReconnectLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * @param limiter Limit on attempts shared with other instances, or null for none.
+     */
+    public void setLimiter(@Nullable ReconnectLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * @param attempt       Number of attempts already made since the connection was lost.
+     * @param previousDelay Delay before the previous attempt.
+     * @return Delay before the next attempt.
+     */
+    long nextDelayMillis(int attempt, long previousDelay, Random random) {
+        if (attempt == 0) return Math.min(firstRetryDelayMillis, maxDelayMillis);
+        final long base = Math.min(baseDelayMillis, maxDelayMillis);
+        // Counted from the base, so that the quick first retry does not keep the second in lockstep.
+        final long upper = Math.min(maxDelayMillis, 3 * Math.max(base, previousDelay));
+        return base + (long) (random.nextDouble() * (upper - base));
+    }
+
+    @Override
+    public String toString() {
+        return "FirstRetryDelayMillis:" + firstRetryDelayMillis + " BaseDelayMillis:" + baseDelayMillis +
+                " MaxDelayMillis:" + maxDelayMillis + " Limiter:" + limiter;
+    }
+
+}
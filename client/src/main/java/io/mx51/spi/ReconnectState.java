@@ -0,0 +1,46 @@
+package io.mx51.spi;
+
+/**
+ * Where a terminal is in backing off from reconnecting, see {@link Spi#getReconnectState()}.
+ */
+public final class ReconnectState {
+
+    static final ReconnectState IDLE = new ReconnectState(0, 0, 0);
+
+    private final int attempt;
+    private final long delayMillis;
+    private final long nextAttemptTime;
+
+    ReconnectState(int attempt, long delayMillis, long nextAttemptTime) {
+        this.attempt = attempt;
+        this.delayMillis = delayMillis;
+        this.nextAttemptTime = nextAttemptTime;
+    }
+
+    /**
+     * @return Number of attempts to reconnect made or scheduled since the connection was lost; 0 while connected.
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * @return Back-off delay before the latest attempt, not counting any wait for the {@link ReconnectLimiter}.
+     */
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    /**
+     * @return When the latest attempt is due, in milliseconds since the epoch; 0 if none is.
+     */
+    public long getNextAttemptTime() {
+        return nextAttemptTime;
+    }
+
+    @Override
+    public String toString() {
+        return "Attempt:" + attempt + " DelayMillis:" + delayMillis + " NextAttemptTime:" + nextAttemptTime;
+    }
+
+}
@@ -14,8 +14,12 @@ import java.security.GeneralSecurityException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
@@ -31,13 +35,16 @@ public class Spi {
     static final String PROTOCOL_VERSION = "2.6.0";
 
     private static final long RECONNECTION_TIMEOUT = TimeUnit.SECONDS.toMillis(3);
-    private static final long TX_MONITOR_CHECK_FREQUENCY = TimeUnit.SECONDS.toMillis(1);
     private static final long CHECK_ON_TX_FREQUENCY = TimeUnit.SECONDS.toMillis(20);
     private static final long MAX_WAIT_FOR_CANCEL_TX = TimeUnit.SECONDS.toMillis(10);
-    private static final long PONG_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
-    private static final long PING_FREQUENCY = TimeUnit.SECONDS.toMillis(18);
+    // However busy the connection, pinged this often to keep the clock offset current.
+    private static final long MAX_PONG_AGE = TimeUnit.MINUTES.toMillis(5);
+    // Round trips within this of the average count as steady, however little they have varied.
+    private static final long RTT_GRANULARITY = 50;
     private static final int RETRIES_BEFORE_PAIRING = 3;
     private static final int RETRIES_BEFORE_RESOLVING_DEVICE_ADDRESS = 3;
+    private static final int DEFAULT_WIRE_JOURNAL_CAPACITY = 64;
+    private static final long DEFAULT_KEY_ROLL_GRACE_PERIOD = TimeUnit.SECONDS.toMillis(5);
 
     private static final Pattern REGEX_ITEMS_FOR_POSID = Pattern.compile("[a-zA-Z0-9]*$");
     private static final Pattern REGEX_ITEMS_FOR_EFTPOSADDRESS = Pattern.compile("^[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}$");
@@ -49,17 +56,34 @@ public class Spi {
     private String acquirerCode;
     private boolean inTestMode;
     private boolean autoAddressResolutionEnabled;
-    private Secrets secrets;
+    private volatile Secrets secrets;
     MessageStamp spiMessageStamp;
     private String posVendorId;
     private String posVersion;
     private boolean hasSetInfo;
 
+    private TransportContext transportContext = TransportContext.getDefault();
+    private Transport transport;
+    private OutboundQueueConfig outboundQueueConfig = new OutboundQueueConfig();
+    private KeepaliveConfig keepaliveConfig = new KeepaliveConfig();
+    private FailureDetector failureDetector = new MissedPongsFailureDetector();
+    private ReconnectPolicy reconnectPolicy = new ReconnectPolicy();
+    private volatile ReconnectState reconnectState = ReconnectState.IDLE;
+    // Attempts that have actually dialled; the back-off only moves on with these.
+    private volatile int reconnectsDialled;
+    private final Random reconnectRandom = new Random();
+    private volatile JsonRetention jsonRetention = JsonRetention.OFF;
+    private volatile WireJournal wireJournal;
+    private volatile long keyRollGracePeriod = DEFAULT_KEY_ROLL_GRACE_PERIOD;
+    // The keys the next roll will switch to, calculated in the background.
+    private volatile NextSecrets nextSecrets;
+    // The keys before the last roll, accepted on incoming messages for a while.
+    private volatile RetiredSecrets retiredSecrets;
     Connection conn;
 
     SpiStatus currentStatus;
-    private SpiFlow currentFlow;
-    private PairingFlowState currentPairingFlowState;
+    private volatile SpiFlow currentFlow;
+    private volatile PairingFlowState currentPairingFlowState;
     private TransactionFlowState currentTxFlowState;
     private DeviceAddressStatus currentDeviceStatus;
     private EventHandler<SpiStatus> statusChangedHandler;
@@ -73,26 +97,33 @@ public class Spi {
     private BatteryLevelChangedDelegate batteryLevelChangedDelegate;
     private TerminalConfigurationResponseDelegate terminalConfigurationResponseDelegate;
 
-    private Message mostRecentPingSent;
-    private long mostRecentPingSentTime;
+    private volatile Message mostRecentPingSent;
+    private volatile long mostRecentPingSentTime;
     private Message mostRecentPongReceived;
+    private volatile long mostRecentPongReceivedTime;
+    // System.nanoTime() of the last message that passed the HMAC check.
+    private volatile long lastAuthenticatedReceivedTime;
     private int missedPongsCount;
+    private final LinkEstimator linkEstimator = new LinkEstimator();
     private int retriesSinceLastDeviceAddressResolution = 0;
-    private Thread periodicPingThread;
-    private Thread transactionMonitoringThread;
+    private volatile PeriodicPing periodicPing;
+    private ScheduledFuture<?> txDeadlineFuture;
 
     private final Object txLock = new Object();
-    private final long missedPongsToDisconnect = 2;
+    // Keeps a change of secrets and the message announcing it from being overtaken by other messages.
+    private final Object sendLock = new Object();
 
     private SpiPayAtTable spiPat;
 
     private SpiPreauth spiPreauth;
 
-    private ScheduledThreadPoolExecutor reconnectExecutor;
-    private ScheduledFuture reconnectFuture;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> reconnectFuture;
 
     final SpiConfig config = new SpiConfig();
 
+    private final MessageDispatcher dispatcher = new MessageDispatcher(builtInHandlers());
+
     private int retriesSinceLastPairing = 0;
 
     //endregion
@@ -132,6 +163,7 @@ public class Spi {
 
         // Our stamp for signing outgoing messages
         spiMessageStamp = new MessageStamp(this.posId, this.secrets, 0);
+        spiMessageStamp.setRetainJson(false);
 
         // We will maintain some state
         mostRecentPingSent = null;
@@ -151,7 +183,7 @@ public class Spi {
 
     /**
      * Call this method after constructing an instance of the class and subscribing to events.
-     * It will start background maintenance threads.
+     * It will start background maintenance tasks on the scheduler of the {@link TransportContext}.
      * <p>
      * Most importantly, it connects to the EFTPOS server if it has secrets.
      */
@@ -172,23 +204,147 @@ public class Spi {
             eftposAddress = "";
         }
 
-        reconnectExecutor = new ScheduledThreadPoolExecutor(5);
+        scheduler = transportContext.getScheduler();
         reconnectFuture = null;
 
         resetConn();
-        startTransactionMonitoring();
 
         setCurrentFlow(SpiFlow.IDLE);
         if (secrets != null) {
             LOG.info("Starting in paired state");
+            prepareNextSecrets(secrets);
             currentStatus = SpiStatus.PAIRED_CONNECTING;
             conn.connect(); // This is non-blocking
         } else {
             LOG.info("Starting in unpaired state");
             currentStatus = SpiStatus.UNPAIRED;
+            // Ready for when the terminal's key request comes.
+            PairingHelper.prepareKeyPairs(transportContext.getComputeExecutor());
         }
     }
 
+    /**
+     * Sets the shared network resources used by this instance. Defaults to {@link TransportContext#getDefault()}.
+     * <p>
+     * Must be set before starting!
+     *
+     * @param transportContext Context whose HTTP client, dispatcher and connection pool will be used.
+     */
+    public void setTransportContext(@NotNull TransportContext transportContext) {
+        this.transportContext = transportContext;
+    }
+
+    /**
+     * Sets the web socket implementation used to talk to the terminal. Defaults to the transport of the
+     * {@link TransportContext}.
+     * <p>
+     * Must be set before starting!
+     *
+     * @param transport Web socket implementation, e.g. {@link TransportContext#newJdkWebSocketTransport()}.
+     */
+    public void setTransport(@NotNull Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Sets the limits of the outbound message queue, and what to do when it overflows.
+     * <p>
+     * Must be set before starting!
+     *
+     * @param outboundQueueConfig Queue limits and overflow policy.
+     */
+    public void setOutboundQueueConfig(@NotNull OutboundQueueConfig outboundQueueConfig) {
+        this.outboundQueueConfig = outboundQueueConfig;
+    }
+
+    /**
+     * Sets how often the terminal is pinged to check the connection is alive.
+     * <p>
+     * Must be set before starting!
+     *
+     * @param keepaliveConfig Ping interval bounds and pong timeout.
+     */
+    public void setKeepaliveConfig(@NotNull KeepaliveConfig keepaliveConfig) {
+        this.keepaliveConfig = keepaliveConfig;
+    }
+
+    /**
+     * Sets what decides that the connection is dead and should be re-established. Defaults to
+     * {@link MissedPongsFailureDetector}, after 2 missed pongs.
+     * <p>
+     * Must be set before starting!
+     *
+     * @param failureDetector A detector used by this instance only.
+     */
+    public void setFailureDetector(@NotNull FailureDetector failureDetector) {
+        this.failureDetector = failureDetector;
+    }
+
+    @NotNull
+    public FailureDetector getFailureDetector() {
+        return failureDetector;
+    }
+
+    /**
+     * Sets how long to wait before each attempt to reconnect to the paired terminal, and any limit shared with other
+     * instances.
+     * <p>
+     * Must be set before starting!
+     *
+     * @param reconnectPolicy Back-off delays and optional {@link ReconnectLimiter}.
+     */
+    public void setReconnectPolicy(@NotNull ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+    }
+
+    /**
+     * @return How far this terminal has backed off from reconnecting.
+     */
+    @NotNull
+    public ReconnectState getReconnectState() {
+        return reconnectState;
+    }
+
+    /**
+     * Sets whether messages keep the decrypted JSON they were sent or received as. Defaults to
+     * {@link JsonRetention#OFF}, in which case {@link Message#getDecryptedJson()} serialises it again when asked.
+     *
+     * @param jsonRetention Whether to keep the JSON with every message, in a journal of recent ones, or not at all.
+     */
+    public void setJsonRetention(@NotNull JsonRetention jsonRetention) {
+        setJsonRetention(jsonRetention, DEFAULT_WIRE_JOURNAL_CAPACITY);
+    }
+
+    /**
+     * Like {@link #setJsonRetention(JsonRetention)}, with the number of messages kept by
+     * {@link JsonRetention#RING_BUFFER}.
+     */
+    public void setJsonRetention(@NotNull JsonRetention jsonRetention, int ringBufferCapacity) {
+        wireJournal = jsonRetention == JsonRetention.RING_BUFFER ? new WireJournal(ringBufferCapacity) : null;
+        spiMessageStamp.setRetainJson(jsonRetention == JsonRetention.ON);
+        this.jsonRetention = jsonRetention;
+    }
+
+    /**
+     * Sets how long after the EFTPOS rolls the keys incoming messages signed with the old keys are still accepted, as
+     * they may have been on their way when the keys changed. Defaults to 5 seconds.
+     *
+     * @param gracePeriod Milliseconds, or 0 to only accept the new keys.
+     */
+    public void setKeyRollGracePeriod(long gracePeriod) {
+        if (gracePeriod < 0) throw new IllegalArgumentException("gracePeriod must not be negative");
+        this.keyRollGracePeriod = gracePeriod;
+    }
+
+    /**
+     * @return The most recent messages sent and received, when the JSON retention is
+     * {@link JsonRetention#RING_BUFFER}, otherwise null.
+     */
+    @Nullable
+    public WireJournal getWireJournal() {
+        return wireJournal;
+    }
+
     /**
      * Set the acquirer code of your bank, please contact mx51 for acquirer code.
      */
@@ -461,6 +617,18 @@ public class Spi {
         this.terminalConfigurationResponseDelegate = terminalConfigurationResponseDelegate;
     }
 
+    /**
+     * Subscribe to this event to handle messages that SPI does not handle itself, such as vendor-specific events.
+     * The handler is called on the thread that receives messages, so it should not block.
+     *
+     * @param eventName The event name, as in the {@code event} field of the message.
+     * @param handler   The handler, or null to stop handling the event.
+     * @throws IllegalArgumentException If SPI already handles this event.
+     */
+    public void setMessageHandler(@NotNull String eventName, @Nullable EventHandler<Message> handler) {
+        dispatcher.setHandler(eventName, handler);
+    }
+
     private void statusChanged() {
         if (statusChangedHandler != null) {
             statusChangedHandler.onEvent(getCurrentStatus());
@@ -474,6 +642,7 @@ public class Spi {
     }
 
     void txFlowStateChanged() {
+        scheduleTxDeadline();
         if (txFlowStateChangedHandler != null) {
             txFlowStateChangedHandler.onEvent(getCurrentTxFlowState());
         }
@@ -495,6 +664,25 @@ public class Spi {
         return config;
     }
 
+    /**
+     * Live figures for the outbound message queue of the current connection.
+     *
+     * @return Queue depth, bytes in flight and time spent queued, or null before starting.
+     */
+    @Nullable
+    public OutboundQueueStats getOutboundQueueStats() {
+        final Connection conn = this.conn;
+        return conn == null ? null : conn.getOutboundQueueStats();
+    }
+
+    /**
+     * Live round-trip time, jitter and clock offset of the terminal, from the pongs to our pings.
+     */
+    @NotNull
+    public LinkEstimator getLinkEstimator() {
+        return linkEstimator;
+    }
+
     public void printReport(String key, String payload) {
         send(new PrintingRequest(key, payload).toMessage());
     }
@@ -575,6 +763,7 @@ public class Spi {
 
         pairingFlowStateChanged();
 
+        PairingHelper.prepareKeyPairs(transportContext.getComputeExecutor());
         conn.connect(); // Non-Blocking
         return true;
     }
@@ -1167,7 +1356,7 @@ public class Spi {
      */
     @NotNull
     public Message.SuccessState gltMatch(@NotNull GetLastTransactionResponse gltResponse, @NotNull String posRefId) {
-        LOG.info("GLT CHECK: PosRefId: " + posRefId + "->" + gltResponse.getPosRefId());
+        LOG.info("GLT CHECK: PosRefId: {}->{}", posRefId, gltResponse.getPosRefId());
 
         if (!posRefId.equals(gltResponse.getPosRefId())) {
             return Message.SuccessState.UNKNOWN;
@@ -1215,7 +1404,7 @@ public class Spi {
      */
     @NotNull
     public Message.SuccessState gltMatch(@NotNull GetLastTransactionResponse gltResponse, int expectedAmount, long requestTime, String posRefId) {
-        LOG.info("GLT CHECK: PosRefId: " + posRefId + "->" + gltResponse.getPosRefId());
+        LOG.info("GLT CHECK: PosRefId: {}->{}", posRefId, gltResponse.getPosRefId());
         SimpleDateFormat sdf = new SimpleDateFormat("ddMMyyyyHHmmss");
         Date gltBankDate = null;
         Date requestDateTime = null;
@@ -1249,16 +1438,50 @@ public class Spi {
      *
      * @param m Incoming message.
      */
-    private void handleKeyRequest(@NotNull Message m) {
+    private void handleKeyRequest(@NotNull final Message m) {
         final PairingFlowState currentState = getCurrentPairingFlowState();
         currentState.setMessage("Negotiating pairing...");
         pairingFlowStateChanged();
 
-        // Use the helper. It takes the incoming request, and generates the secrets and the response.
-        final SecretsAndKeyResponse result = PairingHelper.generateSecretsAndKeyResponse(new KeyRequest(m));
-        secrets = result.getSecrets(); // we now have secrets, although pairing is not fully finished yet.
-        spiMessageStamp.setSecrets(secrets); // updating our stamp with the secrets so can encrypt messages later.
-        send(result.getKeyResponse().toMessage()); // send the key_response, i.e. interaction 3 of pairing.
+        // The key exchange takes milliseconds of big-number work, during which the connection must keep reading, to
+        // answer the terminal's pings for one.
+        transportContext.getComputeExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final SecretsAndKeyResponse result;
+                try {
+                    // Use the helper. It takes the incoming request, and generates the secrets and the response.
+                    result = PairingHelper.generateSecretsAndKeyResponse(new KeyRequest(m));
+                } catch (RuntimeException e) {
+                    LOG.error("Could not compute the pairing keys", e);
+                    if (isPairingInProgress(currentState)) onPairingFailed();
+                    return;
+                }
+                onKeyExchangeComputed(currentState, result);
+            }
+        });
+    }
+
+    /**
+     * Finishes the 2nd interaction of the pairing process, once the keys have been computed.
+     */
+    private void onKeyExchangeComputed(@NotNull PairingFlowState pairingFlowState, @NotNull SecretsAndKeyResponse result) {
+        synchronized (sendLock) {
+            if (!isPairingInProgress(pairingFlowState)) {
+                LOG.info("Pairing ended while the keys were being computed, not sending the key response.");
+                return;
+            }
+            // Under the send lock, so that a pong cannot go out encrypted before the key response.
+            secrets = result.getSecrets(); // we now have secrets, although pairing is not fully finished yet.
+            spiMessageStamp.setSecrets(secrets); // updating our stamp with the secrets so can encrypt messages later.
+            send(result.getKeyResponse().toMessage()); // send the key_response, i.e. interaction 3 of pairing.
+        }
+        prepareNextSecrets(result.getSecrets());
+    }
+
+    private boolean isPairingInProgress(@NotNull PairingFlowState pairingFlowState) {
+        return getCurrentFlow() == SpiFlow.PAIRING && getCurrentPairingFlowState() == pairingFlowState
+                && !pairingFlowState.isFinished();
     }
 
     /**
@@ -1317,6 +1540,7 @@ public class Spi {
     private void onPairingFailed() {
         secrets = null;
         spiMessageStamp.setSecrets(null);
+        forgetOtherSecrets();
         conn.disconnect();
 
         final PairingFlowState currentState = getCurrentPairingFlowState();
@@ -1333,6 +1557,10 @@ public class Spi {
         conn.disconnect();
         secrets = null;
         spiMessageStamp.setSecrets(null);
+        forgetOtherSecrets();
+        linkEstimator.reset();
+        reconnectState = ReconnectState.IDLE;
+        reconnectsDialled = 0;
         secretsChanged(secrets);
     }
 
@@ -1340,12 +1568,82 @@ public class Spi {
      * Sometimes the server asks us to roll our secrets.
      */
     private void handleKeyRollingRequest(@NotNull Message m) {
-        // we calculate the new ones...
-        final KeyRollingResult krRes = KeyRollingHelper.performKeyRolling(m, secrets);
-        secrets = krRes.getNewSecrets(); // and update our secrets with them
-        spiMessageStamp.setSecrets(secrets); // and our stamp
-        send(krRes.getKeyRollingConfirmation()); // and we tell the server that all is well.
-        secretsChanged(secrets);
+        final Secrets newSecrets;
+        synchronized (sendLock) {
+            // we calculate the new ones, unless they are ready already...
+            final Secrets oldSecrets = secrets;
+            final NextSecrets next = nextSecrets;
+            final KeyRollingResult krRes = next != null && next.current == oldSecrets
+                    ? KeyRollingHelper.confirmKeyRolling(m, next.next)
+                    : KeyRollingHelper.performKeyRolling(m, oldSecrets);
+            newSecrets = krRes.getNewSecrets();
+
+            // Messages the server signed before rolling may still be on their way. Set before the new secrets, so
+            // that a receiving thread that sees those also sees these.
+            retiredSecrets = new RetiredSecrets(oldSecrets, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(keyRollGracePeriod));
+            secrets = newSecrets; // and update our secrets with them
+            spiMessageStamp.setSecrets(newSecrets); // and our stamp
+            // Under the send lock, so that every message after the confirmation uses the new keys.
+            send(krRes.getKeyRollingConfirmation()); // and we tell the server that all is well.
+        }
+        prepareNextSecrets(newSecrets);
+        secretsChanged(newSecrets);
+    }
+
+    /**
+     * Calculates in the background the secrets the next key roll will switch to.
+     */
+    private void prepareNextSecrets(@NotNull final Secrets current) {
+        transportContext.getComputeExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Secrets next = KeyRollingHelper.nextSecrets(current);
+                next.getCryptoContext();
+                // Unless the keys have changed meanwhile.
+                if (secrets == current) nextSecrets = new NextSecrets(current, next);
+            }
+        });
+    }
+
+    /**
+     * @return The keys before the last roll, if they are still accepted.
+     */
+    @Nullable
+    private Secrets acceptedRetiredSecrets() {
+        final RetiredSecrets retired = retiredSecrets;
+        if (retired == null) return null;
+        if (System.nanoTime() - retired.acceptedUntil >= 0) {
+            retiredSecrets = null;
+            return null;
+        }
+        return retired.secrets;
+    }
+
+    private void forgetOtherSecrets() {
+        nextSecrets = null;
+        retiredSecrets = null;
+    }
+
+    private static final class NextSecrets {
+
+        final Secrets current;
+        final Secrets next;
+
+        NextSecrets(Secrets current, Secrets next) {
+            this.current = current;
+            this.next = next;
+        }
+    }
+
+    private static final class RetiredSecrets {
+
+        final Secrets secrets;
+        final long acceptedUntil;
+
+        RetiredSecrets(Secrets secrets, long acceptedUntil) {
+            this.secrets = secrets;
+            this.acceptedUntil = acceptedUntil;
+        }
     }
 
     //endregion
@@ -1452,22 +1750,29 @@ public class Spi {
         }
 
         if (getCurrentFlow() != SpiFlow.TRANSACTION || currentState.isFinished() || !posRefIdMatched) {
-            String trace = checkPosRefId ? "Incoming Pos Ref ID: " + incomingPosRefId : m.getDecryptedJson();
-
             if (typeName.equals("Cancel")) {
                 final CancelTransactionResponse response = new CancelTransactionResponse(m);
                 if (!response.wasTxnPastPointOfNoReturn()) {
-                    LOG.info("Received " + typeName + " response but I was not waiting for one. " + trace);
+                    logUnexpectedResponse(typeName, m, checkPosRefId, incomingPosRefId);
                     return true;
                 }
             } else {
-                LOG.info("Received " + typeName + " response but I was not waiting for one. " + trace);
+                logUnexpectedResponse(typeName, m, checkPosRefId, incomingPosRefId);
                 return true;
             }
         }
         return false;
     }
 
+    private static void logUnexpectedResponse(String typeName, Message m, boolean checkPosRefId, String incomingPosRefId) {
+        if (!LOG.isInfoEnabled()) return;
+        if (checkPosRefId) {
+            LOG.info("Received {} response but I was not waiting for one. Incoming Pos Ref ID: {}", typeName, incomingPosRefId);
+        } else {
+            LOG.info("Received {} response but I was not waiting for one. {}", typeName, m.getDecryptedJson());
+        }
+    }
+
     /**
      * Sometimes we receive event type "error" from the server, such as when calling cancel_transaction
      * and there is no transaction in progress.
@@ -1482,7 +1787,9 @@ public class Spi {
                 LOG.info("Was trying to cancel a transaction but there is nothing to cancel. Calling GLT to see what's up");
                 callGetLastTransaction();
             } else {
-                LOG.info("Received error event, but don't know what to do with it. " + m.getDecryptedJson());
+                if (LOG.isInfoEnabled()) {
+                    LOG.info("Received error event, but don't know what to do with it. {}", m.getDecryptedJson());
+                }
             }
         }
     }
@@ -1542,7 +1849,7 @@ public class Spi {
                     return;
                 } else {
                     // TH-4X - Unexpected response when recovering
-                    LOG.info("Unexpected Response in get last transaction during - received posRefId:" + gltResponse.getPosRefId() + " error:" + m.getError() + ". Ignoring.");
+                    LOG.info("Unexpected Response in get last transaction during - received posRefId:{} error:{}. Ignoring.", gltResponse.getPosRefId(), m.getError());
                     return;
                 }
             } else {
@@ -1569,48 +1876,69 @@ public class Spi {
         txFlowStateChanged();
     }
 
-    private void startTransactionMonitoring() {
-        stopTransactionMonitoring();
+    /**
+     * Arms a timer for the next point at which the current transaction needs attention: the cancel timeout, or the
+     * time to check on it with a GLT. Called whenever the transaction state changes, so there is no timer at all
+     * while idle.
+     */
+    private void scheduleTxDeadline() {
+        synchronized (txLock) {
+            cancelTxDeadline();
 
-        transactionMonitoringThread = new Thread() {
-            @Override
-            public void run() {
-                while (!isInterrupted()) {
-                    boolean needsPublishing = false;
-                    synchronized (txLock) {
-                        final TransactionFlowState txState = getCurrentTxFlowState();
-                        if (getCurrentFlow() == SpiFlow.TRANSACTION && !txState.isFinished()) {
-                            if (txState.isAttemptingToCancel() && System.currentTimeMillis() > txState.getCancelAttemptTime() + MAX_WAIT_FOR_CANCEL_TX) {
-                                // TH-2T - too long since cancel attempt - Consider unknown
-                                LOG.info("Been too long waiting for transaction to cancel.");
-                                txState.unknownCompleted("Waited long enough for cancel transaction result. Check EFTPOS. ");
-                                needsPublishing = true;
-                            } else if (txState.isRequestSent() && System.currentTimeMillis() > txState.getLastStateRequestTime() + CHECK_ON_TX_FREQUENCY) {
-                                // TH-1T, TH-4T - It's been a while since we received an update, let's call a GLT
-                                LOG.info("Checking on our transaction. Last we asked was at " + txState.getLastStateRequestTime() + "...");
-                                callGetLastTransaction();
-                            }
-                        }
-                    }
-                    if (needsPublishing) txFlowStateChanged();
+            final ScheduledExecutorService scheduler = this.scheduler;
+            final TransactionFlowState txState = getCurrentTxFlowState();
+            if (scheduler == null || getCurrentFlow() != SpiFlow.TRANSACTION || txState == null || txState.isFinished()) {
+                return;
+            }
 
-                    try {
-                        Thread.sleep(TX_MONITOR_CHECK_FREQUENCY);
-                    } catch (InterruptedException e) {
-                        return;
-                    }
+            long deadline = Long.MAX_VALUE;
+            if (txState.isAttemptingToCancel()) {
+                deadline = txState.getCancelAttemptTime() + MAX_WAIT_FOR_CANCEL_TX;
+            }
+            if (txState.isRequestSent()) {
+                deadline = Math.min(deadline, txState.getLastStateRequestTime() + CHECK_ON_TX_FREQUENCY);
+            }
+            if (deadline == Long.MAX_VALUE) return;
+
+            // The checks below require the deadline to have passed, not just been reached.
+            final long delay = Math.max(deadline - System.currentTimeMillis() + 1, 0);
+            txDeadlineFuture = scheduleHandOff(scheduler, new Runnable() {
+                @Override
+                public void run() {
+                    onTxDeadline();
                 }
+            }, delay);
+        }
+    }
+
+    private void cancelTxDeadline() {
+        synchronized (txLock) {
+            if (txDeadlineFuture != null) {
+                txDeadlineFuture.cancel(false);
+                txDeadlineFuture = null;
             }
-        };
-        transactionMonitoringThread.start();
+        }
     }
 
-    private void stopTransactionMonitoring() {
-        if (transactionMonitoringThread != null) {
-            // If we were already set up, clean up before restarting.
-            transactionMonitoringThread.interrupt();
-            transactionMonitoringThread = null;
+    private void onTxDeadline() {
+        boolean needsPublishing = false;
+        synchronized (txLock) {
+            final TransactionFlowState txState = getCurrentTxFlowState();
+            if (getCurrentFlow() == SpiFlow.TRANSACTION && !txState.isFinished()) {
+                if (txState.isAttemptingToCancel() && System.currentTimeMillis() > txState.getCancelAttemptTime() + MAX_WAIT_FOR_CANCEL_TX) {
+                    // TH-2T - too long since cancel attempt - Consider unknown
+                    LOG.info("Been too long waiting for transaction to cancel.");
+                    txState.unknownCompleted("Waited long enough for cancel transaction result. Check EFTPOS. ");
+                    needsPublishing = true;
+                } else if (txState.isRequestSent() && System.currentTimeMillis() > txState.getLastStateRequestTime() + CHECK_ON_TX_FREQUENCY) {
+                    // TH-1T, TH-4T - It's been a while since we received an update, let's call a GLT
+                    LOG.info("Checking on our transaction. Last we asked was at " + txState.getLastStateRequestTime() + "...");
+                    callGetLastTransaction();
+                }
+            }
+            if (!needsPublishing) scheduleTxDeadline();
         }
+        if (needsPublishing) txFlowStateChanged();
     }
 
     /**
@@ -1679,7 +2007,8 @@ public class Spi {
 
     private void resetConn() {
         // Setup the connection
-        conn = new Connection(eftposAddress);
+        conn = new Connection(eftposAddress, transportContext,
+                transport != null ? transport : transportContext.getTransport(), outboundQueueConfig);
         // Register our event handlers
         conn.setEventHandler(new Connection.EventHandler() {
             @Override
@@ -1734,6 +2063,7 @@ public class Spi {
                 mostRecentPingSent = null;
                 mostRecentPongReceived = null;
                 missedPongsCount = 0;
+                linkEstimator.clearOffsets();
                 stopPeriodicPing();
 
                 if (getCurrentStatus() != SpiStatus.UNPAIRED) {
@@ -1748,41 +2078,31 @@ public class Spi {
                     }
 
                     if (conn == null) return; // This means the instance has been disposed. Aborting.
-                    if (reconnectExecutor == null) {
-                        LOG.warn("reconnectExecutor null. Possibly this is still running after dispose?");
+                    if (scheduler == null) {
+                        LOG.warn("scheduler null. Possibly this is still running after dispose?");
+                        return;
+                    }
+                    final ReconnectState previous = reconnectState;
+                    final int dialled = reconnectsDialled;
+                    final ScheduledFuture<?> pending = reconnectFuture;
+                    if (previous.getAttempt() > dialled && pending != null && !pending.isDone()) {
+                        // The last attempt has not dialled yet, so this is the same loss reported twice.
+                        LOG.info("Reconnect already due in {}ms...", previous.getNextAttemptTime() - System.currentTimeMillis());
                         return;
                     }
-                    LOG.info("Will try to reconnect in {}s...", RECONNECTION_TIMEOUT / 1000);
+                    final long delay = reconnectPolicy.nextDelayMillis(dialled, previous.getDelayMillis(), reconnectRandom);
+                    reconnectState = new ReconnectState(dialled + 1, delay, System.currentTimeMillis() + delay);
+                    LOG.info("Will try to reconnect in {}ms...", delay);
                     cleanReconnectFuture();
 
-                    reconnectFuture = reconnectExecutor.schedule(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (autoAddressResolutionEnabled) {
-                                if (retriesSinceLastDeviceAddressResolution >= RETRIES_BEFORE_RESOLVING_DEVICE_ADDRESS) {
-                                    autoResolveEftposAddress();
-                                    retriesSinceLastDeviceAddressResolution = 0;
-                                } else {
-                                    retriesSinceLastDeviceAddressResolution++;
-                                }
-                            }
-
-                            if (getCurrentStatus() != SpiStatus.UNPAIRED) {
-                                // This is non-blocking
-                                Connection conn = Spi.this.conn;
-                                if (conn != null) {
-                                    conn.connect();
-                                }
-                            }
-                        }
-                    }, RECONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+                    reconnectFuture = scheduleHandOff(scheduler, new Reconnect(reconnectPolicy.getLimiter()), delay);
                 } else if (getCurrentFlow() == SpiFlow.PAIRING) {
                     if (retriesSinceLastPairing < RETRIES_BEFORE_PAIRING) {
                         LOG.info("Will try to re-pair in {}s...", RECONNECTION_TIMEOUT / 1000);
                         cleanReconnectFuture();
                     }
 
-                    reconnectFuture = reconnectExecutor.schedule(new Runnable() {
+                    reconnectFuture = scheduleHandOff(scheduler, new Runnable() {
                         @Override
                         public void run() {
                             if (currentPairingFlowState.isFinished()) return;
@@ -1804,7 +2124,7 @@ public class Spi {
                                 retriesSinceLastPairing++;
                             }
                         }
-                    }, RECONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+                    }, RECONNECTION_TIMEOUT);
                 }
                 break;
             default:
@@ -1813,64 +2133,160 @@ public class Spi {
     }
 
     /**
-     * This is an important piece of the puzzle. It's a background thread that periodically
+     * This is an important piece of the puzzle. It's a background task that periodically
      * sends pings to the server. If it doesn't receive pongs, it considers the connection as broken
      * so it disconnects.
      */
     private void startPeriodicPing() {
         stopPeriodicPing();
 
-        periodicPingThread = new Thread() {
-            @Override
-            public void run() {
-                while (!isInterrupted() && conn.isConnected() && secrets != null) {
-                    doPing();
+        periodicPing = new PeriodicPing();
+        periodicPing.start();
+    }
+
+    /**
+     * When we disconnect, we should also stop the periodic ping.
+     */
+    private void stopPeriodicPing() {
+        if (periodicPing != null) {
+            // If we were already set up, clean up before restarting.
+            periodicPing.stop();
+            periodicPing = null;
+        }
+    }
+
+    /**
+     * Alternates between sending a ping and checking for its pong, rescheduling itself each time. Pings are held back
+     * while the terminal keeps sending other messages, as those show the connection is alive too.
+     */
+    private final class PeriodicPing implements Runnable {
 
-                    try {
-                        Thread.sleep(PONG_TIMEOUT);
-                    } catch (InterruptedException e) {
+        private final KeepaliveConfig config = keepaliveConfig;
+        private final FailureDetector detector = failureDetector;
+        private volatile boolean stopped;
+        private boolean awaitingPong;
+        private long pingSentTime;
+        private long interval = config.getMinPingIntervalMillis();
+        private ScheduledFuture<?> future;
+        private ScheduledFuture<?> checkFuture;
+
+        @Override
+        public synchronized void run() {
+            if (stopped) return;
+
+            final Connection conn = Spi.this.conn;
+            if (!awaitingPong) {
+                if (conn == null || !conn.isConnected() || secrets == null) return;
+
+                // The first pong of a connection finalises it, so the first ping is always sent, as is a retry.
+                if (mostRecentPongReceived != null && missedPongsCount == 0 && millisSince(mostRecentPongReceivedTime) < MAX_PONG_AGE) {
+                    final long quiet = millisSince(lastAuthenticatedReceivedTime);
+                    if (quiet < interval) {
+                        schedule(interval - quiet);
                         return;
                     }
+                }
 
-                    if (mostRecentPingSent != null &&
-                            (mostRecentPongReceived == null || !mostRecentPongReceived.getId().equals(mostRecentPingSent.getId()))) {
+                pingSentTime = System.nanoTime();
+                doPing();
+                awaitingPong = true;
+                schedule(config.getPongTimeoutMillis());
+                return;
+            }
 
-                        missedPongsCount += 1;
-                        LOG.warn("EFTPOS didn't reply to my ping. Missed count: " + missedPongsCount + "/" + missedPongsToDisconnect + ". ");
+            awaitingPong = false;
+            final boolean ponged = mostRecentPongReceived != null && mostRecentPongReceived.getId().equals(mostRecentPingSent.getId());
+            if (ponged) {
+                // Checked more rarely while pongs come back in good time.
+                interval = isRttSteady()
+                        ? Math.min(config.getMaxPingIntervalMillis(), Math.max(config.getMinPingIntervalMillis(), 2 * interval))
+                        : config.getMinPingIntervalMillis();
+            } else if (mostRecentPongReceived != null && lastAuthenticatedReceivedTime - pingSentTime > 0) {
+                // The pong is late, but the terminal has sent something else since the ping, so it is alive.
+                LOG.info("EFTPOS didn't reply to my ping in time, but is still sending.");
+                interval = config.getMinPingIntervalMillis();
+            } else {
+                missedPongsCount += 1;
+                interval = config.getMinPingIntervalMillis();
+                LOG.warn("EFTPOS didn't reply to my ping. Missed count: {}. ", missedPongsCount);
+
+                final long now = System.nanoTime();
+                detector.pongMissed(now);
+                if (!detector.isSuspected(now)) {
+                    LOG.info("Trying another ping...");
+                    schedule(0);
+                    return;
+                }
 
-                        if (missedPongsCount < missedPongsToDisconnect) {
-                            LOG.info("Trying another ping...");
-                            continue;
-                        }
+                // This means that we have reached missed pong limit.
+                // We consider this connection as broken.
+                // Let's Disconnect.
+                LOG.warn("Disconnecting...");
+                if (conn != null) conn.disconnect();
+                return;
+            }
 
-                        // This means that we have reached missed pong limit.
-                        // We consider this connection as broken.
-                        // Let's Disconnect.
-                        LOG.warn("Disconnecting...");
-                        conn.disconnect();
-                        break;
-                    }
+            missedPongsCount = 0;
+            schedule(Math.max(0, interval - millisSince(lastAuthenticatedReceivedTime)));
+        }
 
-                    missedPongsCount = 0;
-                    try {
-                        Thread.sleep(PING_FREQUENCY - PONG_TIMEOUT);
-                    } catch (InterruptedException e) {
-                        return;
-                    }
+        private long millisSince(long nanoTime) {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanoTime);
+        }
+
+        /**
+         * @return Whether the last round trip was within the usual jitter, as for a TCP retransmission timeout.
+         */
+        private boolean isRttSteady() {
+            final LinkEstimator link = linkEstimator;
+            return link.getLastRtt() <= link.getSmoothedRtt() + Math.max(RTT_GRANULARITY, 4 * link.getRttVariation());
+        }
+
+        synchronized void schedule(long delayMillis) {
+            if (stopped) return;
+            future = scheduleHandOff(scheduler, this, delayMillis);
+        }
+
+        /**
+         * Moves on as soon as the pong arrives, rather than when it would have timed out.
+         */
+        synchronized void pongReceived() {
+            if (awaitingPong && future != null && future.cancel(false)) schedule(0);
+        }
+
+        /**
+         * Starts pinging, and checking the failure detector between pings if it asks for that.
+         */
+        synchronized void start() {
+            detector.connected(System.nanoTime());
+            schedule(0);
+            final long checkInterval = detector.getCheckIntervalMillis();
+            if (checkInterval <= 0) return;
+            final Executor executor = transportContext.getCallbackExecutor();
+            final Runnable disconnect = new Runnable() {
+                @Override
+                public void run() {
+                    LOG.warn("EFTPOS has gone quiet for too long. Disconnecting...");
+                    stop();
+                    final Connection conn = Spi.this.conn;
+                    if (conn != null) conn.disconnect();
                 }
-            }
-        };
-        periodicPingThread.start();
-    }
+            };
+            checkFuture = scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    // Checked here, as it is quick, but the disconnect calls back into the POS.
+                    if (stopped || !detector.isSuspected(System.nanoTime())) return;
+                    stopped = true;
+                    executor.execute(disconnect);
+                }
+            }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+        }
 
-    /**
-     * When we disconnect, we should also stop the periodic ping.
-     */
-    private void stopPeriodicPing() {
-        if (periodicPingThread != null) {
-            // If we were already set up, clean up before restarting.
-            periodicPingThread.interrupt();
-            periodicPingThread = null;
+        synchronized void stop() {
+            stopped = true;
+            if (future != null) future.cancel(false);
+            if (checkFuture != null) checkFuture.cancel(false);
         }
     }
 
@@ -1882,6 +2298,8 @@ public class Spi {
         LOG.info("On Ready To Transact!");
 
         // So, we have just made a connection, pinged and logged in successfully.
+        reconnectState = ReconnectState.IDLE;
+        reconnectsDialled = 0;
         setCurrentStatus(SpiStatus.PAIRED_CONNECTED);
 
         synchronized (txLock) {
@@ -1919,8 +2337,9 @@ public class Spi {
     private void doPing() {
         final Message ping = PingHelper.generatePingRequest();
         mostRecentPingSent = ping;
-        send(ping);
+        // Before sending, as the pong may arrive on another thread before send returns.
         mostRecentPingSentTime = System.currentTimeMillis();
+        send(ping);
     }
 
     /**
@@ -1928,7 +2347,13 @@ public class Spi {
      */
     private void handleIncomingPong(Message m) {
         // We need to maintain this time delta otherwise the server will not accept our messages.
-        spiMessageStamp.setServerTimeDelta(m.getServerTimeDelta());
+        // Adjusted for the time the pong took to get here when it answers our last ping.
+        final long now = System.currentTimeMillis();
+        final long pongTime = m.getServerTime();
+        final Message ping = mostRecentPingSent;
+        final boolean answersPing = ping != null && ping.getId().equals(m.getId());
+        if (answersPing) linkEstimator.sample(mostRecentPingSentTime, pongTime, now);
+        spiMessageStamp.setServerTimeDelta(linkEstimator.hasSamples() ? linkEstimator.getClockOffset() : pongTime - now);
 
         if (mostRecentPongReceived == null) {
             // First pong received after a connection, and after the pairing process is fully finalised.
@@ -1940,8 +2365,12 @@ public class Spi {
             }
         }
 
+        mostRecentPongReceivedTime = System.nanoTime();
         mostRecentPongReceived = m;
-        LOG.debug("PongLatency:" + (System.currentTimeMillis() - mostRecentPingSentTime));
+        if (LOG.isDebugEnabled()) LOG.debug("PongLatency:{} {}", now - mostRecentPingSentTime, linkEstimator);
+
+        final PeriodicPing periodicPing = this.periodicPing;
+        if (answersPing && periodicPing != null) periodicPing.pongReceived();
     }
 
     /**
@@ -1958,6 +2387,7 @@ public class Spi {
         final Message gltMessage = new GetLastTransactionRequest().toMessage();
         getCurrentTxFlowState().callingGlt(gltMessage.getId());
         send(gltMessage);
+        scheduleTxDeadline();
     }
 
     /**
@@ -1965,10 +2395,23 @@ public class Spi {
      */
     private void onSpiMessageReceived(@NotNull String messageJson) {
         // First we parse the incoming message
-        final Message m = Message.fromJson(messageJson, secrets);
-        LOG.debug("Received: " + m.getDecryptedJson());
+        // The current secrets are read first; see handleKeyRollingRequest.
+        final Message m = Message.fromJson(messageJson, secrets, acceptedRetiredSecrets());
+        if (m.getIncomingHmac() != null) {
+            final long now = System.nanoTime();
+            lastAuthenticatedReceivedTime = now;
+            failureDetector.heartbeat(now);
+        }
+        final WireJournal journal = wireJournal;
+        if (journal != null) journal.record(WireJournal.Direction.INBOUND, m, m.getDecryptedJson());
+        if (LOG.isDebugEnabled()) LOG.debug("Received: {}", m.getDecryptedJson());
+        if (jsonRetention != JsonRetention.ON) m.dropDecryptedJson();
+
+        // And then we look up the handler for the event type.
+        if (dispatcher.dispatch(m)) return;
 
-        if (SpiPreauth.isPreauthEvent(m.getEventName())) {
+        final String eventName = m.getEventName();
+        if (eventName != null && SpiPreauth.isPreauthEvent(eventName)) {
             final SpiPreauth spiPreauth = this.spiPreauth;
             if (spiPreauth != null) {
                 spiPreauth.handlePreauthMessage(m);
@@ -1976,86 +2419,228 @@ public class Spi {
             return;
         }
 
-        // And then we switch on the event type.
-        final String eventName = m.getEventName();
-        if (Events.KEY_REQUEST.equals(eventName)) {
-            handleKeyRequest(m);
-        } else if (Events.KEY_CHECK.equals(eventName)) {
-            handleKeyCheck(m);
-        } else if (Events.PAIR_RESPONSE.equals(eventName)) {
-            handlePairResponse(m);
-        } else if (Events.DROP_KEYS_ADVICE.equals(eventName)) {
-            handleDropKeysAdvice(m);
-        } else if (Events.PURCHASE_RESPONSE.equals(eventName)) {
-            handlePurchaseResponse(m);
-        } else if (Events.REFUND_RESPONSE.equals(eventName)) {
-            handleRefundResponse(m);
-        } else if (Events.CASHOUT_ONLY_RESPONSE.equals(eventName)) {
-            handleCashoutOnlyResponse(m);
-        } else if (Events.MOTO_PURCHASE_RESPONSE.equals(eventName)) {
-            handleMotoPurchaseResponse(m);
-        } else if (Events.SIGNATURE_REQUIRED.equals(eventName)) {
-            handleSignatureRequired(m);
-        } else if (Events.AUTH_CODE_REQUIRED.equals(eventName)) {
-            handleAuthCodeRequired(m);
-        } else if (Events.GET_LAST_TRANSACTION_RESPONSE.equals(eventName)) {
-            handleGetLastTransactionResponse(m);
-        } else if (Events.SETTLEMENT_ENQUIRY_RESPONSE.equals(eventName)) {
-            handleSettlementEnquiryResponse(m);
-        } else if (Events.SETTLE_RESPONSE.equals(eventName)) {
-            handleSettleResponse(m);
-        } else if (Events.PING.equals(eventName)) {
-            handleIncomingPing(m);
-        } else if (Events.PONG.equals(eventName)) {
-            handleIncomingPong(m);
-        } else if (Events.KEY_ROLL_REQUEST.equals(eventName)) {
-            handleKeyRollingRequest(m);
-        } else if (Events.CANCEL_TRANSACTION_RESPONSE.equals(eventName)) {
-            handleCancelTransactionResponse(m);
-        } else if (Events.SET_POS_INFO_RESPONSE.equals(eventName)) {
-            handleSetPosInfoResponse(m);
-        } else if (Events.PAY_AT_TABLE_GET_TABLE_CONFIG.equals(eventName)) {
-            final SpiPayAtTable spiPat = this.spiPat;
-            if (spiPat != null) {
-                spiPat.handleGetTableConfig(m);
-            } else {
-                send(PayAtTableConfig.featureDisableMessage(RequestIdHelper.id("patconf")));
-            }
-        } else if (Events.PAY_AT_TABLE_GET_BILL_DETAILS.equals(eventName)) {
-            final SpiPayAtTable spiPat = this.spiPat;
-            if (spiPat != null) {
-                spiPat.handleGetBillDetailsRequest(m);
-            }
-        } else if (Events.PAY_AT_TABLE_BILL_PAYMENT.equals(eventName)) {
-            final SpiPayAtTable spiPat = this.spiPat;
-            if (spiPat != null) {
-                spiPat.handleBillPaymentAdvice(m);
-            }
-        } else if (Events.PAY_AT_TABLE_GET_OPEN_TABLES.equals(eventName)) {
-            final SpiPayAtTable spiPat = this.spiPat;
-            if (spiPat != null) {
-                spiPat.handleGetOpenTablesRequest(m);
-            }
-        } else if (Events.PAY_AT_TABLE_BILL_PAYMENT_FLOW_ENDED.equals(eventName)) {
-            final SpiPayAtTable spiPat = this.spiPat;
-            if (spiPat != null) {
-                spiPat.handleBillPaymentFlowEnded(m);
-            }
-        } else if (Events.PRINTING_RESPONSE.equals(eventName)) {
-            handlePrintingResponse(m);
-        } else if (Events.TERMINAL_STATUS_RESPONSE.equals(eventName)) {
-            handleTerminalStatusResponse(m);
-        } else if (Events.BATTERY_LEVEL_CHANGED.equals(eventName)) {
-            handleBatteryLevelChanged(m);
-        } else if (Events.TERMINAL_CONFIGURATION_RESPONSE.equals(eventName)) {
-            handleTerminalConfigurationResponse(m);
-        } else if (Events.ERROR.equals(eventName)) {
-            handleErrorEvent(m);
-        } else if (Events.INVALID_HMAC_SIGNATURE.equals(eventName)) {
-            LOG.info("I could not verify message from EFTPOS. You might have to un-pair EFTPOS and then reconnect.");
-        } else {
-            LOG.info("I don't understand event: " + eventName + ", " + m.getData() + ". Perhaps I have not implemented it yet.");
+        if (LOG.isInfoEnabled()) {
+            LOG.info("I don't understand event: {}, {}. Perhaps I have not implemented it yet.", eventName, m.getData());
+        }
+    }
+
+    /**
+     * @return The handlers for every event SPI knows, to build the dispatcher from once.
+     */
+    private Map<String, EventHandler<Message>> builtInHandlers() {
+        final Map<String, EventHandler<Message>> handlers = new HashMap<String, EventHandler<Message>>();
+        handlers.put(Events.KEY_REQUEST, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleKeyRequest(m);
+            }
+        });
+        handlers.put(Events.KEY_CHECK, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleKeyCheck(m);
+            }
+        });
+        handlers.put(Events.PAIR_RESPONSE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handlePairResponse(m);
+            }
+        });
+        handlers.put(Events.DROP_KEYS_ADVICE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleDropKeysAdvice(m);
+            }
+        });
+        handlers.put(Events.PURCHASE_RESPONSE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handlePurchaseResponse(m);
+            }
+        });
+        handlers.put(Events.REFUND_RESPONSE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleRefundResponse(m);
+            }
+        });
+        handlers.put(Events.CASHOUT_ONLY_RESPONSE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleCashoutOnlyResponse(m);
+            }
+        });
+        handlers.put(Events.MOTO_PURCHASE_RESPONSE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleMotoPurchaseResponse(m);
+            }
+        });
+        handlers.put(Events.SIGNATURE_REQUIRED, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleSignatureRequired(m);
+            }
+        });
+        handlers.put(Events.AUTH_CODE_REQUIRED, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleAuthCodeRequired(m);
+            }
+        });
+        handlers.put(Events.GET_LAST_TRANSACTION_RESPONSE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleGetLastTransactionResponse(m);
+            }
+        });
+        handlers.put(Events.SETTLEMENT_ENQUIRY_RESPONSE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleSettlementEnquiryResponse(m);
+            }
+        });
+        handlers.put(Events.SETTLE_RESPONSE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleSettleResponse(m);
+            }
+        });
+        handlers.put(Events.PING, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleIncomingPing(m);
+            }
+        });
+        handlers.put(Events.PONG, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleIncomingPong(m);
+            }
+        });
+        handlers.put(Events.KEY_ROLL_REQUEST, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleKeyRollingRequest(m);
+            }
+        });
+        handlers.put(Events.CANCEL_TRANSACTION_RESPONSE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleCancelTransactionResponse(m);
+            }
+        });
+        handlers.put(Events.SET_POS_INFO_RESPONSE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleSetPosInfoResponse(m);
+            }
+        });
+        handlers.put(Events.PAY_AT_TABLE_GET_TABLE_CONFIG, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                final SpiPayAtTable spiPat = Spi.this.spiPat;
+                if (spiPat != null) {
+                    spiPat.handleGetTableConfig(m);
+                } else {
+                    send(PayAtTableConfig.featureDisableMessage(RequestIdHelper.id("patconf")));
+                }
+            }
+        });
+        handlers.put(Events.PAY_AT_TABLE_GET_BILL_DETAILS, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                final SpiPayAtTable spiPat = Spi.this.spiPat;
+                if (spiPat != null) {
+                    spiPat.handleGetBillDetailsRequest(m);
+                }
+            }
+        });
+        handlers.put(Events.PAY_AT_TABLE_BILL_PAYMENT, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                final SpiPayAtTable spiPat = Spi.this.spiPat;
+                if (spiPat != null) {
+                    spiPat.handleBillPaymentAdvice(m);
+                }
+            }
+        });
+        handlers.put(Events.PAY_AT_TABLE_GET_OPEN_TABLES, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                final SpiPayAtTable spiPat = Spi.this.spiPat;
+                if (spiPat != null) {
+                    spiPat.handleGetOpenTablesRequest(m);
+                }
+            }
+        });
+        handlers.put(Events.PAY_AT_TABLE_BILL_PAYMENT_FLOW_ENDED, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                final SpiPayAtTable spiPat = Spi.this.spiPat;
+                if (spiPat != null) {
+                    spiPat.handleBillPaymentFlowEnded(m);
+                }
+            }
+        });
+        handlers.put(Events.PRINTING_RESPONSE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handlePrintingResponse(m);
+            }
+        });
+        handlers.put(Events.TERMINAL_STATUS_RESPONSE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleTerminalStatusResponse(m);
+            }
+        });
+        handlers.put(Events.BATTERY_LEVEL_CHANGED, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleBatteryLevelChanged(m);
+            }
+        });
+        handlers.put(Events.TERMINAL_CONFIGURATION_RESPONSE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleTerminalConfigurationResponse(m);
+            }
+        });
+        handlers.put(Events.ERROR, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                handleErrorEvent(m);
+            }
+        });
+        handlers.put(Events.INVALID_HMAC_SIGNATURE, new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                LOG.info("I could not verify message from EFTPOS. You might have to un-pair EFTPOS and then reconnect.");
+            }
+        });
+
+        // Preauth events go to the preauth extension when it is enabled.
+        final EventHandler<Message> preauth = new EventHandler<Message>() {
+            @Override
+            public void onEvent(Message m) {
+                final SpiPreauth spiPreauth = Spi.this.spiPreauth;
+                if (spiPreauth != null) {
+                    spiPreauth.handlePreauthMessage(m);
+                }
+            }
+        };
+        for (String eventName : new String[]{Events.ACCOUNT_VERIFY_REQUEST, Events.ACCOUNT_VERIFY_RESPONSE,
+                Events.PREAUTH_OPEN_REQUEST, Events.PREAUTH_OPEN_RESPONSE,
+                Events.PREAUTH_TOPUP_REQUEST, Events.PREAUTH_TOPUP_RESPONSE,
+                Events.PREAUTH_EXTEND_REQUEST, Events.PREAUTH_EXTEND_RESPONSE,
+                Events.PREAUTH_PARTIAL_CANCELLATION_REQUEST, Events.PREAUTH_PARTIAL_CANCELLATION_RESPONSE,
+                Events.PREAUTH_CANCELLATION_REQUEST, Events.PREAUTH_CANCELLATION_RESPONSE,
+                Events.PREAUTH_COMPLETE_REQUEST, Events.PREAUTH_COMPLETE_RESPONSE}) {
+            handlers.put(eventName, preauth);
         }
+        return handlers;
     }
 
     private void onWsErrorReceived(@Nullable Throwable error) {
@@ -2063,14 +2648,21 @@ public class Spi {
     }
 
     boolean send(Message message) {
-        final String json = message.toJson(spiMessageStamp);
-        if (conn.isConnected()) {
-            LOG.debug("Sending: " + message.getDecryptedJson());
-            conn.send(json);
-            return true;
-        } else {
-            LOG.debug("Asked to send, but not connected: " + message.getDecryptedJson());
-            return false;
+        synchronized (sendLock) {
+            final String json = message.toJson(spiMessageStamp);
+            if (conn.isConnected()) {
+                final WireJournal journal = wireJournal;
+                if (journal != null) journal.record(WireJournal.Direction.OUTBOUND, message, null);
+                if (LOG.isDebugEnabled()) LOG.debug("Sending: {}", message.getDecryptedJson());
+                if (!conn.send(json)) {
+                    LOG.warn("Could not send message: {}", message.getEventName());
+                    return false;
+                }
+                return true;
+            } else {
+                if (LOG.isDebugEnabled()) LOG.debug("Asked to send, but not connected: {}", message.getDecryptedJson());
+                return false;
+            }
         }
     }
 
@@ -2131,10 +2723,10 @@ public class Spi {
             return;
         }
 
-        new Thread(new Runnable() {
+        transportContext.getBlockingExecutor().execute(new Runnable() {
             @Override
             public void run() {
-                DeviceService deviceService = new DeviceService();
+                DeviceService deviceService = new DeviceService(transportContext);
                 DeviceAddressStatus addressResponse = deviceService.retrieveService(serialNumber, deviceApiKey, acquirerCode, inTestMode);
 
                 if (addressResponse == null || (addressResponse.getAddress() == null && (addressResponse.getResponseCode() != 200 && addressResponse.getResponseCode() != 404))) {
@@ -2173,7 +2765,7 @@ public class Spi {
 
                 deviceStatusChanged(getCurrentDeviceStatus());
             }
-        }).start();
+        });
     }
 
     //endregion
@@ -2197,9 +2789,9 @@ public class Spi {
     public void dispose() {
         LOG.info("Disposing...");
 
-        // Clean up threads
+        // Clean up scheduled tasks
         stopPeriodicPing();
-        stopTransactionMonitoring();
+        cancelTxDeadline();
 
         // Clean up connection
         conn.dispose();
@@ -2207,13 +2799,76 @@ public class Spi {
 
         // Clean up timer
         cleanReconnectFuture();
-        reconnectExecutor.shutdownNow();
-        reconnectExecutor = null;
+        scheduler = null;
+    }
+
+    /**
+     * An attempt to reconnect to the paired terminal, once the back-off delay is over.
+     */
+    private final class Reconnect implements Runnable {
+
+        private final ReconnectLimiter limiter;
+        private boolean admitted;
+
+        Reconnect(@Nullable ReconnectLimiter limiter) {
+            this.limiter = limiter;
+            this.admitted = limiter == null;
+        }
+
+        @Override
+        public void run() {
+            if (!admitted) {
+                // Waits its turn behind the other instances sharing the limiter.
+                admitted = true;
+                final long wait = limiter.reserve();
+                final ScheduledExecutorService scheduler = Spi.this.scheduler;
+                if (wait > 0 && scheduler != null) {
+                    final ReconnectState state = reconnectState;
+                    reconnectState = new ReconnectState(state.getAttempt(), state.getDelayMillis(), System.currentTimeMillis() + wait);
+                    LOG.info("Reconnecting held back by the limiter for {}ms...", wait);
+                    reconnectFuture = scheduleHandOff(scheduler, this, wait);
+                    return;
+                }
+            }
+
+            if (autoAddressResolutionEnabled) {
+                if (retriesSinceLastDeviceAddressResolution >= RETRIES_BEFORE_RESOLVING_DEVICE_ADDRESS) {
+                    autoResolveEftposAddress();
+                    retriesSinceLastDeviceAddressResolution = 0;
+                } else {
+                    retriesSinceLastDeviceAddressResolution++;
+                }
+            }
+
+            if (getCurrentStatus() != SpiStatus.UNPAIRED) {
+                // This is non-blocking
+                Connection conn = Spi.this.conn;
+                if (conn != null) {
+                    reconnectsDialled = reconnectState.getAttempt();
+                    conn.connect();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a task on the context's callback executor once the delay is over. The scheduler is shared by every terminal in the
+     * context, so work that may call back into the POS, such as publishing a state change or sending a message, only
+     * uses it to wait; a slow callback then holds up its own terminal and no other.
+     */
+    private ScheduledFuture<?> scheduleHandOff(ScheduledExecutorService scheduler, final Runnable task, long delayMillis) {
+        final Executor executor = transportContext.getCallbackExecutor();
+        return scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(task);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
     }
 
     private void cleanReconnectFuture() {
         if (reconnectFuture != null) {
-            reconnectFuture.cancel(true);
+            reconnectFuture.cancel(false);
             reconnectFuture = null;
         }
     }
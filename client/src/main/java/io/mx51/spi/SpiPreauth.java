@@ -150,7 +150,9 @@ public class SpiPreauth {
                 Events.PREAUTH_CANCELLATION_RESPONSE.equals(m.getEventName())) {
             handlePreauthResponse(m);
         } else {
-            LOG.info("I don't understand preauth event: " + m.getEventName() + ", " + m.getData() + ", perhaps I have not implemented it yet");
+            if (LOG.isInfoEnabled()) {
+                LOG.info("I don't understand preauth event: {}, {}, perhaps I have not implemented it yet", m.getEventName(), m.getData());
+            }
         }
     }
 
@@ -159,7 +161,7 @@ public class SpiPreauth {
             String incomingPosRefId = m.getDataStringValue("pos_ref_id");
             TransactionFlowState currentTxFlowState = spi.getCurrentTxFlowState();
             if (spi.getCurrentFlow() != SpiFlow.TRANSACTION || currentTxFlowState.isFinished() || !currentTxFlowState.getPosRefId().equals(incomingPosRefId)) {
-                LOG.info("Received Account Verify response but I was not waiting for one, incoming Pos Ref ID: " + incomingPosRefId);
+                LOG.info("Received Account Verify response but I was not waiting for one, incoming Pos Ref ID: {}", incomingPosRefId);
                 return;
             }
             // TH-1A, TH-2A
@@ -175,7 +177,7 @@ public class SpiPreauth {
             String incomingPosRefId = m.getDataStringValue("pos_ref_id");
             TransactionFlowState currentTxFlowState = spi.getCurrentTxFlowState();
             if (spi.getCurrentFlow() != SpiFlow.TRANSACTION || currentTxFlowState.isFinished() || !currentTxFlowState.getPosRefId().equals(incomingPosRefId)) {
-                LOG.info("Received preauth response but I was not waiting for one, incoming Pos Ref ID: " + incomingPosRefId);
+                LOG.info("Received preauth response but I was not waiting for one, incoming Pos Ref ID: {}", incomingPosRefId);
                 return;
             }
             // TH-1A, TH-2A
@@ -0,0 +1,71 @@
+package io.mx51.spi;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Web socket implementation used to talk to the terminals.
+ * <p>
+ * A transport is shared by many connections; each call to {@link #connect(String, String, Listener)} opens one socket.
+ * The library ships {@link OkHttpTransport}, used by default, and on Java 11 and later a transport built on
+ * {@code java.net.http.WebSocket}, see {@link TransportContext#newJdkWebSocketTransport()}. Hosts can plug in their
+ * own through {@link Spi#setTransport(Transport)}.
+ */
+public interface Transport {
+
+    /**
+     * Starts opening a socket. Must not block; the outcome is reported to the listener.
+     *
+     * @param url         Address of the terminal, including the {@code ws://} prefix.
+     * @param subProtocol Web socket sub-protocol to request.
+     * @param listener    Receives socket events. Callbacks for a single socket must not overlap.
+     * @return The socket being opened.
+     */
+    @NotNull
+    Socket connect(@NotNull String url, @NotNull String subProtocol, @NotNull Listener listener);
+
+    /**
+     * A single web socket.
+     */
+    interface Socket {
+        /**
+         * Queues a text frame for sending. Must not block.
+         *
+         * @return False if the socket refused the message, e.g. because it is not open or is closing.
+         */
+        boolean send(@NotNull String text);
+
+        /**
+         * @return Bytes accepted by {@link #send(String)} that have not been written to the network yet.
+         */
+        long queueSize();
+
+        /**
+         * Starts a graceful close.
+         */
+        void close(int code);
+
+        /**
+         * Releases the socket immediately, discarding anything still buffered.
+         */
+        void cancel();
+    }
+
+    interface Listener {
+        /**
+         * @param socket The socket that opened, which {@link #connect(String, String, Listener)} returns. This may be
+         *               called before that has returned, so the socket must be usable from here on.
+         */
+        void onOpen(@NotNull Socket socket);
+
+        void onMessage(@NotNull String text);
+
+        void onClosed();
+
+        /**
+         * Called when the socket could not be opened or has failed. A connect timeout must be reported as a
+         * {@link java.net.SocketTimeoutException}.
+         */
+        void onFailure(@NotNull Throwable t);
+    }
+
+}
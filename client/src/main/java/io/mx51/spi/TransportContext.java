@@ -0,0 +1,328 @@
+package io.mx51.spi;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared network resources used by SPI connections and HTTP services.
+ * <p>
+ * A context owns a single {@link OkHttpClient}, and with it a single dispatcher and connection pool, plus a small
+ * scheduler that times the pings, timeouts and reconnects of all its terminals and a small pool of threads that runs
+ * them once they are due. Every {@link Spi} instance uses
+ * {@link #getDefault()} unless told otherwise, so a JVM that drives many terminals only pays for one set of pools and
+ * a fixed number of threads. Hosts that want to isolate groups of terminals, or run the timed work on their own
+ * scheduler, can create their own context and hand it to {@link Spi#setTransportContext(TransportContext)} before
+ * starting.
+ */
+public final class TransportContext {
+
+    static final long WEB_SOCKET_CONNECT_TIMEOUT = TimeUnit.SECONDS.toMillis(4);
+    static final long HTTP_CONNECT_TIMEOUT = TimeUnit.SECONDS.toMillis(8);
+
+    // Every open web socket holds a dispatcher slot for as long as it is connected,
+    // so the limits must be large enough for all terminals driven by this context.
+    private static final int MAX_REQUESTS = 4096;
+    private static final int MAX_REQUESTS_PER_HOST = 64;
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_DURATION = TimeUnit.MINUTES.toMillis(1);
+    // Timed work is a few short tasks per terminal every few seconds, so a couple of threads serve thousands.
+    private static final int SCHEDULER_THREADS = 2;
+    // Key exchanges are milliseconds of big-number work each, so more threads than cores would not finish them sooner.
+    private static final int COMPUTE_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int COMPUTE_QUEUE_SIZE = 256;
+    private static final long COMPUTE_KEEP_ALIVE = TimeUnit.SECONDS.toMillis(30);
+    // Timed work calls back into the POS, which may be slow; enough threads that one slow terminal does not hold up
+    // the rest, without a thread per terminal.
+    static final int DEFAULT_CALLBACK_THREADS = 8;
+    private static final long CALLBACK_KEEP_ALIVE = TimeUnit.SECONDS.toMillis(30);
+
+    private static final String JDK_WEB_SOCKET_TRANSPORT = "io.mx51.spi.JdkWebSocketTransport";
+
+    private final OkHttpClient webSocketClient;
+    private final OkHttpClient httpClient;
+    private final Transport transport;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownsScheduler;
+    private final boolean ownsClient;
+    private final ExecutorService callbackExecutor;
+    private final boolean ownsCallbackExecutor;
+    private final ThreadPoolExecutor computeExecutor = newComputeExecutor();
+
+    /**
+     * Creates a context with its own dispatcher, connection pool and timer.
+     */
+    public TransportContext() {
+        this(DEFAULT_CALLBACK_THREADS);
+    }
+
+    /**
+     * Creates a context with its own dispatcher, connection pool and timer, and the given number of threads for timed
+     * work once it is due.
+     *
+     * @param callbackThreads Most threads running due pings, timeouts and reconnects at once.
+     */
+    public TransportContext(int callbackThreads) {
+        this(newBaseClient(), null, true, newCallbackExecutor(callbackThreads), true);
+    }
+
+    /**
+     * Creates a context with its own dispatcher and connection pool that runs its timed work on the given scheduler.
+     *
+     * @param scheduler Scheduler for pings, timeouts and reconnects. Tasks are short and never block.
+     */
+    public TransportContext(@NotNull ScheduledExecutorService scheduler) {
+        this(newBaseClient(), scheduler, true, newCallbackExecutor(DEFAULT_CALLBACK_THREADS), true);
+    }
+
+    /**
+     * Creates a context on top of an existing client. The dispatcher and connection pool of the given client are
+     * shared; only the connect timeouts are adjusted for SPI use. They are left running by {@link #shutdown()}.
+     *
+     * @param baseClient Client whose dispatcher and connection pool will be shared.
+     */
+    public TransportContext(@NotNull OkHttpClient baseClient) {
+        this(baseClient, null);
+    }
+
+    /**
+     * Creates a context on top of an existing client and scheduler, neither of which is shut down by
+     * {@link #shutdown()}.
+     *
+     * @param baseClient Client whose dispatcher and connection pool will be shared.
+     * @param scheduler  Scheduler for pings, timeouts and reconnects, or null to create one for this context.
+     */
+    public TransportContext(@NotNull OkHttpClient baseClient, @Nullable ScheduledExecutorService scheduler) {
+        this(baseClient, scheduler, null);
+    }
+
+    /**
+     * Creates a context on top of an existing client, scheduler and callback executor, none of which is shut down by
+     * {@link #shutdown()}.
+     *
+     * @param baseClient       Client whose dispatcher and connection pool will be shared.
+     * @param scheduler        Scheduler for pings, timeouts and reconnects, or null to create one for this context.
+     * @param callbackExecutor Executor that runs pings, timeouts and reconnects once they are due, and with them the
+     *                         POS callbacks they lead to; or null to create one of
+     *                         {@value #DEFAULT_CALLBACK_THREADS} threads for this context. It should have a fixed
+     *                         number of threads.
+     */
+    public TransportContext(@NotNull OkHttpClient baseClient, @Nullable ScheduledExecutorService scheduler,
+                            @Nullable ExecutorService callbackExecutor) {
+        this(baseClient, scheduler, false,
+                callbackExecutor != null ? callbackExecutor : newCallbackExecutor(DEFAULT_CALLBACK_THREADS),
+                callbackExecutor == null);
+    }
+
+    private TransportContext(OkHttpClient baseClient, ScheduledExecutorService scheduler, boolean ownsClient,
+                             ExecutorService callbackExecutor, boolean ownsCallbackExecutor) {
+        this.webSocketClient = baseClient.newBuilder()
+                .connectTimeout(WEB_SOCKET_CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)
+                .build();
+        this.httpClient = baseClient.newBuilder()
+                .connectTimeout(HTTP_CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)
+                .build();
+        this.transport = new OkHttpTransport(webSocketClient);
+        this.ownsClient = ownsClient;
+        this.callbackExecutor = callbackExecutor;
+        this.ownsCallbackExecutor = ownsCallbackExecutor;
+        this.ownsScheduler = scheduler == null;
+        this.scheduler = scheduler != null ? scheduler : newScheduler();
+    }
+
+    /**
+     * @return The context shared by default across all SPI instances in this JVM.
+     */
+    @NotNull
+    public static TransportContext getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * @return Client used to open web socket connections to the terminals.
+     */
+    @NotNull
+    public OkHttpClient getWebSocketClient() {
+        return webSocketClient;
+    }
+
+    /**
+     * @return Transport used for terminal connections unless an {@link Spi} is given its own.
+     */
+    @NotNull
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Creates a transport built on {@code java.net.http.WebSocket}, which needs neither OkHttp's threads nor its
+     * buffers. The implementation ships in the multi-release part of the jar, so it is only found on Java 11 and later.
+     *
+     * @return The new transport, or null if the running JVM cannot provide one.
+     */
+    @Nullable
+    public static Transport newJdkWebSocketTransport() {
+        try {
+            return (Transport) Class.forName(JDK_WEB_SOCKET_TRANSPORT).getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Client used for HTTP calls such as device address and tenant lookups.
+     */
+    @NotNull
+    public OkHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * @return Scheduler running the pings, timeouts and reconnects of every terminal using this context. Tasks must be
+     * short and must not block.
+     */
+    @NotNull
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return Executor for the occasional blocking call, such as a device address lookup. Its threads only live while
+     * there is work to do.
+     */
+    @NotNull
+    Executor getBlockingExecutor() {
+        return httpClient.dispatcher().executorService();
+    }
+
+    /**
+     * @return Executor for timed work once it is due, as that calls back into the POS. The scheduler only waits, so a
+     * slow callback holds up one of these few threads rather than the timers of every terminal.
+     */
+    @NotNull
+    Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * @return Executor for CPU-bound work that must not hold up a connection, such as a pairing key exchange. It has a
+     * few threads that only live while there is work to do; when its queue is full, work runs on the calling thread.
+     */
+    @NotNull
+    Executor getComputeExecutor() {
+        return computeExecutor;
+    }
+
+    /**
+     * Releases the threads and idle connections held by this context.
+     * <p>
+     * Only call this on a context you created yourself, once every {@link Spi} using it has been disposed.
+     */
+    public void shutdown() {
+        if (this == getDefault()) {
+            throw new IllegalStateException("The default transport context cannot be shut down");
+        }
+        if (ownsScheduler) {
+            scheduler.shutdownNow();
+        }
+        computeExecutor.shutdown();
+        if (ownsCallbackExecutor) {
+            callbackExecutor.shutdown();
+        }
+        if (ownsClient) {
+            // Only our own; a client passed in shares its dispatcher and pool with the host.
+            httpClient.dispatcher().executorService().shutdown();
+            httpClient.connectionPool().evictAll();
+        }
+    }
+
+    private static OkHttpClient newBaseClient() {
+        return new OkHttpClient.Builder()
+                .dispatcher(newDispatcher())
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION, TimeUnit.MILLISECONDS))
+                .build();
+    }
+
+    private static ScheduledExecutorService newScheduler() {
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(SCHEDULER_THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NotNull Runnable r) {
+                final Thread thread = new Thread(r, "SPI Scheduler " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    private static ExecutorService newCallbackExecutor(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("callbackThreads must be positive");
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                CALLBACK_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(@NotNull Runnable r) {
+                        final Thread thread = new Thread(r, "SPI Callback " + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadPoolExecutor newComputeExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(COMPUTE_THREADS, COMPUTE_THREADS,
+                COMPUTE_KEEP_ALIVE, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(COMPUTE_QUEUE_SIZE),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(@NotNull Runnable r) {
+                        final Thread thread = new Thread(r, "SPI Compute " + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // Slower for the caller, but the work is never dropped, even once shut down.
+                        r.run();
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static Dispatcher newDispatcher() {
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        return dispatcher;
+    }
+
+    private static class DefaultHolder {
+        private static final TransportContext INSTANCE = new TransportContext();
+    }
+
+}
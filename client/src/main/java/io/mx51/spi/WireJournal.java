@@ -0,0 +1,105 @@
+package io.mx51.spi;
+
+import io.mx51.spi.model.Message;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The decrypted JSON of the most recent messages sent and received, for diagnostics.
+ * <p>
+ * Holds a fixed number of entries, overwriting the oldest. Incoming messages are held as the JSON they arrived in.
+ * Outgoing ones are held as the message, and serialised when the entry is read, as an encrypted message is never held
+ * as plain JSON.
+ */
+public final class WireJournal {
+
+    private final Entry[] entries;
+    private int next;
+    private int size;
+
+    WireJournal(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+        this.entries = new Entry[capacity];
+    }
+
+    synchronized void record(@NotNull Direction direction, @NotNull Message message, @Nullable String json) {
+        entries[next] = new Entry(direction, System.currentTimeMillis(), message, json);
+        next = (next + 1) % entries.length;
+        if (size < entries.length) size++;
+    }
+
+    /**
+     * @return Maximum number of entries held.
+     */
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * @return The entries held, oldest first.
+     */
+    @NotNull
+    public synchronized List<Entry> getEntries() {
+        final List<Entry> list = new ArrayList<Entry>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(entries[(next - size + i + entries.length) % entries.length]);
+        }
+        return list;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < entries.length; i++) entries[i] = null;
+        next = 0;
+        size = 0;
+    }
+
+    public enum Direction {INBOUND, OUTBOUND}
+
+    public static final class Entry {
+
+        private final Direction direction;
+        private final long time;
+        private final Message message;
+        private final String json;
+
+        Entry(Direction direction, long time, Message message, String json) {
+            this.direction = direction;
+            this.time = time;
+            this.message = message;
+            this.json = json;
+        }
+
+        @NotNull
+        public Direction getDirection() {
+            return direction;
+        }
+
+        /**
+         * @return When the message was sent or received, in milliseconds since the epoch.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public String getEventName() {
+            return message.getEventName();
+        }
+
+        /**
+         * @return The decrypted JSON of the message, or null if it could not be decrypted.
+         */
+        @Nullable
+        public String getJson() {
+            return json != null ? json : message.getDecryptedJson();
+        }
+
+        @Override
+        public String toString() {
+            return direction + " " + getJson();
+        }
+    }
+
+}
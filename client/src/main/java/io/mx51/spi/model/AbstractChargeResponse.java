@@ -1,11 +1,10 @@
 package io.mx51.spi.model;
 
+import io.mx51.spi.util.TimestampCodec;
 import org.jetbrains.annotations.NotNull;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Locale;
 
 public abstract class AbstractChargeResponse extends AbstractTransactionResponse {
 
@@ -70,7 +69,7 @@ public abstract class AbstractChargeResponse extends AbstractTransactionResponse
         //"bank_settlement_date":"20042018"
         String dateStr = m.getDataStringValue("bank_settlement_date");
         try {
-            return new SimpleDateFormat("ddMMyyyy", Locale.US).parse(dateStr);
+            return new Date(TimestampCodec.parse(dateStr, TimestampCodec.Layout.BANK_DATE));
         } catch (ParseException e) {
             return null;
         }
@@ -1,7 +1,6 @@
 package io.mx51.spi.model;
 
 import io.mx51.spi.util.Events;
-import com.google.gson.Gson;
 import org.apache.commons.codec.Charsets;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
@@ -16,8 +15,6 @@ import java.util.Map;
  */
 public class BillStatusResponse {
 
-    private static final Gson GSON = new Gson();
-
     private BillRetrievalResult result;
     private String billId;
     private String tableId;
@@ -124,13 +121,13 @@ public class BillStatusResponse {
 
         final byte[] bdArray = Base64.decodeBase64(billData);
         final String bdStr = new String(bdArray, Charsets.UTF_8);
-        return GSON.fromJson(bdStr, PaymentHistoryEntry.ListType.class);
+        return JsonProvider.getDefault().fromJson(bdStr, PaymentHistoryEntry.ListType.class);
     }
 
     public static String toBillData(List<PaymentHistoryEntry> ph) {
         if (ph.isEmpty()) return "";
 
-        final String bphStr = GSON.toJson(ph);
+        final String bphStr = JsonProvider.getDefault().toJson(ph);
         return Base64.encodeBase64String(bphStr.getBytes(Charsets.UTF_8));
     }
 
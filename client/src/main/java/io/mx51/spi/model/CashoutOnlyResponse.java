@@ -12,15 +12,43 @@ public class CashoutOnlyResponse extends AbstractChargeResponse {
         return m.getDataIntValue("cash_amount");
     }
 
+    /**
+     * Like {@link #getCashoutAmount()}, but exact; see {@link Message#getDataLongValue(String)}.
+     */
+    public long getCashoutAmountExact() {
+        return m.getDataLongValue("cash_amount");
+    }
+
     public int getBankNonCashAmount() {
         return m.getDataIntValue("bank_noncash_amount");
     }
 
+    /**
+     * Like {@link #getBankNonCashAmount()}, but exact; see {@link Message#getDataLongValue(String)}.
+     */
+    public long getBankNonCashAmountExact() {
+        return m.getDataLongValue("bank_noncash_amount");
+    }
+
     public int getBankCashAmount() {
         return m.getDataIntValue("bank_cash_amount");
     }
 
+    /**
+     * Like {@link #getBankCashAmount()}, but exact; see {@link Message#getDataLongValue(String)}.
+     */
+    public long getBankCashAmountExact() {
+        return m.getDataLongValue("bank_cash_amount");
+    }
+
     public int getSurchargeAmount() {
         return m.getDataIntValue("surcharge_amount");
     }
+
+    /**
+     * Like {@link #getSurchargeAmount()}, but exact; see {@link Message#getDataLongValue(String)}.
+     */
+    public long getSurchargeAmountExact() {
+        return m.getDataLongValue("surcharge_amount");
+    }
 }
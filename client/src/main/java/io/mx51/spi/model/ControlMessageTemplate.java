@@ -0,0 +1,87 @@
+package io.mx51.spi.model;
+
+import io.mx51.spi.util.CryptoContext;
+import io.mx51.spi.util.Events;
+import org.apache.commons.codec.Charsets;
+
+/**
+ * Precompiled encoding of the control messages that carry no data: pings, pongs and last transaction requests, which
+ * each terminal exchanges every few seconds for as long as it is connected.
+ * <p>
+ * Their inner envelope always has the same shape, {@code {"message":{"id":"..","event":"..","datetime":".."}}}, so it
+ * is kept as UTF-8 bytes and only the ID and time are spliced in, with no envelope, JSON writer or character encoding.
+ * Messages whose ID or time would need escaping go through the {@link JsonProvider} as usual.
+ */
+final class ControlMessageTemplate {
+
+    private static final byte[] HEAD = ascii("{\"message\":{\"id\":\"");
+    private static final byte[] TAIL = ascii("\"}}");
+
+    private static final ControlMessageTemplate PING = new ControlMessageTemplate(Events.PING);
+    private static final ControlMessageTemplate PONG = new ControlMessageTemplate(Events.PONG);
+    private static final ControlMessageTemplate GET_LAST_TRANSACTION = new ControlMessageTemplate(Events.GET_LAST_TRANSACTION_REQUEST);
+
+    // Between the ID and the time.
+    private final byte[] middle;
+
+    private ControlMessageTemplate(String eventName) {
+        middle = ascii("\",\"event\":\"" + eventName + "\",\"datetime\":\"");
+    }
+
+    /**
+     * @return The template for the message, or null if it is not a control message or does not fit the template.
+     */
+    static ControlMessageTemplate forMessage(Message message) {
+        final ControlMessageTemplate template = forEvent(message.getEventName());
+        if (template == null || message.getData() != null || message.getPosId() != null) return null;
+        if (!isPlain(message.getId()) || !isPlain(message.getDateTimeStamp())) return null;
+        return template;
+    }
+
+    private static ControlMessageTemplate forEvent(String eventName) {
+        if (Events.PING.equals(eventName)) return PING;
+        if (Events.PONG.equals(eventName)) return PONG;
+        if (Events.GET_LAST_TRANSACTION_REQUEST.equals(eventName)) return GET_LAST_TRANSACTION;
+        return null;
+    }
+
+    /**
+     * Writes the inner envelope of a message {@link #forMessage(Message)} accepted.
+     */
+    void write(Message message, CryptoContext.EncryptingWriter out) {
+        out.write(HEAD, 0, HEAD.length);
+        final String id = message.getId();
+        out.write(id, 0, id.length());
+        out.write(middle, 0, middle.length);
+        final String dateTimeStamp = message.getDateTimeStamp();
+        out.write(dateTimeStamp, 0, dateTimeStamp.length());
+        out.write(TAIL, 0, TAIL.length);
+    }
+
+    /**
+     * @return Whether the value is printable ASCII that no backend escapes, so it goes into the JSON as it is.
+     */
+    private static boolean isPlain(String value) {
+        if (value == null) return false;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x20 || c > 0x7e) return false;
+            switch (c) {
+                case '"':
+                case '\\':
+                case '<':
+                case '>':
+                case '&':
+                case '=':
+                case '\'':
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(Charsets.UTF_8);
+    }
+
+}
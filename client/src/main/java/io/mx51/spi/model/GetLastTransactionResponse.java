@@ -60,6 +60,13 @@ public class GetLastTransactionResponse {
         return m.getDataIntValue("bank_noncash_amount");
     }
 
+    /**
+     * Like {@link #getBankNonCashAmount()}, but exact; see {@link Message#getDataLongValue(String)}.
+     */
+    public long getBankNonCashAmountExact() {
+        return m.getDataLongValue("bank_noncash_amount");
+    }
+
     /**
      * @deprecated Should not need to look at this in a GLT Response.
      */
@@ -1,8 +1,6 @@
 package io.mx51.spi.model;
 
 import io.mx51.spi.util.Events;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import org.apache.commons.codec.Charsets;
 import org.apache.commons.codec.binary.Base64;
 
@@ -14,20 +12,18 @@ import java.util.Map;
 public class GetOpenTablesResponse {
     private List<OpenTablesEntry> openTablesEntries;
 
-    private static final Gson GSON = new GsonBuilder().create();
-
     public List<OpenTablesEntry> getOpenTables() {
         if (openTablesEntries == null || openTablesEntries.size() == 0) return new ArrayList<>();
 
         final byte[] bdArray = Base64.decodeBase64(toOpenTablesData(openTablesEntries));
         final String bdStr = new String(bdArray, Charsets.UTF_8);
-        return GSON.fromJson(bdStr, OpenTablesEntry.ListType.class);
+        return JsonProvider.getDefault().fromJson(bdStr, OpenTablesEntry.ListType.class);
     }
 
     public static String toOpenTablesData(List<OpenTablesEntry> ph) {
         if (ph.isEmpty()) return "";
 
-        final String bphStr = GSON.toJson(ph);
+        final String bphStr = JsonProvider.getDefault().toJson(ph);
         return Base64.encodeBase64String(bphStr.getBytes(Charsets.UTF_8));
     }
 
@@ -0,0 +1,49 @@
+package io.mx51.spi.model;
+
+import com.google.gson.Gson;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * The Gson backend, with one {@link Gson} shared by all of SPI.
+ */
+final class GsonJsonProvider extends JsonProvider {
+
+    static final GsonJsonProvider INSTANCE = new GsonJsonProvider();
+
+    private final Gson gson = new Gson();
+
+    private GsonJsonProvider() {
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "gson";
+    }
+
+    @Override
+    public <T> T fromJson(String json, Type typeOfT) {
+        return gson.fromJson(json, typeOfT);
+    }
+
+    @Override
+    public String toJson(Object src) {
+        return gson.toJson(src);
+    }
+
+    @Override
+    Map<String, Object> readData(String json, int start, NumericFields numbers) throws IOException {
+        return MessageDecoder.readData(json, start, numbers);
+    }
+
+    @Override
+    void writeEnvelope(MessageEnvelope envelope, Writer out) {
+        gson.toJson(envelope, out);
+    }
+
+}
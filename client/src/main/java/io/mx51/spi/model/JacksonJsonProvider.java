@@ -0,0 +1,274 @@
+package io.mx51.spi.model;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.CharacterEscapes;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The streaming backend, on {@code jackson-core} alone. It reads and writes messages by hand, so it needs no
+ * reflection and none of Jackson's data binding.
+ * <p>
+ * Loaded by name from {@link JsonProvider}, as {@code jackson-core} is optional. Values it does not know how to write,
+ * and all model binding, are left to Gson.
+ */
+final class JacksonJsonProvider extends JsonProvider {
+
+    private final JsonFactory factory;
+
+    JacksonJsonProvider() {
+        factory = new JsonFactory();
+        // The writer belongs to the caller, such as the encrypting writer of MessageEncoder.
+        factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        factory.setCharacterEscapes(new GsonEscapes());
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "jackson";
+    }
+
+    @Override
+    public <T> T fromJson(String json, Type typeOfT) {
+        return GsonJsonProvider.INSTANCE.fromJson(json, typeOfT);
+    }
+
+    @Override
+    public String toJson(Object src) {
+        return GsonJsonProvider.INSTANCE.toJson(src);
+    }
+
+    @Override
+    Map<String, Object> readData(String json, int start, NumericFields numbers) throws IOException {
+        final StringReader in = new StringReader(json);
+        in.skip(start);
+        try (JsonParser parser = factory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw new JsonParseException(parser, "Expected an object");
+            final Map<String, Object> map = new LinkedHashMap<String, Object>();
+            String name;
+            while ((name = parser.nextFieldName()) != null) {
+                final JsonToken token = parser.nextToken();
+                if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+                    map.put(name, readNumber(parser, token, name, numbers));
+                } else {
+                    map.put(name, readValue(parser, token));
+                }
+            }
+            return map;
+        } catch (JsonProcessingException e) {
+            // Not strict JSON, such as a bare word, which Gson reads leniently.
+            numbers.clear();
+            return GsonJsonProvider.INSTANCE.readData(json, start, numbers);
+        }
+    }
+
+    /**
+     * Mirrors {@link MessageDecoder}: integral numbers that fit a long are kept exactly, and give the map the same
+     * {@link Double} the Gson backend does.
+     */
+    private static Double readNumber(JsonParser parser, JsonToken token, String name, NumericFields numbers) throws IOException {
+        final long value;
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            final JsonParser.NumberType type = parser.getNumberType();
+            if (type != JsonParser.NumberType.INT && type != JsonParser.NumberType.LONG) return parser.getDoubleValue();
+            value = parser.getLongValue();
+        } else {
+            final double d = parser.getDoubleValue();
+            if (d != Math.rint(d) || d < -0x1p63 || d >= 0x1p63) return d;
+            value = (long) d;
+        }
+        numbers.put(name, value);
+        return (double) value;
+    }
+
+    private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+                final Map<String, Object> map = new LinkedHashMap<String, Object>();
+                String name;
+                while ((name = parser.nextFieldName()) != null) {
+                    map.put(name, readValue(parser, parser.nextToken()));
+                }
+                return map;
+            case START_ARRAY:
+                final List<Object> list = new ArrayList<Object>();
+                JsonToken next;
+                while ((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    list.add(readValue(parser, next));
+                }
+                return list;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new JsonParseException(parser, "Unexpected " + token);
+        }
+    }
+
+    @Override
+    void writeEnvelope(MessageEnvelope envelope, Writer out) throws IOException {
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            final Message message = envelope.getMessage();
+            if (message != null) {
+                generator.writeFieldName("message");
+                writeMessage(generator, message);
+            }
+            writeString(generator, "enc", envelope.getEnc());
+            writeString(generator, "hmac", envelope.getHmac());
+            writeString(generator, "pos_id", envelope.getPosId());
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeMessage(JsonGenerator generator, Message message) throws IOException {
+        generator.writeStartObject();
+        writeString(generator, "id", message.getId());
+        writeString(generator, "event", message.getEventName());
+        final Map<String, Object> data = message.getData();
+        if (data != null) {
+            generator.writeFieldName("data");
+            writeMap(generator, data);
+        }
+        writeString(generator, "datetime", message.getDateTimeStamp());
+        writeString(generator, "pos_id", message.getPosId());
+        generator.writeEndObject();
+    }
+
+    private static void writeString(JsonGenerator generator, String name, String value) throws IOException {
+        if (value != null) generator.writeStringField(name, value);
+    }
+
+    private static void writeMap(JsonGenerator generator, Map<?, ?> map) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            final Object value = entry.getValue();
+            // Gson leaves out null members.
+            if (value == null) continue;
+            generator.writeFieldName(String.valueOf(entry.getKey()));
+            writeValue(generator, value);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+            final double d = (Double) value;
+            checkFinite(d);
+            generator.writeNumber(d);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Float) {
+            final float f = (Float) value;
+            checkFinite(f);
+            generator.writeNumber(f);
+        } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            generator.writeNumber((BigInteger) value);
+        } else if (value instanceof Map) {
+            writeMap(generator, (Map<?, ?>) value);
+        } else if (value instanceof Collection) {
+            generator.writeStartArray();
+            for (Object element : (Collection<?>) value) {
+                if (element == null) {
+                    generator.writeNull();
+                } else {
+                    writeValue(generator, element);
+                }
+            }
+            generator.writeEndArray();
+        } else {
+            // Model objects, enums, arrays and the like.
+            generator.writeRawValue(GsonJsonProvider.INSTANCE.toJson(value));
+        }
+    }
+
+    private static void checkFinite(double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            throw new IllegalArgumentException(d + " is not a valid double value as per JSON specification.");
+        }
+    }
+
+    /**
+     * Gson's escaping: control characters, quotes, backslashes, the HTML characters {@code <>&='} and the line and
+     * paragraph separators, with lower-case hex.
+     */
+    private static final class GsonEscapes extends CharacterEscapes {
+
+        private final int[] asciiEscapes = new int[128];
+        private final SerializableString[] asciiSequences = new SerializableString[128];
+        private final SerializableString lineSeparator = new SerializedString("\\u2028");
+        private final SerializableString paragraphSeparator = new SerializedString("\\u2029");
+
+        GsonEscapes() {
+            for (int c = 0; c < 0x20; c++) {
+                escape(c, String.format("\\u%04x", c));
+            }
+            escape('"', "\\\"");
+            escape('\\', "\\\\");
+            escape('\t', "\\t");
+            escape('\b', "\\b");
+            escape('\n', "\\n");
+            escape('\r', "\\r");
+            escape('\f', "\\f");
+            escape('<', "\\u003c");
+            escape('>', "\\u003e");
+            escape('&', "\\u0026");
+            escape('=', "\\u003d");
+            escape('\'', "\\u0027");
+        }
+
+        private void escape(int c, String sequence) {
+            asciiEscapes[c] = ESCAPE_CUSTOM;
+            asciiSequences[c] = new SerializedString(sequence);
+        }
+
+        @Override
+        public int[] getEscapeCodesForAscii() {
+            return asciiEscapes;
+        }
+
+        @Override
+        public SerializableString getEscapeSequence(int ch) {
+            if (ch < 128) return asciiSequences[ch];
+            if (ch == '\u2028') return lineSeparator;
+            if (ch == '\u2029') return paragraphSeparator;
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package io.mx51.spi.model;
+
+import com.google.gson.JsonIOException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * The JSON library behind SPI, kept in one place so that it can be swapped for a faster one.
+ * <p>
+ * Two backends ship with SPI. Gson is always there. A streaming backend on Jackson's {@code jackson-core} is used
+ * instead when that jar is on the classpath, for the work done on every message: reading the {@code data} of incoming
+ * messages and writing outgoing ones. Both produce exactly the same messages and JSON. Binding the few model classes
+ * fetched over HTTP, such as {@link DeviceAddressStatus}, is always done by Gson.
+ * <p>
+ * Only this package provides backends.
+ */
+public abstract class JsonProvider {
+
+    private static final String JACKSON_PROVIDER = "io.mx51.spi.model.JacksonJsonProvider";
+
+    JsonProvider() {
+    }
+
+    /**
+     * @return The streaming Jackson backend if it can be used, otherwise Gson.
+     */
+    @NotNull
+    public static JsonProvider getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * @return The Gson backend.
+     */
+    @NotNull
+    public static JsonProvider gson() {
+        return GsonJsonProvider.INSTANCE;
+    }
+
+    /**
+     * @return The streaming Jackson backend, or null if {@code jackson-core} is not on the classpath or is too old.
+     */
+    @Nullable
+    public static JsonProvider jackson() {
+        return JacksonHolder.INSTANCE;
+    }
+
+    /**
+     * @return A short name for logs, such as "gson".
+     */
+    @NotNull
+    public abstract String getName();
+
+    /**
+     * Binds JSON to a model class the way Gson does, honouring its {@code @SerializedName} annotations.
+     *
+     * @throws com.google.gson.JsonParseException If the JSON does not fit the type.
+     */
+    public abstract <T> T fromJson(String json, Type typeOfT);
+
+    /**
+     * @throws com.google.gson.JsonParseException If the JSON does not fit the type.
+     */
+    public <T> T fromJson(String json, Class<T> classOfT) {
+        return fromJson(json, (Type) classOfT);
+    }
+
+    /**
+     * Serialises a model object the way Gson does.
+     */
+    public abstract String toJson(Object src);
+
+    /**
+     * Reads the {@code data} object of an incoming message, which the {@link MessageDecoder} has already checked the
+     * structure of: numbers become {@link Double}s, objects maps and arrays lists, like Gson. Integral numbers at the
+     * top level are also kept exactly in {@code numbers}.
+     *
+     * @param start Where the object starts in {@code json}.
+     */
+    abstract Map<String, Object> readData(String json, int start, NumericFields numbers) throws IOException;
+
+    /**
+     * Writes an envelope the way Gson serialises it: fields in declaration order, nulls left out and HTML characters
+     * escaped.
+     *
+     * @throws IllegalArgumentException If the data holds a number JSON cannot represent, such as NaN.
+     */
+    abstract void writeEnvelope(MessageEnvelope envelope, Writer out) throws IOException;
+
+    /**
+     * @return The envelope as JSON, see {@link #writeEnvelope(MessageEnvelope, Writer)}.
+     */
+    String encodeEnvelope(MessageEnvelope envelope) {
+        final StringWriter out = new StringWriter();
+        try {
+            writeEnvelope(envelope, out);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Loads the Jackson backend by name, so that this class does not need {@code jackson-core} to load.
+     */
+    @Nullable
+    private static JsonProvider loadJackson() {
+        try {
+            final JsonProvider provider = (JsonProvider) Class.forName(JACKSON_PROVIDER).getDeclaredConstructor().newInstance();
+            // An old jackson-core may lack something only found in use.
+            final Map<String, Object> data = provider.readData("{\"a\":[1.5,{\"b\":\"<c>\"}]}", 0, new NumericFields());
+            provider.encodeEnvelope(new MessageEnvelope(new Message("1", "probe", data, false)));
+            return provider;
+        } catch (ReflectiveOperationException | LinkageError | IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static final class JacksonHolder {
+        static final JsonProvider INSTANCE = loadJackson();
+    }
+
+    private static final class DefaultHolder {
+        static final JsonProvider INSTANCE = JacksonHolder.INSTANCE != null ? JacksonHolder.INSTANCE : GsonJsonProvider.INSTANCE;
+    }
+
+}
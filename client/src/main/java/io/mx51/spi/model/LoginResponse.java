@@ -1,8 +1,8 @@
 package io.mx51.spi.model;
 
+import io.mx51.spi.util.TimestampCodec;
+
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 
 @Deprecated
@@ -35,7 +35,7 @@ public class LoginResponse {
     public boolean expiringSoon(long serverTimeDelta) throws ParseException {
         long now = System.currentTimeMillis();
         long nowServerTime = now + serverTimeDelta;
-        long expiresAt = new SimpleDateFormat(Message.DATE_TIME_FORMAT, Locale.US).parse(expires).getTime();
+        long expiresAt = TimestampCodec.parse(expires, TimestampCodec.Layout.DATE_TIME);
 
         return expiresAt < (nowServerTime + TimeUnit.MINUTES.toMillis(10));
     }
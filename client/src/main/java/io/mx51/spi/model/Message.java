@@ -1,15 +1,15 @@
 package io.mx51.spi.model;
 
-import io.mx51.spi.util.Crypto;
+import io.mx51.spi.util.CryptoContext;
 import io.mx51.spi.util.Events;
-import com.google.gson.Gson;
+import io.mx51.spi.util.TimestampCodec;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.annotations.SerializedName;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.security.GeneralSecurityException;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
@@ -20,7 +20,6 @@ public class Message {
 
     public static final String DATE_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS";
 
-    private static final Gson GSON = new Gson();
     // Denotes whether an outgoing message needs to be encrypted in toJson()
     private transient final boolean needsEncryption;
     @SerializedName("id")
@@ -35,6 +34,13 @@ public class Message {
     private String posId;
     private transient String incomingHmac;
     private transient String decryptedJson;
+    // Set when the message has a JSON form that it does not hold, and whether to keep it once serialised again.
+    private transient boolean jsonPending;
+    private transient boolean keepPendingJson;
+    // Incoming data that has not been decoded yet; see getData().
+    private transient volatile MessageDecoder.DataSlice dataSlice;
+    // Integral numbers in incoming data that the Doubles in the map would round; see getDataLongValue().
+    private transient NumericFields numbers;
 
     public Message(String id, String eventName, Map<String, Object> data, boolean needsEncryption) {
         this.id = id;
@@ -47,8 +53,24 @@ public class Message {
         this.needsEncryption = false;
     }
 
+    Message(String id, String eventName, Map<String, Object> data, String dateTimeStamp, String posId) {
+        this(id, eventName, data, false);
+        this.dateTimeStamp = dateTimeStamp;
+        this.posId = posId;
+    }
+
     public static Message fromJson(String msgJson, Secrets secrets) {
-        final MessageEnvelope env = GSON.fromJson(msgJson, MessageEnvelope.class);
+        return fromJson(msgJson, secrets, null);
+    }
+
+    /**
+     * Like {@link #fromJson(String, Secrets)}, also accepting messages signed with the keys used before the last key
+     * roll, which may have been on their way when the keys changed.
+     *
+     * @param previousSecrets The keys before the last roll, or null to accept only the current ones.
+     */
+    public static Message fromJson(String msgJson, Secrets secrets, @Nullable Secrets previousSecrets) {
+        final MessageEnvelope env = MessageDecoder.decodeEnvelope(msgJson);
         if (env.getMessage() != null) {
             final Message message = env.getMessage();
             message.setDecryptedJson(msgJson);
@@ -61,20 +83,23 @@ public class Message {
             return new Message("UNKNOWN", "NOSECRETS", null, false);
         }
 
-        final String sig = Crypto.hmacSignature(secrets.getHmacKeyBytes(), env.getEnc());
-        if (!sig.equals(env.getHmac())) {
-            return new Message("_", Events.INVALID_HMAC_SIGNATURE, null, false);
+        CryptoContext crypto = secrets.getCryptoContext();
+        if (!crypto.verifyHmac(env.getEnc(), env.getHmac())) {
+            if (previousSecrets == null || !previousSecrets.getCryptoContext().verifyHmac(env.getEnc(), env.getHmac())) {
+                return new Message("_", Events.INVALID_HMAC_SIGNATURE, null, false);
+            }
+            crypto = previousSecrets.getCryptoContext();
         }
 
         final String decryptedJson;
         try {
-            decryptedJson = Crypto.aesDecrypt(secrets.getEncKeyBytes(), env.getEnc());
+            decryptedJson = crypto.aesDecrypt(env.getEnc());
         } catch (GeneralSecurityException e) {
             throw new RuntimeException(e);
         }
 
         try {
-            final MessageEnvelope decryptedEnv = GSON.fromJson(decryptedJson, MessageEnvelope.class);
+            final MessageEnvelope decryptedEnv = MessageDecoder.decodeEnvelope(decryptedJson);
             final Message message = decryptedEnv.getMessage();
             message.setIncomingHmac(env.getHmac());
             message.setDecryptedJson(decryptedJson);
@@ -94,10 +119,33 @@ public class Message {
         return eventName;
     }
 
+    /**
+     * Incoming data is decoded on the first call, or the first call to any of the {@code getData*} accessors.
+     */
     public Map<String, Object> getData() {
+        if (dataSlice != null) {
+            synchronized (this) {
+                final MessageDecoder.DataSlice slice = dataSlice;
+                if (slice != null) {
+                    final NumericFields decoded = new NumericFields();
+                    data = slice.decode(decoded);
+                    setNumbers(decoded);
+                    // Clearing the volatile slice publishes the decoded data to other threads.
+                    dataSlice = null;
+                }
+            }
+        }
         return data;
     }
 
+    void setDataSlice(MessageDecoder.DataSlice dataSlice) {
+        this.dataSlice = dataSlice;
+    }
+
+    void setNumbers(NumericFields numbers) {
+        this.numbers = numbers == null || numbers.isEmpty() ? null : numbers;
+    }
+
     public String getDateTimeStamp() {
         return dateTimeStamp;
     }
@@ -123,10 +171,29 @@ public class Message {
     }
 
     /**
-     * Set on an incoming message just so you can have a look at what it looked like in its JSON form.
+     * Set on an incoming message just so you can have a look at what it looked like in its JSON form. When the
+     * message did not keep it, it is serialised again on request, so an incoming message may come out laid out
+     * differently from how it arrived. An outgoing encrypted message was never held as a whole, so the same applies.
      */
     public String getDecryptedJson() {
-        return decryptedJson;
+        if (decryptedJson != null || !jsonPending) return decryptedJson;
+
+        // Gson serialises the data field, so any pending data must be decoded first.
+        getData();
+        final String json = JsonProvider.getDefault().encodeEnvelope(new MessageEnvelope(this));
+        if (keepPendingJson) decryptedJson = json;
+        return json;
+    }
+
+    /**
+     * Lets go of the decrypted JSON, which for big receipts and bill histories is as large as the message itself.
+     * {@link #getDecryptedJson()} serialises it again if asked.
+     */
+    public void dropDecryptedJson() {
+        if (decryptedJson == null) return;
+        decryptedJson = null;
+        jsonPending = true;
+        keepPendingJson = false;
     }
 
     private void setDecryptedJson(String decryptedJson) {
@@ -135,6 +202,7 @@ public class Message {
 
     @NotNull
     public SuccessState getSuccessState() {
+        final Map<String, Object> data = getData();
         if (data == null) return SuccessState.UNKNOWN;
         final Object success = data.get("success");
         if (success instanceof Boolean) return (Boolean) success ? SuccessState.SUCCESS : SuccessState.FAILED;
@@ -142,7 +210,7 @@ public class Message {
     }
 
     public String getError() {
-        final Object e = data.get("error_reason");
+        final Object e = getData().get("error_reason");
         if (e instanceof String) return (String) e;
         return null;
     }
@@ -153,21 +221,69 @@ public class Message {
 
     @NotNull
     public String getDataStringValue(String attribute) {
-        final Object v = data.get(attribute);
+        final Object v = getData().get(attribute);
         if (v instanceof String) return (String) v;
         return "";
     }
 
     public int getDataIntValue(String attribute) {
-        final Object v = data.get(attribute);
+        final Object v = getData().get(attribute);
         if (v instanceof Integer) return (Integer) v;
         if (v instanceof Double) return ((Double) v).intValue();
         if (v instanceof String) return Integer.parseInt((String) v);
         return 0;
     }
 
+    /**
+     * Like {@link #getDataIntValue(String)}, but for amounts and counters that must not be rounded or cut short.
+     * Integral numbers in incoming data are read exactly, even beyond the 2^53 a double can hold. The data map still
+     * holds them as boxed {@link Double}s, so this is a check on the value rather than a cheaper read.
+     *
+     * @return The value, or 0 if it is missing or not a number.
+     * @throws ArithmeticException If the value has a fraction or does not fit a long.
+     * @throws NumberFormatException If the value is a string that is not a long.
+     */
+    public long getDataLongValue(String attribute) {
+        final Object v = getData().get(attribute);
+        if (v instanceof Double) {
+            final double d = (Double) v;
+            final NumericFields numbers = this.numbers;
+            if (numbers != null) {
+                final int slot = numbers.indexOf(attribute);
+                // Only while the map still holds the decoded value, in case it was changed since.
+                if (slot >= 0 && (double) numbers.valueAt(slot) == d) return numbers.valueAt(slot);
+            }
+            return toLongExact(attribute, d);
+        }
+        if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) {
+            return ((Number) v).longValue();
+        }
+        if (v instanceof Number) return toLongExact(attribute, ((Number) v).doubleValue());
+        if (v instanceof String) return Long.parseLong((String) v);
+        return 0;
+    }
+
+    /**
+     * Like {@link #getDataLongValue(String)}, for values that must fit an int.
+     *
+     * @throws ArithmeticException If the value has a fraction or does not fit an int.
+     */
+    public int getDataIntValueExact(String attribute) {
+        final long v = getDataLongValue(attribute);
+        if ((int) v != v) throw new ArithmeticException(attribute + " is out of int range: " + v);
+        return (int) v;
+    }
+
+    private static long toLongExact(String attribute, double d) {
+        // 2^63 is exact as a double, unlike Long.MAX_VALUE.
+        if (d != Math.rint(d) || d < -0x1p63 || d >= 0x1p63) {
+            throw new ArithmeticException(attribute + " is not an integral long: " + d);
+        }
+        return (long) d;
+    }
+
     public boolean getDataBooleanValue(String attribute, boolean defaultIfNotFound) {
-        final Object v = data.get(attribute);
+        final Object v = getData().get(attribute);
         if (v instanceof Boolean) return ((Boolean) v);
         if (v instanceof String) return Boolean.parseBoolean((String) v);
         return defaultIfNotFound;
@@ -175,7 +291,7 @@ public class Message {
 
     @NotNull
     public Map<String, Object> getDataMapValue(String attribute) {
-        final Object v = data.get(attribute);
+        final Object v = getData().get(attribute);
         if (v instanceof Map) {
             //noinspection unchecked
             return (Map<String, Object>) v;
@@ -185,7 +301,7 @@ public class Message {
 
     @NotNull
     public List<Object> getDataListValue(String attribute) {
-        final Object v = data.get(attribute);
+        final Object v = getData().get(attribute);
         if (v instanceof List) {
             //noinspection unchecked
             return (List<Object>) v;
@@ -194,10 +310,15 @@ public class Message {
     }
 
     public long getServerTimeDelta() {
-        final long now = System.currentTimeMillis();
+        return getServerTime() - System.currentTimeMillis();
+    }
+
+    /**
+     * @return The time the sender stamped on this message, in milliseconds since the epoch.
+     */
+    public long getServerTime() {
         try {
-            final long msgTime = new SimpleDateFormat(DATE_TIME_FORMAT, Locale.US).parse(dateTimeStamp).getTime();
-            return msgTime - now;
+            return TimestampCodec.parse(dateTimeStamp, TimestampCodec.Layout.DATE_TIME);
         } catch (ParseException e) {
             throw new RuntimeException(e);
         }
@@ -206,29 +327,32 @@ public class Message {
     public String toJson(MessageStamp stamp) {
         final long now = System.currentTimeMillis();
         final long adjustedTime = now + stamp.getServerTimeDelta();
-        dateTimeStamp = new SimpleDateFormat(DATE_TIME_FORMAT, Locale.US).format(new Date(adjustedTime));
+        dateTimeStamp = TimestampCodec.formatDateTime(adjustedTime);
 
         if (!needsEncryption) {
             // Unencrypted Messages need PosID inside the message
             posId = stamp.getPosId();
         }
 
-        this.decryptedJson = GSON.toJson(new MessageEnvelope(this));
+        // Gson serialises the data field, so any pending data must be decoded first.
+        getData();
 
         if (!needsEncryption) {
-            return this.decryptedJson;
+            final String json = JsonProvider.getDefault().encodeEnvelope(new MessageEnvelope(this));
+            this.decryptedJson = json;
+            if (!stamp.isRetainJson()) dropDecryptedJson();
+            return json;
         }
 
-        final String encMsg;
+        // The plaintext is streamed into the cipher; getDecryptedJson() rebuilds it if anyone asks.
+        this.decryptedJson = null;
+        this.jsonPending = true;
+        this.keepPendingJson = stamp.isRetainJson();
         try {
-            encMsg = Crypto.aesEncrypt(stamp.getSecrets().getEncKeyBytes(), this.decryptedJson);
+            return MessageEncoder.encodeEncrypted(this, stamp);
         } catch (GeneralSecurityException e) {
             throw new RuntimeException(e);
         }
-
-        final String hmacSig = Crypto.hmacSignature(stamp.getSecrets().getHmacKeyBytes(), encMsg);
-        final MessageEnvelope encrMessageEnvelope = new MessageEnvelope(encMsg, hmacSig, stamp.getPosId());
-        return GSON.toJson(encrMessageEnvelope);
     }
 
     public enum SuccessState {UNKNOWN, SUCCESS, FAILED}
@@ -0,0 +1,653 @@
+package io.mx51.spi.model;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single-pass decoder for incoming message envelopes, built on Gson's {@link JsonReader}.
+ * <p>
+ * Produces the same {@link Message} as reflective Gson binding to {@link MessageEnvelope}: numbers in {@code data}
+ * become {@link Double}s, nested objects become maps and arrays become lists. Anything this decoder does not handle
+ * exactly like Gson would, such as a field of an unexpected type or a duplicate key, makes it fall back to the
+ * reflective path, which then gives the definitive result.
+ * <p>
+ * By default the {@code data} object is not decoded up front. The headers are read by a light scanner that only notes
+ * where {@code data} starts and ends in the JSON, and the message decodes that slice the first time it is asked for
+ * its data. Most traffic is pings and pongs, which are routed on their event name alone.
+ */
+public final class MessageDecoder {
+
+    private MessageDecoder() {
+    }
+
+    /**
+     * Decodes an envelope, in either its plain form ({@code message}) or its encrypted form ({@code enc} and
+     * {@code hmac}).
+     *
+     * @throws com.google.gson.JsonParseException If the JSON is not a valid envelope.
+     */
+    public static MessageEnvelope decodeEnvelope(String json) {
+        try {
+            return new SliceScanner(json).readEnvelope();
+        } catch (IOException | RuntimeException e) {
+            return decodeEnvelopeEagerly(json);
+        }
+    }
+
+    /**
+     * Like {@link #decodeEnvelope(String)}, but decodes {@code data} straight away.
+     *
+     * @throws com.google.gson.JsonParseException If the JSON is not a valid envelope.
+     */
+    public static MessageEnvelope decodeEnvelopeEagerly(String json) {
+        try {
+            return readEnvelope(json);
+        } catch (IOException | RuntimeException e) {
+            return decodeEnvelopeReflectively(json);
+        }
+    }
+
+    /**
+     * The original decoder, binding the envelope through reflection.
+     *
+     * @throws com.google.gson.JsonParseException If the JSON is not a valid envelope.
+     */
+    public static MessageEnvelope decodeEnvelopeReflectively(String json) {
+        return JsonProvider.gson().fromJson(json, MessageEnvelope.class);
+    }
+
+    private static MessageEnvelope readEnvelope(String json) throws IOException {
+        final JsonReader reader = new JsonReader(new StringReader(json));
+        // Gson.fromJson() parses leniently too.
+        reader.setLenient(true);
+
+        Message message = null;
+        String enc = null;
+        String hmac = null;
+        String posId = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("message".equals(name)) {
+                message = readMessage(reader);
+            } else if ("enc".equals(name)) {
+                enc = readString(reader);
+            } else if ("hmac".equals(name)) {
+                hmac = readString(reader);
+            } else if ("pos_id".equals(name)) {
+                posId = readString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (reader.peek() != JsonToken.END_DOCUMENT) throw new IOException("Trailing content after envelope");
+
+        return enc == null && hmac == null && posId == null
+                ? new MessageEnvelope(message)
+                : new MessageEnvelope(message, enc, hmac, posId);
+    }
+
+    private static Message readMessage(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        String id = null;
+        String eventName = null;
+        Map<String, Object> data = null;
+        NumericFields numbers = null;
+        String dateTimeStamp = null;
+        String posId = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("id".equals(name)) {
+                id = readString(reader);
+            } else if ("event".equals(name)) {
+                eventName = readString(reader);
+            } else if ("data".equals(name)) {
+                if (reader.peek() == JsonToken.NULL) {
+                    data = readNull(reader);
+                } else {
+                    numbers = new NumericFields();
+                    data = readData(reader, true, numbers);
+                }
+            } else if ("datetime".equals(name)) {
+                dateTimeStamp = readString(reader);
+            } else if ("pos_id".equals(name)) {
+                posId = readString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        final Message message = new Message(id, eventName, data, dateTimeStamp, posId);
+        message.setNumbers(numbers);
+        return message;
+    }
+
+    private static String readString(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case NULL:
+                return readNull(reader);
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            default:
+                throw new IOException("Expected a string but was " + reader.peek());
+        }
+    }
+
+    /**
+     * Reads the {@code data} object, also keeping its integral numbers exactly in {@code numbers}.
+     *
+     * @param strict Whether to reject duplicate keys, as Gson does for the top level of {@code data}.
+     */
+    private static Map<String, Object> readData(JsonReader reader, boolean strict, NumericFields numbers) throws IOException {
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (strict && map.containsKey(name)) throw new IOException("Duplicate key " + name);
+            if (reader.peek() == JsonToken.NUMBER) {
+                map.put(name, readNumber(reader, name, numbers));
+            } else {
+                map.put(name, readValue(reader));
+            }
+        }
+        reader.endObject();
+        return map;
+    }
+
+    /**
+     * @return The number as a {@link Double}, as Gson would give it; if it is integral and fits a long, it is also put
+     * exactly into {@code numbers}.
+     */
+    private static Double readNumber(JsonReader reader, String name, NumericFields numbers) throws IOException {
+        final long value;
+        try {
+            value = reader.nextLong();
+        } catch (NumberFormatException e) {
+            // Not integral. The reader keeps the number, so it can still be read as a double.
+            return reader.nextDouble();
+        }
+        numbers.put(name, value);
+        // The same rounding as parsing the text as a double.
+        return (double) value;
+    }
+
+    /**
+     * Reads a {@code data} object that starts at {@code start} in the JSON, leniently like Gson.
+     */
+    static Map<String, Object> readData(String json, int start, NumericFields numbers) throws IOException {
+        final StringReader in = new StringReader(json);
+        in.skip(start);
+        final JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        return readData(reader, false, numbers);
+    }
+
+    /**
+     * Nested objects keep the last value of a duplicate key, like Gson.
+     */
+    private static Map<String, Object> readObject(JsonReader reader) throws IOException {
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            map.put(reader.nextName(), readValue(reader));
+        }
+        reader.endObject();
+        return map;
+    }
+
+    private static List<Object> readArray(JsonReader reader) throws IOException {
+        final List<Object> list = new ArrayList<Object>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            list.add(readValue(reader));
+        }
+        reader.endArray();
+        return list;
+    }
+
+    private static Object readValue(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                return readArray(reader);
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return reader.nextDouble();
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                return readNull(reader);
+            default:
+                throw new IOException("Unexpected " + reader.peek());
+        }
+    }
+
+    private static <T> T readNull(JsonReader reader) throws IOException {
+        reader.nextNull();
+        return null;
+    }
+
+    /**
+     * The undecoded {@code data} object of a message: a range of the JSON it came in.
+     * <p>
+     * The scanner has already checked the structure of the range and that its keys are unique, so decoding it gives
+     * the same map eager decoding would have.
+     */
+    static final class DataSlice {
+        private final String json;
+        private final int start;
+        private final int end;
+
+        DataSlice(String json, int start, int end) {
+            this.json = json;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @param numbers Where to keep the integral numbers exactly.
+         */
+        Map<String, Object> decode(NumericFields numbers) {
+            try {
+                return JsonProvider.getDefault().readData(json, start, numbers);
+            } catch (IOException e) {
+                throw new JsonSyntaxException(e);
+            }
+        }
+
+        /**
+         * @return Length of the undecoded JSON.
+         */
+        int length() {
+            return end - start;
+        }
+    }
+
+    /**
+     * Reads the envelope and message headers straight from the string, and skips over {@code data}, noting where it
+     * is. Only handles strict JSON; anything else is left to the lenient decoders.
+     */
+    private static final class SliceScanner {
+
+        private final String json;
+        private int pos;
+        /**
+         * Where the next backslash is at or after {@link #pos}, or -1 if there is none; searched for again only once
+         * the scanner has passed it.
+         */
+        private int backslash = -2;
+
+        SliceScanner(String json) {
+            this.json = json;
+        }
+
+        MessageEnvelope readEnvelope() throws IOException {
+            Message message = null;
+            String enc = null;
+            String hmac = null;
+            String posId = null;
+
+            if (beginObject()) {
+                do {
+                    final String name = readName();
+                    if ("message".equals(name)) {
+                        message = readMessage();
+                    } else if ("enc".equals(name)) {
+                        enc = readNullableString();
+                    } else if ("hmac".equals(name)) {
+                        hmac = readNullableString();
+                    } else if ("pos_id".equals(name)) {
+                        posId = readNullableString();
+                    } else {
+                        skipValue();
+                    }
+                } while (nextMember());
+            }
+            skipWhitespace();
+            if (pos != json.length()) throw syntaxError("Trailing content after envelope");
+
+            return enc == null && hmac == null && posId == null
+                    ? new MessageEnvelope(message)
+                    : new MessageEnvelope(message, enc, hmac, posId);
+        }
+
+        private Message readMessage() throws IOException {
+            if (readNull()) return null;
+
+            String id = null;
+            String eventName = null;
+            DataSlice data = null;
+            String dateTimeStamp = null;
+            String posId = null;
+
+            if (beginObject()) {
+                do {
+                    final String name = readName();
+                    if ("id".equals(name)) {
+                        id = readNullableString();
+                    } else if ("event".equals(name)) {
+                        eventName = readNullableString();
+                    } else if ("data".equals(name)) {
+                        data = readNull() ? null : skipData();
+                    } else if ("datetime".equals(name)) {
+                        dateTimeStamp = readNullableString();
+                    } else if ("pos_id".equals(name)) {
+                        posId = readNullableString();
+                    } else {
+                        skipValue();
+                    }
+                } while (nextMember());
+            }
+
+            final Message message = new Message(id, eventName, null, dateTimeStamp, posId);
+            message.setDataSlice(data);
+            return message;
+        }
+
+        /**
+         * Skips the {@code data} object. Its keys are compared as they are seen, as eager decoding rejects a duplicate
+         * at this level.
+         */
+        private DataSlice skipData() throws IOException {
+            skipWhitespace();
+            final int start = pos;
+            if (peek() != '{') throw syntaxError("Expected data to be an object");
+            if (beginObject()) {
+                int[] keys = new int[32];
+                int count = 0;
+                do {
+                    skipWhitespace();
+                    final int keyStart = pos;
+                    skipString();
+                    final int keyLength = pos - keyStart;
+                    for (int i = keyStart + 1; i < pos - 1; i++) {
+                        if (json.charAt(i) == '\\') throw syntaxError("Escaped key in data");
+                    }
+                    for (int k = 0; k < count; k += 2) {
+                        if (keys[k + 1] == keyLength && json.regionMatches(keys[k], json, keyStart, keyLength)) {
+                            throw syntaxError("Duplicate key in data");
+                        }
+                    }
+                    if (count == keys.length) keys = Arrays.copyOf(keys, count * 2);
+                    keys[count++] = keyStart;
+                    keys[count++] = keyLength;
+
+                    skipWhitespace();
+                    if (next() != ':') throw syntaxError("Expected ':'");
+                    skipValue();
+                } while (nextMember());
+            }
+            return new DataSlice(json, start, pos);
+        }
+
+        /**
+         * Consumes the start of an object.
+         *
+         * @return Whether the object has any members; if not, it has been consumed whole.
+         */
+        private boolean beginObject() throws IOException {
+            skipWhitespace();
+            if (next() != '{') throw syntaxError("Expected an object");
+            skipWhitespace();
+            if (peek() != '}') return true;
+            pos++;
+            return false;
+        }
+
+        /**
+         * Consumes the separator before the next member, or the end of the object.
+         */
+        private boolean nextMember() throws IOException {
+            skipWhitespace();
+            final char c = next();
+            if (c == ',') return true;
+            if (c == '}') return false;
+            throw syntaxError("Expected ',' or '}'");
+        }
+
+        private String readName() throws IOException {
+            skipWhitespace();
+            final String name = readString();
+            skipWhitespace();
+            if (next() != ':') throw syntaxError("Expected ':'");
+            return name;
+        }
+
+        private String readNullableString() throws IOException {
+            return readNull() ? null : readString();
+        }
+
+        private boolean readNull() throws IOException {
+            skipWhitespace();
+            if (json.startsWith("null", pos)) {
+                pos += 4;
+                return true;
+            }
+            return false;
+        }
+
+        private String readString() throws IOException {
+            skipWhitespace();
+            if (next() != '"') throw syntaxError("Expected a string");
+            final int start = pos;
+            while (true) {
+                final char c = next();
+                if (c == '"') return json.substring(start, pos - 1);
+                if (c == '\\') break;
+            }
+
+            // Rare: the string has escapes, so decode it the slow way.
+            final StringBuilder sb = new StringBuilder(pos - start + 16).append(json, start, pos - 1);
+            pos--;
+            while (true) {
+                final char c = next();
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                final char escaped = next();
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append(escaped);
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        final int hex = pos;
+                        skipHexDigits();
+                        sb.append((char) Integer.parseInt(json.substring(hex, pos), 16));
+                        break;
+                    default:
+                        throw syntaxError("Invalid escape");
+                }
+            }
+        }
+
+        /**
+         * Skips a value, checking it on the way so that a skipped {@code data} object is known to decode the same as
+         * eager decoding. A bare word must be a literal or a number; the lenient decoders handle anything else.
+         */
+        private void skipValue() throws IOException {
+            skipWhitespace();
+            final char c = peek();
+            if (c == '"') {
+                skipString();
+            } else if (c == '{') {
+                if (beginObject()) {
+                    do {
+                        skipWhitespace();
+                        skipString();
+                        skipWhitespace();
+                        if (next() != ':') throw syntaxError("Expected ':'");
+                        skipValue();
+                    } while (nextMember());
+                }
+            } else if (c == '[') {
+                pos++;
+                skipWhitespace();
+                if (peek() == ']') {
+                    pos++;
+                    return;
+                }
+                while (true) {
+                    skipValue();
+                    skipWhitespace();
+                    final char d = next();
+                    if (d == ']') return;
+                    if (d != ',') throw syntaxError("Expected ',' or ']'");
+                }
+            } else {
+                final int start = pos;
+                while (pos < json.length() && ",:{}[]\" \t\r\n".indexOf(json.charAt(pos)) < 0) pos++;
+                if (pos == start) throw syntaxError("Expected a value");
+                if (!isLiteral(start, pos) && !isNumber(start, pos)) throw syntaxError("Expected a literal or number");
+            }
+        }
+
+        private boolean isLiteral(int start, int end) {
+            final int length = end - start;
+            return (length == 4 && (json.startsWith("true", start) || json.startsWith("null", start)))
+                    || (length == 5 && json.startsWith("false", start));
+        }
+
+        /**
+         * @return Whether the range is a number as JSON writes it: {@code -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?}
+         */
+        private boolean isNumber(int start, int end) {
+            int i = start;
+            if (i < end && json.charAt(i) == '-') i++;
+            if (i < end && json.charAt(i) == '0') {
+                i++;
+            } else {
+                final int digits = i;
+                i = skipDigits(i, end);
+                if (i == digits) return false;
+            }
+            if (i < end && json.charAt(i) == '.') {
+                final int digits = ++i;
+                i = skipDigits(i, end);
+                if (i == digits) return false;
+            }
+            if (i < end && (json.charAt(i) == 'e' || json.charAt(i) == 'E')) {
+                i++;
+                if (i < end && (json.charAt(i) == '+' || json.charAt(i) == '-')) i++;
+                final int digits = i;
+                i = skipDigits(i, end);
+                if (i == digits) return false;
+            }
+            return i == end;
+        }
+
+        private int skipDigits(int i, int end) {
+            while (i < end && json.charAt(i) >= '0' && json.charAt(i) <= '9') i++;
+            return i;
+        }
+
+        /**
+         * Skips a string by searching for its closing quote, which is much faster on long receipts than stepping
+         * through it. Only the escapes before the quote are looked at, each checked as readString() would.
+         */
+        private void skipString() throws IOException {
+            if (next() != '"') throw syntaxError("Expected a string");
+            while (true) {
+                final int quote = json.indexOf('"', pos);
+                if (quote < 0) throw syntaxError("Unterminated string");
+                if (backslash != -1 && backslash < pos) backslash = json.indexOf('\\', pos);
+                if (backslash < 0 || backslash > quote) {
+                    pos = quote + 1;
+                    return;
+                }
+
+                pos = backslash + 1;
+                switch (next()) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                    case 'b':
+                    case 'f':
+                    case 'n':
+                    case 'r':
+                    case 't':
+                        break;
+                    case 'u':
+                        skipHexDigits();
+                        break;
+                    default:
+                        throw syntaxError("Invalid escape");
+                }
+            }
+        }
+
+        /**
+         * Skips the four hex digits of a unicode escape.
+         */
+        private void skipHexDigits() throws IOException {
+            for (int i = 0; i < 4; i++) {
+                final char c = next();
+                if ((c < '0' || c > '9') && (c < 'a' || c > 'f') && (c < 'A' || c > 'F')) {
+                    throw syntaxError("Invalid escape");
+                }
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length()) {
+                final char c = json.charAt(pos);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return;
+                pos++;
+            }
+        }
+
+        private char peek() throws IOException {
+            if (pos >= json.length()) throw syntaxError("Unexpected end of input");
+            return json.charAt(pos);
+        }
+
+        private char next() throws IOException {
+            final char c = peek();
+            pos++;
+            return c;
+        }
+
+        private MalformedJsonException syntaxError(String message) {
+            return new MalformedJsonException(message + " at " + pos);
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package io.mx51.spi.model;
+
+import com.google.gson.JsonIOException;
+import io.mx51.spi.util.CryptoContext;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+/**
+ * Single-pass encoder for outgoing encrypted messages.
+ * <p>
+ * The inner envelope is serialised straight into the cipher, whose output is hex encoded and signed as it comes, into
+ * the frame that goes on the wire. The frame is built in a per-thread buffer that keeps the size of earlier messages,
+ * so the only large copy is the final string. Produces exactly what serialising the envelope to a string, encrypting
+ * it, signing it and serialising a second {@link MessageEnvelope} around it does.
+ * <p>
+ * Pings, pongs and the other control messages without data are spliced into a precompiled template instead of being
+ * serialised; see {@link ControlMessageTemplate}.
+ */
+public final class MessageEncoder {
+
+    private static final int MAX_RETAINED_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<StringBuilder> FRAME = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(1024);
+        }
+    };
+
+    private MessageEncoder() {
+    }
+
+    /**
+     * @param message The message, already stamped with its time.
+     * @param crypto  The keys to encrypt and sign with.
+     * @param posId   The POS ID to put on the outer envelope, or null for none.
+     * @return The encrypted envelope as JSON.
+     * @throws GeneralSecurityException If the message cannot be encrypted.
+     */
+    public static String encodeEncrypted(Message message, CryptoContext crypto, String posId) throws GeneralSecurityException {
+        return encode(message, crypto, posId == null ? null : JsonProvider.getDefault().toJson(posId));
+    }
+
+    /**
+     * Like {@link #encodeEncrypted(Message, CryptoContext, String)}, with the keys and POS ID of the stamp, whose
+     * escaped POS ID is kept rather than serialised each time.
+     */
+    static String encodeEncrypted(Message message, MessageStamp stamp) throws GeneralSecurityException {
+        return encode(message, stamp.getSecrets().getCryptoContext(), stamp.getEscapedPosId());
+    }
+
+    /**
+     * @param escapedPosId The POS ID as a JSON string, or null for none.
+     */
+    private static String encode(Message message, CryptoContext crypto, String escapedPosId) throws GeneralSecurityException {
+        StringBuilder frame = FRAME.get();
+        frame.setLength(0);
+
+        frame.append("{\"enc\":\"");
+        final JsonProvider provider = JsonProvider.getDefault();
+        final String hmac;
+        try (CryptoContext.EncryptingWriter writer = crypto.newEncryptingWriter(frame)) {
+            final ControlMessageTemplate template = ControlMessageTemplate.forMessage(message);
+            if (template != null) {
+                template.write(message, writer);
+            } else {
+                provider.writeEnvelope(new MessageEnvelope(message), writer);
+            }
+            hmac = writer.finish();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        frame.append("\",\"hmac\":\"").append(hmac).append('"');
+        if (escapedPosId != null) frame.append(",\"pos_id\":").append(escapedPosId);
+        frame.append('}');
+
+        final String json = frame.toString();
+        // A single large message should not pin its buffer to the thread.
+        if (frame.capacity() > MAX_RETAINED_SIZE) FRAME.remove();
+        return json;
+    }
+
+}
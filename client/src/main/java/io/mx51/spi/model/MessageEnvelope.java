@@ -27,6 +27,13 @@ public class MessageEnvelope {
         this.hmac = hmac;
     }
 
+    MessageEnvelope(Message message, String enc, String hmac, String posId) {
+        this.message = message;
+        this.enc = enc;
+        this.hmac = hmac;
+        this.posId = posId;
+    }
+
     public MessageEnvelope(Message message) {
         this.message = message;
     }
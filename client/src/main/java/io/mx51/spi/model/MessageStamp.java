@@ -12,6 +12,11 @@ public class MessageStamp {
 
     private long serverTimeDelta;
 
+    private boolean retainJson = true;
+
+    // The POS ID as a JSON string, which is the same on every message.
+    private volatile EscapedPosId escapedPosId;
+
     public MessageStamp(String posId, Secrets secrets, long serverTimeDelta) {
         this.posId = posId;
         this.secrets = secrets;
@@ -42,4 +47,39 @@ public class MessageStamp {
         this.serverTimeDelta = serverTimeDelta;
     }
 
+    /**
+     * @return The POS ID as a JSON string, escaped the way Gson escapes it on the reflective path; null if none.
+     */
+    String getEscapedPosId() {
+        final String posId = this.posId;
+        if (posId == null) return null;
+        final EscapedPosId escaped = escapedPosId;
+        if (escaped != null && escaped.posId.equals(posId)) return escaped.json;
+        final EscapedPosId fresh = new EscapedPosId(posId, JsonProvider.getDefault().toJson(posId));
+        escapedPosId = fresh;
+        return fresh.json;
+    }
+
+    /**
+     * @return Whether stamped messages keep their decrypted JSON, see {@link Message#getDecryptedJson()}.
+     */
+    public boolean isRetainJson() {
+        return retainJson;
+    }
+
+    public void setRetainJson(boolean retainJson) {
+        this.retainJson = retainJson;
+    }
+
+    private static final class EscapedPosId {
+
+        final String posId;
+        final String json;
+
+        EscapedPosId(String posId, String json) {
+            this.posId = posId;
+            this.json = json;
+        }
+    }
+
 }
@@ -0,0 +1,97 @@
+package io.mx51.spi.model;
+
+import java.util.Arrays;
+
+/**
+ * The integral numbers at the top level of a message's data that the {@link Double}s in the data map cannot hold
+ * exactly, i.e. those beyond 2^53, so that they can still be read without rounding. Amounts in cents never get that
+ * far, so for almost every message this stays empty and allocates nothing more.
+ * <p>
+ * This only makes those reads exact. Every number still goes into the data map as a boxed {@link Double}, as Gson would
+ * put it, and the accessors read it from there.
+ * <p>
+ * A small open-addressing table; filled once while decoding and only read afterwards.
+ */
+final class NumericFields {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private String[] keys;
+    private long[] values;
+    private int size;
+
+    /**
+     * Keeps the value if its double would round it.
+     */
+    void put(String key, long value) {
+        if ((long) (double) value == value && value != Long.MAX_VALUE) return;
+        if (keys == null) {
+            keys = new String[INITIAL_CAPACITY];
+            values = new long[INITIAL_CAPACITY];
+        } else if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        if (insert(keys, values, key, value)) size++;
+    }
+
+    /**
+     * @return The slot of the key, for {@link #valueAt(int)}, or -1 if the double in the data map is exact.
+     */
+    int indexOf(String key) {
+        if (keys == null) return -1;
+        final int mask = keys.length - 1;
+        for (int i = spread(key.hashCode()) & mask; ; i = (i + 1) & mask) {
+            final String k = keys[i];
+            if (k == null) return -1;
+            if (k.equals(key)) return i;
+        }
+    }
+
+    long valueAt(int slot) {
+        return values[slot];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        if (keys != null) Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    /**
+     * @return Whether the key is new.
+     */
+    private static boolean insert(String[] keys, long[] values, String key, long value) {
+        final int mask = keys.length - 1;
+        for (int i = spread(key.hashCode()) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == null) {
+                keys[i] = key;
+                values[i] = value;
+                return true;
+            }
+            if (keys[i].equals(key)) {
+                values[i] = value;
+                return false;
+            }
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private void grow() {
+        final String[] oldKeys = keys;
+        final long[] oldValues = values;
+        final String[] newKeys = new String[oldKeys.length * 2];
+        final long[] newValues = new long[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) insert(newKeys, newValues, oldKeys[i], oldValues[i]);
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+}
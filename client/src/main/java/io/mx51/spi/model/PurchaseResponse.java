@@ -15,26 +15,68 @@ public class PurchaseResponse extends AbstractChargeResponse {
         return m.getDataIntValue("purchase_amount");
     }
 
+    /**
+     * Like {@link #getPurchaseAmount()}, but exact; see {@link Message#getDataLongValue(String)}.
+     */
+    public long getPurchaseAmountExact() {
+        return m.getDataLongValue("purchase_amount");
+    }
+
     public int getTipAmount() {
         return m.getDataIntValue("tip_amount");
     }
 
+    /**
+     * Like {@link #getTipAmount()}, but exact; see {@link Message#getDataLongValue(String)}.
+     */
+    public long getTipAmountExact() {
+        return m.getDataLongValue("tip_amount");
+    }
+
     public int getCashoutAmount() {
         return m.getDataIntValue("cash_amount");
     }
 
+    /**
+     * Like {@link #getCashoutAmount()}, but exact; see {@link Message#getDataLongValue(String)}.
+     */
+    public long getCashoutAmountExact() {
+        return m.getDataLongValue("cash_amount");
+    }
+
     public int getBankNonCashAmount() {
         return m.getDataIntValue("bank_noncash_amount");
     }
 
+    /**
+     * Like {@link #getBankNonCashAmount()}, but exact; see {@link Message#getDataLongValue(String)}.
+     */
+    public long getBankNonCashAmountExact() {
+        return m.getDataLongValue("bank_noncash_amount");
+    }
+
     public int getBankCashAmount() {
         return m.getDataIntValue("bank_cash_amount");
     }
 
+    /**
+     * Like {@link #getBankCashAmount()}, but exact; see {@link Message#getDataLongValue(String)}.
+     */
+    public long getBankCashAmountExact() {
+        return m.getDataLongValue("bank_cash_amount");
+    }
+
     public int getSurchargeAmount() {
         return m.getDataIntValue("surcharge_amount");
     }
 
+    /**
+     * Like {@link #getSurchargeAmount()}, but exact; see {@link Message#getDataLongValue(String)}.
+     */
+    public long getSurchargeAmountExact() {
+        return m.getDataLongValue("surcharge_amount");
+    }
+
     @NotNull
     public Map<String, Object> toPaymentSummary() {
         final Map<String, Object> data = new HashMap<String, Object>();
@@ -12,4 +12,11 @@ public class RefundResponse extends AbstractChargeResponse {
         return m.getDataIntValue("refund_amount");
     }
 
+    /**
+     * Like {@link #getRefundAmount()}, but exact; see {@link Message#getDataLongValue(String)}.
+     */
+    public long getRefundAmountExact() {
+        return m.getDataLongValue("refund_amount");
+    }
+
 }
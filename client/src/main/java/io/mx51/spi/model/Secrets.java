@@ -1,6 +1,7 @@
 package io.mx51.spi.model;
 
 import io.mx51.spi.util.Crypto;
+import io.mx51.spi.util.CryptoContext;
 
 public class Secrets {
 
@@ -10,6 +11,8 @@ public class Secrets {
     private final byte[] encKeyBytes;
     private final byte[] hmacKeyBytes;
 
+    private transient volatile CryptoContext cryptoContext;
+
     public Secrets(String encKey, String hmacKey) {
         this.encKey = encKey;
         this.hmacKey = hmacKey;
@@ -34,4 +37,17 @@ public class Secrets {
         return hmacKeyBytes;
     }
 
+    /**
+     * @return Cipher and MAC state for these keys, created on first use.
+     */
+    public CryptoContext getCryptoContext() {
+        CryptoContext context = cryptoContext;
+        if (context == null) {
+            // Racing threads may each build one; they are equivalent, so whichever wins is fine.
+            context = new CryptoContext(encKeyBytes, hmacKeyBytes);
+            cryptoContext = context;
+        }
+        return context;
+    }
+
 }
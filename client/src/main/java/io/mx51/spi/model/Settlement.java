@@ -1,12 +1,11 @@
 package io.mx51.spi.model;
 
+import io.mx51.spi.util.TimestampCodec;
 import org.jetbrains.annotations.NotNull;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 
 public class Settlement extends AbstractTransactionResponse {
@@ -23,6 +22,13 @@ public class Settlement extends AbstractTransactionResponse {
         return m.getDataIntValue("accumulated_settle_by_acquirer_value");
     }
 
+    /**
+     * Like {@link #getSettleByAcquirerValue()}, but exact; see {@link Message#getDataLongValue(String)}.
+     */
+    public long getSettleByAcquirerValueExact() {
+        return m.getDataLongValue("accumulated_settle_by_acquirer_value");
+    }
+
     public int getTotalCount() {
         return m.getDataIntValue("accumulated_total_count");
     }
@@ -31,11 +37,18 @@ public class Settlement extends AbstractTransactionResponse {
         return m.getDataIntValue("accumulated_total_value");
     }
 
+    /**
+     * Like {@link #getTotalValue()}, but exact; see {@link Message#getDataLongValue(String)}.
+     */
+    public long getTotalValueExact() {
+        return m.getDataLongValue("accumulated_total_value");
+    }
+
     public long getPeriodStartTime() {
         final String timeStr = m.getDataStringValue("settlement_period_start_time"); // "05:00"
         final String dateStr = m.getDataStringValue("settlement_period_start_date"); // "05Oct17"
         try {
-            return new SimpleDateFormat("HH:mmddMMMyy", Locale.US).parse(timeStr + dateStr).getTime();
+            return TimestampCodec.parse(timeStr + dateStr, TimestampCodec.Layout.TIME_SHORT_DATE);
         } catch (ParseException e) {
             throw new RuntimeException("Cannot parse PeriodStartTime", e);
         }
@@ -45,7 +58,7 @@ public class Settlement extends AbstractTransactionResponse {
         final String timeStr = m.getDataStringValue("settlement_period_end_time"); // "05:00"
         final String dateStr = m.getDataStringValue("settlement_period_end_date"); // "05Oct17"
         try {
-            return new SimpleDateFormat("HH:mmddMMMyy", Locale.US).parse(timeStr + dateStr).getTime();
+            return TimestampCodec.parse(timeStr + dateStr, TimestampCodec.Layout.TIME_SHORT_DATE);
         } catch (ParseException e) {
             throw new RuntimeException("Cannot parse PeriodEndTime", e);
         }
@@ -55,7 +68,7 @@ public class Settlement extends AbstractTransactionResponse {
         final String timeStr = m.getDataStringValue("settlement_triggered_time"); // "05:00:45"
         final String dateStr = m.getDataStringValue("settlement_triggered_date"); // "05Oct17"
         try {
-            return new SimpleDateFormat("HH:mm:ssddMMMyy", Locale.US).parse(timeStr + dateStr).getTime();
+            return TimestampCodec.parse(timeStr + dateStr, TimestampCodec.Layout.TIME_SECONDS_SHORT_DATE);
         } catch (ParseException e) {
             throw new RuntimeException("Cannot parse TriggeredTime", e);
         }
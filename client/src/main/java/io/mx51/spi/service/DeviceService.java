@@ -1,24 +1,24 @@
 package io.mx51.spi.service;
 
+import io.mx51.spi.TransportContext;
 import io.mx51.spi.model.DeviceAddressStatus;
-import com.google.gson.Gson;
+import io.mx51.spi.model.JsonProvider;
 import okhttp3.*;
 import org.slf4j.*;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
 
 public class DeviceService {
 
     private static final Logger LOG = LoggerFactory.getLogger("spi");
-    private static final Gson GSON = new Gson();
     private final OkHttpClient okHttpClient;
-    private static final long CONNECTION_TIMEOUT_SECS = 8;
 
     public DeviceService() {
-        okHttpClient = new OkHttpClient.Builder()
-                .connectTimeout(CONNECTION_TIMEOUT_SECS, TimeUnit.SECONDS)
-                .build();
+        this(TransportContext.getDefault());
+    }
+
+    public DeviceService(TransportContext transportContext) {
+        okHttpClient = transportContext.getHttpClient();
     }
 
     public DeviceAddressStatus retrieveService(String serialNumber, String apiKey, String acquirerCode, boolean isTestMode) {
@@ -42,7 +42,7 @@ public class DeviceService {
             Response response = okHttpClient.newCall(request).execute();
 
             if (response.body() != null) {
-                deviceAddressStatus = GSON.fromJson(response.body().string(), DeviceAddressStatus.class);
+                deviceAddressStatus = JsonProvider.getDefault().fromJson(response.body().string(), DeviceAddressStatus.class);
             }
 
             deviceAddressStatus.setResponseCode(response.code());
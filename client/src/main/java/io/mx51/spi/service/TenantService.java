@@ -1,23 +1,23 @@
 package io.mx51.spi.service;
 
+import io.mx51.spi.TransportContext;
+import io.mx51.spi.model.JsonProvider;
 import io.mx51.spi.model.Tenants;
-import com.google.gson.Gson;
 import okhttp3.*;
 import org.slf4j.*;
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
 
 public class TenantService {
 
     private static final Logger LOG = LoggerFactory.getLogger("spi");
-    private static final Gson GSON = new Gson();
     private final OkHttpClient okHttpClient;
-    private static final long CONNECTION_TIMEOUT_SECS = 8;
 
     public TenantService() {
-        okHttpClient = new OkHttpClient.Builder()
-                .connectTimeout(CONNECTION_TIMEOUT_SECS, TimeUnit.SECONDS)
-                .build();
+        this(TransportContext.getDefault());
+    }
+
+    public TenantService(TransportContext transportContext) {
+        okHttpClient = transportContext.getHttpClient();
     }
 
     public Tenants retrieveService(String posVendorId, String apiKey, String countryCode) {
@@ -34,7 +34,7 @@ public class TenantService {
             Response response = okHttpClient.newCall(request).execute();
 
             if (response.body() != null) {
-                tenants = new Gson().fromJson(response.body().string(), Tenants.class);
+                tenants = JsonProvider.getDefault().fromJson(response.body().string(), Tenants.class);
             }
 
             return tenants;
@@ -14,8 +14,6 @@ import java.security.NoSuchAlgorithmException;
 
 public final class Crypto {
 
-    private final static char[] HEX_ALPHABET = "0123456789ABCDEF".toCharArray();
-
     private Crypto() {
     }
 
@@ -121,13 +119,7 @@ public final class Crypto {
     }
 
     public static String byteArrayToHexString(byte[] ba) {
-        final char[] hexChars = new char[ba.length * 2];
-        for (int j = 0; j < ba.length; j++) {
-            final int v = ba[j] & 0xFF;
-            hexChars[j * 2] = HEX_ALPHABET[v >>> 4];
-            hexChars[j * 2 + 1] = HEX_ALPHABET[v & 0x0F];
-        }
-        return new String(hexChars);
+        return Hex.encode(ba);
     }
 
     public static byte[] hexStringToByteArray(String hex) {
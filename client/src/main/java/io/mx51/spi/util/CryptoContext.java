@@ -0,0 +1,461 @@
+package io.mx51.spi.util;
+
+import org.apache.commons.codec.Charsets;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Writer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Encryption and signing bound to one pair of keys.
+ * <p>
+ * Does the same work as {@link Crypto#aesEncrypt(byte[], String)}, {@link Crypto#aesDecrypt(byte[], String)} and
+ * {@link Crypto#hmacSignature(byte[], String)}, but keeps the ciphers and MACs it has set up for reuse instead of
+ * looking up the algorithms and setting up the keys on every call. A context is safe to share between threads; when the
+ * keys roll, a new one is created along with the new {@link io.mx51.spi.model.Secrets} and this one is simply dropped.
+ * Its ciphers and MACs are held by the context rather than by the threads that used it, so they go with it.
+ */
+public final class CryptoContext {
+
+    private static final String AES_TRANSFORMATION = "AES/CBC/PKCS5PADDING";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final IvParameterSpec IV = new IvParameterSpec(new byte[16]);
+
+    // Scratch space is shared by all contexts on a thread; it does not depend on the keys.
+    private static final ThreadLocal<Buffers> BUFFERS = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    private final SecretKeySpec encKey;
+    private final SecretKeySpec hmacKey;
+
+    private final Pool<Cipher> encryptCiphers = new Pool<Cipher>() {
+        @Override
+        Cipher create() {
+            return newCipher(Cipher.ENCRYPT_MODE);
+        }
+    };
+    private final Pool<Cipher> decryptCiphers = new Pool<Cipher>() {
+        @Override
+        Cipher create() {
+            return newCipher(Cipher.DECRYPT_MODE);
+        }
+    };
+    private final Pool<Mac> macs = new Pool<Mac>() {
+        @Override
+        Mac create() {
+            try {
+                final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(hmacKey);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cannot initialise " + HMAC_ALGORITHM, e);
+            }
+        }
+    };
+
+    /**
+     * @param encKey  The AES key.
+     * @param hmacKey The HMAC key.
+     */
+    public CryptoContext(byte[] encKey, byte[] hmacKey) {
+        if (encKey == null || hmacKey == null) throw new IllegalArgumentException("Keys must not be null");
+
+        this.encKey = new SecretKeySpec(encKey, "AES");
+        this.hmacKey = new SecretKeySpec(hmacKey, HMAC_ALGORITHM);
+    }
+
+    /**
+     * Encrypt a message using a cipher mode of CBC and a padding mode of PKCS7.
+     *
+     * @param message The message to encrypt
+     * @return Returns the resulting ciphertext data as a hex string.
+     * @throws BadPaddingException       See {@link Crypto#aesEncrypt(byte[], String)}.
+     * @throws IllegalBlockSizeException See {@link Crypto#aesEncrypt(byte[], String)}.
+     */
+    public String aesEncrypt(String message) throws BadPaddingException, IllegalBlockSizeException {
+        final Buffers buffers = BUFFERS.get();
+        final byte[] input = message.getBytes(Charsets.UTF_8);
+        final Cipher cipher = encryptCiphers.take();
+        final byte[] output = buffers.bytes(cipher.getOutputSize(input.length));
+        final int length = doFinal(encryptCiphers, cipher, input, input.length, output);
+        final char[] chars = buffers.chars(length * 2);
+        Hex.encode(output, 0, length, chars);
+        return new String(chars, 0, length * 2);
+    }
+
+    /**
+     * Decrypt a hex encoded message using a cipher mode of CBC and a padding mode of PKCS7.
+     *
+     * @param encMessage The message to decrypt
+     * @return Returns the resulting plaintext data.
+     * @throws BadPaddingException       See {@link Crypto#aesDecrypt(byte[], String)}.
+     * @throws IllegalBlockSizeException See {@link Crypto#aesDecrypt(byte[], String)}, or the message is not valid
+     *                                   hex.
+     */
+    public String aesDecrypt(CharSequence encMessage) throws BadPaddingException, IllegalBlockSizeException {
+        final byte[] bytes = BUFFERS.get().bytes(encMessage.length() / 2);
+        final int inputLength = Hex.decode(encMessage, bytes);
+        if (inputLength < 0) throw new IllegalBlockSizeException("Encrypted message is not valid hex");
+
+        // Decrypting in place is safe, and the plaintext is never longer than the ciphertext.
+        final int length = doFinal(decryptCiphers, decryptCiphers.take(), bytes, inputLength, bytes);
+        return new String(bytes, 0, length, Charsets.UTF_8);
+    }
+
+    /**
+     * Starts encrypting a message that is written in pieces, as by a JSON serialiser. The ciphertext is hex encoded
+     * into {@code hexOut} as it is produced and signed at the same time, so neither the plaintext nor the ciphertext is
+     * ever held whole. The result is the same as {@link #aesEncrypt(String)} followed by
+     * {@link #hmacSignature(CharSequence)} on its output.
+     * <p>
+     * The writer uses this thread's buffers, so it must be used and closed on the thread that created it, and no other
+     * encryption may run on that thread in between.
+     *
+     * @param hexOut Where to append the hex encoded ciphertext.
+     * @return A writer for the plaintext; call {@link EncryptingWriter#finish()} once it is all written.
+     */
+    public EncryptingWriter newEncryptingWriter(StringBuilder hexOut) {
+        return new EncryptingWriter(hexOut);
+    }
+
+    /**
+     * Calculates the HMACSHA256 signature of a message.
+     *
+     * @param messageToSign The message to sign
+     * @return The HMACSHA256 signature as a hex string
+     */
+    public String hmacSignature(CharSequence messageToSign) {
+        final Buffers buffers = BUFFERS.get();
+        final byte[] signature = sign(buffers, messageToSign);
+        final char[] chars = buffers.chars(signature.length * 2);
+        Hex.encode(signature, 0, signature.length, chars);
+        return new String(chars, 0, signature.length * 2);
+    }
+
+    /**
+     * Checks a message against a hex encoded HMACSHA256 signature. The signature is compared as raw bytes, in time
+     * that does not depend on where the first difference is.
+     *
+     * @param message   The signed message
+     * @param signature The expected signature as a hex string, in either case
+     * @return Whether the signature matches.
+     */
+    public boolean verifyHmac(CharSequence message, CharSequence signature) {
+        if (signature == null) return false;
+
+        final Buffers buffers = BUFFERS.get();
+        final byte[] actual = sign(buffers, message);
+        if (signature.length() != actual.length * 2) return false;
+
+        final byte[] expected = buffers.expectedSignature(actual.length);
+        if (Hex.decode(signature, expected) < 0) return false;
+        return MessageDigest.isEqual(actual, expected);
+    }
+
+    /**
+     * @return The signature, in a per-thread buffer that is only valid until the next call.
+     */
+    private byte[] sign(Buffers buffers, CharSequence message) {
+        final Mac mac = macs.take();
+        final int length = message.length();
+        final byte[] bytes = buffers.bytes(length);
+        boolean ascii = true;
+        for (int i = 0; i < length; i++) {
+            final char c = message.charAt(i);
+            if (c >= 0x80) {
+                ascii = false;
+                break;
+            }
+            bytes[i] = (byte) c;
+        }
+        if (ascii) {
+            mac.update(bytes, 0, length);
+        } else {
+            mac.update(message.toString().getBytes(Charsets.UTF_8));
+        }
+
+        // doFinal() leaves the Mac initialised with the same key, ready for the next message.
+        final byte[] signature = buffers.signature(mac.getMacLength());
+        try {
+            mac.doFinal(signature, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+        macs.release(mac);
+        return signature;
+    }
+
+    /**
+     * A successful doFinal() leaves the cipher initialised with the same key and IV, ready for the next message, so it
+     * goes back to the pool. After a failure its state is undefined, so it is dropped.
+     */
+    private static int doFinal(Pool<Cipher> pool, Cipher cipher, byte[] input, int inputLength, byte[] output)
+            throws BadPaddingException, IllegalBlockSizeException {
+        final int length;
+        try {
+            length = cipher.doFinal(input, 0, inputLength, output, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+        pool.release(cipher);
+        return length;
+    }
+
+    private Cipher newCipher(int mode) {
+        try {
+            final Cipher cipher = Cipher.getInstance(AES_TRANSFORMATION);
+            cipher.init(mode, encKey, IV);
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot initialise " + AES_TRANSFORMATION, e);
+        }
+    }
+
+    /**
+     * Encrypts and signs text as it is written; see {@link #newEncryptingWriter(StringBuilder)}.
+     * <p>
+     * Text is UTF-8 encoded into a small buffer, and each full buffer goes through the cipher. Unpaired surrogates are
+     * encoded as {@code '?'}, as {@link String#getBytes(java.nio.charset.Charset)} does.
+     */
+    public final class EncryptingWriter extends Writer {
+
+        // Leaves room for a full 4-byte character at the end of the input buffer.
+        private static final int CHUNK_SIZE = Buffers.PLAINTEXT_SIZE - 4;
+
+        private final StringBuilder hexOut;
+        private final Cipher cipher = encryptCiphers.take();
+        private final Mac mac = macs.take();
+        private final Buffers buffers = BUFFERS.get();
+        private final byte[] input = buffers.plaintext();
+        private int length;
+        private char highSurrogate;
+        private boolean finished;
+
+        private EncryptingWriter(StringBuilder hexOut) {
+            this.hexOut = hexOut;
+        }
+
+        @Override
+        public void write(int c) {
+            encode((char) c);
+            if (length >= CHUNK_SIZE) update();
+        }
+
+        @Override
+        public void write(char[] chars, int off, int len) {
+            for (int i = off, end = off + len; i < end; i++) {
+                encode(chars[i]);
+                if (length >= CHUNK_SIZE) update();
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            for (int i = off, end = off + len; i < end; i++) {
+                encode(str.charAt(i));
+                if (length >= CHUNK_SIZE) update();
+            }
+        }
+
+        /**
+         * Writes text that is already UTF-8 encoded, such as a precompiled message template, without encoding it again.
+         */
+        public void write(byte[] utf8, int off, int len) {
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                input[length++] = '?';
+            }
+            if (length >= CHUNK_SIZE) update();
+            while (len > 0) {
+                final int n = Math.min(len, CHUNK_SIZE - length);
+                System.arraycopy(utf8, off, input, length, n);
+                length += n;
+                off += n;
+                len -= n;
+                if (length >= CHUNK_SIZE) update();
+            }
+        }
+
+        /**
+         * Encrypts what is left and completes the signature.
+         *
+         * @return The HMACSHA256 signature of the hex encoded ciphertext, as a hex string.
+         */
+        public String finish() throws BadPaddingException, IllegalBlockSizeException {
+            if (finished) throw new IllegalStateException("Already finished");
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                input[length++] = '?';
+            }
+
+            final byte[] output = buffers.encrypted(cipher.getOutputSize(length));
+            final int outputLength = doFinal(encryptCiphers, cipher, input, length, output);
+            appendHex(output, outputLength);
+
+            final byte[] signature = buffers.signature(mac.getMacLength());
+            try {
+                mac.doFinal(signature, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+            macs.release(mac);
+            final char[] chars = buffers.chars(signature.length * 2);
+            Hex.encode(signature, 0, signature.length, chars);
+            finished = true;
+            return new String(chars, 0, signature.length * 2);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        /**
+         * If the message was not finished, drops the cipher and MAC instead of returning them to the pool, so that what
+         * was written does not leak into the next message.
+         */
+        @Override
+        public void close() {
+            finished = true;
+        }
+
+        private void encode(char c) {
+            if (highSurrogate != 0) {
+                final char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    final int codePoint = Character.toCodePoint(high, c);
+                    input[length++] = (byte) (0xF0 | (codePoint >>> 18));
+                    input[length++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+                    input[length++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+                    input[length++] = (byte) (0x80 | (codePoint & 0x3F));
+                    return;
+                }
+                input[length++] = '?';
+            }
+
+            if (c < 0x80) {
+                input[length++] = (byte) c;
+            } else if (c < 0x800) {
+                input[length++] = (byte) (0xC0 | (c >>> 6));
+                input[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                input[length++] = '?';
+            } else {
+                input[length++] = (byte) (0xE0 | (c >>> 12));
+                input[length++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+                input[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        private void update() {
+            if (finished) throw new IllegalStateException("Already finished");
+            final byte[] output = buffers.encrypted(cipher.getOutputSize(length));
+            final int outputLength;
+            try {
+                outputLength = cipher.update(input, 0, length, output, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+            length = 0;
+            appendHex(output, outputLength);
+        }
+
+        /**
+         * Appends ciphertext as hex, and signs the hex as it goes out.
+         */
+        private void appendHex(byte[] bytes, int len) {
+            final char[] chars = buffers.chars(len * 2);
+            Hex.encode(bytes, 0, len, chars);
+            hexOut.append(chars, 0, len * 2);
+
+            // Hex digits are ASCII, so each char is its own byte.
+            final byte[] ascii = buffers.bytes(len * 2);
+            for (int i = 0; i < len * 2; i++) ascii[i] = (byte) chars[i];
+            mac.update(ascii, 0, len * 2);
+        }
+    }
+
+    /**
+     * Initialised instances that are not in use. Only as many are ever created as there are threads using the context
+     * at once, and all of them are dropped along with it.
+     */
+    private abstract static class Pool<T> {
+        private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+
+        abstract T create();
+
+        T take() {
+            final T instance = idle.poll();
+            return instance != null ? instance : create();
+        }
+
+        void release(T instance) {
+            idle.offer(instance);
+        }
+    }
+
+    /**
+     * Per-thread buffers, grown on demand. Buffers for unusually large messages are not kept, so a single big
+     * settlement receipt does not pin its memory to the thread.
+     */
+    private static final class Buffers {
+
+        private static final int MAX_RETAINED_SIZE = 256 * 1024;
+        private static final int PLAINTEXT_SIZE = 4096;
+
+        // Only used by EncryptingWriter, which needs its input to stay put while it uses the other buffers.
+        private byte[] plaintext;
+        private byte[] encrypted;
+        private byte[] bytes = new byte[4096];
+        private char[] chars = new char[8192];
+        private byte[] signature = new byte[32];
+        private byte[] expectedSignature = new byte[32];
+
+        byte[] bytes(int size) {
+            if (size <= bytes.length) return bytes;
+            if (size > MAX_RETAINED_SIZE) return new byte[size];
+            return bytes = new byte[Math.min(Math.max(size, bytes.length * 2), MAX_RETAINED_SIZE)];
+        }
+
+        char[] chars(int size) {
+            if (size <= chars.length) return chars;
+            if (size > MAX_RETAINED_SIZE) return new char[size];
+            return chars = new char[Math.min(Math.max(size, chars.length * 2), MAX_RETAINED_SIZE)];
+        }
+
+        byte[] plaintext() {
+            if (plaintext == null) plaintext = new byte[PLAINTEXT_SIZE];
+            return plaintext;
+        }
+
+        byte[] encrypted(int size) {
+            if (encrypted == null || size > encrypted.length) encrypted = new byte[Math.max(size, PLAINTEXT_SIZE + 16)];
+            return encrypted;
+        }
+
+        byte[] signature(int size) {
+            if (signature.length != size) signature = new byte[size];
+            return signature;
+        }
+
+        byte[] expectedSignature(int size) {
+            if (expectedSignature.length != size) expectedSignature = new byte[size];
+            return expectedSignature;
+        }
+    }
+
+}
@@ -9,28 +9,32 @@ import java.math.BigInteger;
  * 2. Generate your Public Key based on your Private Key.
  * 3. Generate the Secret given their Public Key and your Private Key
  * p and g are the shared constants for the algorithm, aka primeP and primeG.
+ * Public keys for SPI's own constants come from a precomputed table, see {@link FixedBaseModPow}.
  */
 public final class DiffieHellman {
 
+    // SPI uses the 2048-bit MODP Group as the shared constants for the DH algorithm
+    // https://tools.ietf.org/html/rfc3526#section-3
+    static final BigInteger MODP_2048_P = new BigInteger("32317006071311007300338913926423828248817941241140239112842009751400741706634354222619689417363569347117901737909704191754605873209195028853758986185622153212175412514901774520270235796078236248884246189477587641105928646099411723245426622522193230540919037680524235519125679715870117001058055877651038861847280257976054903569732561526167081339361799541336476559160368317896729073178384589680639671900977202194168647225871031411336429319536193471636533209717077448227988588565369208645296636077250268955505928362751121174096972998068410554359584866583291642136218231078990999448652468262416972035911852507045361090559");
+    static final BigInteger MODP_2048_G = BigInteger.valueOf(2);
+
+    // Built on first use: some tens of milliseconds, and a few hundred kilobytes of table.
+    private static final class Modp2048Holder {
+        static final FixedBaseModPow POWERS_OF_G = new FixedBaseModPow(MODP_2048_G, MODP_2048_P, 8, 4);
+    }
+
     private DiffieHellman() {
     }
 
     /**
-     * Generates a random private key that you can use.
+     * Generates a random private key that you can use, uniformly distributed in the range [2, p - 2].
      *
      * @return Random private key.
      */
     public static BigInteger randomPrivateKey(BigInteger p) {
-        final BigInteger max = p.subtract(BigInteger.valueOf(1));
-        BigInteger randBigInt = RandomHelper.randomBigIntMethod2(max);
-
-        // The above could give us 0 or 1, but we need min 2. So quick, albeit slightly biasing, cheat below.
         final BigInteger min = BigInteger.valueOf(2);
-        if (randBigInt.compareTo(min) < 0) {
-            randBigInt = min;
-        }
-
-        return randBigInt;
+        // p - 3 values, from 2 up to p - 2.
+        return RandomHelper.randomBigIntBelow(p.subtract(BigInteger.valueOf(3))).add(min);
     }
 
     /**
@@ -40,6 +44,7 @@ public final class DiffieHellman {
      */
     public static BigInteger publicKey(BigInteger p, BigInteger g, BigInteger privateKey) {
         // A = g**a mod p
+        if (g.equals(MODP_2048_G) && p.equals(MODP_2048_P)) return Modp2048Holder.POWERS_OF_G.pow(privateKey);
         return g.modPow(privateKey, p);
     }
 
@@ -0,0 +1,211 @@
+package io.mx51.spi.util;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Modular exponentiation of a fixed base, such as the Diffie-Hellman generator, with a table built once for that
+ * base and modulus. Gives exactly what {@link BigInteger#modPow(BigInteger, BigInteger)} does.
+ * <p>
+ * Uses a Lim-Lee comb: the exponent is split into {@code rows} rows, each cut into {@code columns} columns, and the
+ * table holds the products of the base raised to the start of every row, for each column and each combination of
+ * rows. An exponentiation then takes one squaring per bit of a column and at most one multiplication per column and
+ * bit, a fraction of the squarings {@code modPow} needs. Numbers are kept as 32-bit limbs in Montgomery form
+ * throughout, so that no step allocates or divides.
+ * <p>
+ * Immutable once built, and safe to share between threads.
+ */
+final class FixedBaseModPow {
+
+    private static final long MASK = 0xFFFFFFFFL;
+
+    private final BigInteger base;
+    private final BigInteger modulus;
+    private final int n;
+    // Little-endian limbs of the modulus.
+    private final int[] p;
+    // -p^-1 mod 2^32
+    private final int pInv;
+    private final int rows;
+    private final int rowBits;
+    private final int columns;
+    private final int columnBits;
+    // [column][set of rows], in Montgomery form.
+    private final int[][][] table;
+    // R mod p, which is 1 in Montgomery form.
+    private final int[] montOne;
+
+    /**
+     * @param base    The fixed base, between 1 and the modulus.
+     * @param modulus An odd modulus.
+     * @param rows    Rows of the comb; the table has 2^rows entries per column, so at most 16.
+     * @param columns Columns of each row.
+     */
+    FixedBaseModPow(BigInteger base, BigInteger modulus, int rows, int columns) {
+        if (!modulus.testBit(0) || modulus.bitLength() < 2) throw new IllegalArgumentException("modulus must be odd");
+        if (base.signum() <= 0 || base.compareTo(modulus) >= 0) throw new IllegalArgumentException("base out of range");
+        if (rows < 1 || rows > 16 || columns < 1) throw new IllegalArgumentException("bad comb shape");
+        this.base = base;
+        this.modulus = modulus;
+        this.n = (modulus.bitLength() + 31) / 32;
+        this.p = toLimbs(modulus, n);
+        this.pInv = -inverse(p[0]);
+        this.rows = rows;
+        this.rowBits = (modulus.bitLength() + rows - 1) / rows;
+        this.columns = columns;
+        this.columnBits = (rowBits + columns - 1) / columns;
+        this.montOne = toLimbs(BigInteger.ONE.shiftLeft(32 * n).mod(modulus), n);
+        this.table = buildTable();
+    }
+
+    BigInteger getBase() {
+        return base;
+    }
+
+    BigInteger getModulus() {
+        return modulus;
+    }
+
+    /**
+     * @return base^exponent mod modulus.
+     */
+    BigInteger pow(BigInteger exponent) {
+        // Beyond the table; never the case for private keys below the modulus.
+        if (exponent.signum() < 0 || exponent.bitLength() > rows * rowBits) return base.modPow(exponent, modulus);
+
+        final int[] e = toLimbs(exponent, (rows * rowBits + 31) / 32);
+        final int[] r = montOne.clone();
+        final int[] t = new int[n + 1];
+        boolean started = false;
+        for (int k = columnBits - 1; k >= 0; k--) {
+            if (started) montMultiply(r, r, t, r);
+            for (int j = columns - 1; j >= 0; j--) {
+                final int offset = j * columnBits + k;
+                if (offset >= rowBits) continue;
+                int set = 0;
+                for (int i = 0; i < rows; i++) {
+                    final int bit = i * rowBits + offset;
+                    set |= ((e[bit >>> 5] >>> (bit & 31)) & 1) << i;
+                }
+                if (set != 0) {
+                    montMultiply(r, table[j][set], t, r);
+                    started = true;
+                }
+            }
+        }
+
+        // Out of Montgomery form.
+        final int[] one = new int[n];
+        one[0] = 1;
+        montMultiply(r, one, t, r);
+        return fromLimbs(r);
+    }
+
+    private int[][][] buildTable() {
+        // base^(2^(i * rowBits + j * columnBits)) for every row i and column j, by repeated squaring.
+        final int[][][] starts = new int[rows][columns][];
+        final int[] t = new int[n + 1];
+        final int[] power = toLimbs(base.shiftLeft(32 * n).mod(modulus), n);
+        for (int bit = 0; bit < rows * rowBits; bit++) {
+            final int offset = bit % rowBits;
+            if (offset % columnBits == 0) starts[bit / rowBits][offset / columnBits] = power.clone();
+            montMultiply(power, power, t, power);
+        }
+
+        final int[][][] table = new int[columns][1 << rows][];
+        for (int j = 0; j < columns; j++) {
+            table[j][0] = montOne;
+            for (int set = 1; set < 1 << rows; set++) {
+                final int[] start = starts[Integer.numberOfTrailingZeros(set)][j];
+                if (start == null) continue;
+                final int[] entry = new int[n];
+                montMultiply(table[j][set & (set - 1)], start, t, entry);
+                table[j][set] = entry;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Montgomery multiplication, a * b / R mod p, with the reduction interleaved with the multiplication limb by limb.
+     * The output may be either input.
+     *
+     * @param t Scratch space of n + 1 limbs.
+     */
+    private void montMultiply(int[] a, int[] b, int[] t, int[] out) {
+        final int n = this.n;
+        final int[] p = this.p;
+        final long p0 = p[0] & MASK;
+        final long a0 = a[0] & MASK;
+        Arrays.fill(t, 0);
+        for (int i = 0; i < n; i++) {
+            final long bi = b[i] & MASK;
+            // t + a * bi + m * p, where m makes the lowest limb zero so that it can be shifted out.
+            long c = (t[0] & MASK) + a0 * bi;
+            final long m = ((int) c * pInv) & MASK;
+            long d = ((c & MASK) + m * p0) >>> 32;
+            c >>>= 32;
+            for (int j = 1; j < n; j++) {
+                c += (t[j] & MASK) + (a[j] & MASK) * bi;
+                d += (c & MASK) + m * (p[j] & MASK);
+                t[j - 1] = (int) d;
+                c >>>= 32;
+                d >>>= 32;
+            }
+            c += t[n] & MASK;
+            d += c & MASK;
+            t[n - 1] = (int) d;
+            t[n] = (int) ((c >>> 32) + (d >>> 32));
+        }
+
+        // Below 2p, so at most one subtraction.
+        if (t[n] != 0 || compare(t, p, n) >= 0) {
+            long borrow = 0;
+            for (int j = 0; j < n; j++) {
+                borrow = (t[j] & MASK) - (p[j] & MASK) + borrow;
+                t[j] = (int) borrow;
+                borrow >>= 32;
+            }
+        }
+        System.arraycopy(t, 0, out, 0, n);
+    }
+
+    private static int compare(int[] a, int[] b, int n) {
+        for (int j = n - 1; j >= 0; j--) {
+            if (a[j] != b[j]) return (a[j] & MASK) < (b[j] & MASK) ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * @return The inverse of an odd number modulo 2^32, by Newton's iteration.
+     */
+    private static int inverse(int x) {
+        int y = x;
+        for (int i = 0; i < 5; i++) y *= 2 - x * y;
+        return y;
+    }
+
+    private static int[] toLimbs(BigInteger x, int words) {
+        final byte[] bytes = x.toByteArray();
+        final int[] limbs = new int[words];
+        for (int i = 0; i < bytes.length && i < words * 4; i++) {
+            limbs[i >>> 2] |= (bytes[bytes.length - 1 - i] & 0xFF) << ((i & 3) * 8);
+        }
+        return limbs;
+    }
+
+    private static BigInteger fromLimbs(int[] limbs) {
+        final byte[] bytes = new byte[limbs.length * 4];
+        for (int i = 0; i < limbs.length; i++) {
+            final int limb = limbs[i];
+            final int at = bytes.length - 4 * (i + 1);
+            bytes[at] = (byte) (limb >>> 24);
+            bytes[at + 1] = (byte) (limb >>> 16);
+            bytes[at + 2] = (byte) (limb >>> 8);
+            bytes[at + 3] = (byte) limb;
+        }
+        return new BigInteger(1, bytes);
+    }
+
+}
@@ -0,0 +1,68 @@
+package io.mx51.spi.util;
+
+/**
+ * Hex codec working on caller-supplied buffers, so that hot paths can encode and decode without intermediate copies.
+ * Encodes to upper case and decodes either case.
+ */
+public final class Hex {
+
+    private static final char[] ALPHABET = "0123456789ABCDEF".toCharArray();
+    private static final byte[] DIGITS = new byte[128];
+
+    static {
+        for (int i = 0; i < DIGITS.length; i++) DIGITS[i] = -1;
+        for (int i = 0; i < 10; i++) DIGITS['0' + i] = (byte) i;
+        for (int i = 0; i < 6; i++) {
+            DIGITS['A' + i] = (byte) (10 + i);
+            DIGITS['a' + i] = (byte) (10 + i);
+        }
+    }
+
+    private Hex() {
+    }
+
+    /**
+     * Encodes bytes as hex into {@code out}, which must have room for {@code 2 * len} chars.
+     */
+    public static void encode(byte[] bytes, int off, int len, char[] out) {
+        for (int i = 0, j = 0; i < len; i++) {
+            final int v = bytes[off + i] & 0xFF;
+            out[j++] = ALPHABET[v >>> 4];
+            out[j++] = ALPHABET[v & 0x0F];
+        }
+    }
+
+    /**
+     * @return The hex encoding of all of {@code bytes}.
+     */
+    public static String encode(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        encode(bytes, 0, bytes.length, chars);
+        return new String(chars);
+    }
+
+    /**
+     * Decodes hex into {@code out}, which must have room for {@code hex.length() / 2} bytes.
+     *
+     * @return The number of bytes written, or -1 if the input has an odd length or a character that is not a hex
+     * digit. The contents of {@code out} are undefined in that case.
+     */
+    public static int decode(CharSequence hex, byte[] out) {
+        final int len = hex.length();
+        if ((len & 1) != 0) return -1;
+
+        int invalid = 0;
+        for (int i = 0, j = 0; i < len; i += 2, j++) {
+            final int hi = digit(hex.charAt(i));
+            final int lo = digit(hex.charAt(i + 1));
+            invalid |= hi | lo;
+            out[j] = (byte) ((hi << 4) | lo);
+        }
+        return invalid < 0 ? -1 : len / 2;
+    }
+
+    private static int digit(char c) {
+        return c < DIGITS.length ? DIGITS[c] : -1;
+    }
+
+}
@@ -0,0 +1,98 @@
+package io.mx51.spi.util;
+
+import java.math.BigInteger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Diffie-Hellman key pairs generated ahead of time, so that answering a key request only needs the shared secrets.
+ * <p>
+ * Each pair is handed out once. The pool is refilled in the background on the executor last given to
+ * {@link #fill(Executor)}; when it is empty, pairs are generated on the spot as before.
+ */
+final class KeyPairPool {
+
+    private final BigInteger p;
+    private final BigInteger g;
+    private final int capacity;
+    private final ConcurrentLinkedQueue<KeyPair> pairs = new ConcurrentLinkedQueue<KeyPair>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean filling = new AtomicBoolean();
+    private volatile Executor executor;
+
+    KeyPairPool(BigInteger p, BigInteger g, int capacity) {
+        this.p = p;
+        this.g = g;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return An unused key pair, from the pool if it has one. Taking one tops the pool up in the background.
+     */
+    KeyPair take() {
+        final KeyPair pair = pairs.poll();
+        if (pair != null) size.decrementAndGet();
+        final Executor executor = this.executor;
+        if (executor != null) fill(executor);
+        return pair != null ? pair : generate();
+    }
+
+    /**
+     * Tops the pool up on the given executor, which is also used for later refills. Does nothing if the pool is full or
+     * already being filled.
+     */
+    void fill(Executor executor) {
+        this.executor = executor;
+        if (size.get() >= capacity || !filling.compareAndSet(false, true)) return;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (size.get() < capacity) {
+                            pairs.add(generate());
+                            size.incrementAndGet();
+                        }
+                    } finally {
+                        filling.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down; pairs are generated on demand instead.
+            filling.set(false);
+        }
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    private KeyPair generate() {
+        final BigInteger privateKey = DiffieHellman.randomPrivateKey(p);
+        return new KeyPair(privateKey, DiffieHellman.publicKey(p, g, privateKey));
+    }
+
+    static final class KeyPair {
+
+        private final BigInteger privateKey;
+        private final BigInteger publicKey;
+
+        KeyPair(BigInteger privateKey, BigInteger publicKey) {
+            this.privateKey = privateKey;
+            this.publicKey = publicKey;
+        }
+
+        BigInteger getPrivateKey() {
+            return privateKey;
+        }
+
+        BigInteger getPublicKey() {
+            return publicKey;
+        }
+    }
+
+}
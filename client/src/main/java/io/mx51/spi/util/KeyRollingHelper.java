@@ -15,14 +15,29 @@ public final class KeyRollingHelper {
     }
 
     public static KeyRollingResult performKeyRolling(Message krRequest, Secrets currentSecrets) {
+        return confirmKeyRolling(krRequest, nextSecrets(currentSecrets));
+    }
+
+    /**
+     * Like {@link #performKeyRolling(Message, Secrets)}, with the new secrets already calculated.
+     *
+     * @param newSecrets The {@link #nextSecrets(Secrets)} of the current ones.
+     */
+    public static KeyRollingResult confirmKeyRolling(Message krRequest, Secrets newSecrets) {
         final Map<String, Object> data = new HashMap<String, Object>();
         data.put("status", "confirmed");
         final Message m = new Message(krRequest.getId(), Events.KEY_ROLL_RESPONSE, data, true);
+        return new KeyRollingResult(m, newSecrets);
+    }
+
+    /**
+     * @return The secrets that replace the given ones when the terminal rolls the keys: each key hashed with SHA-256.
+     */
+    public static Secrets nextSecrets(Secrets currentSecrets) {
         final MessageDigest digest = DigestUtils.getSha256Digest();
-        final Secrets newSecrets = new Secrets(
+        return new Secrets(
                 Crypto.byteArrayToHexString(digest.digest(Crypto.hexStringToByteArray(currentSecrets.getEncKey()))),
                 Crypto.byteArrayToHexString(digest.digest(Crypto.hexStringToByteArray(currentSecrets.getHmacKey()))));
-        return new KeyRollingResult(m, newSecrets);
     }
 
 }
@@ -3,9 +3,11 @@ package io.mx51.spi.util;
 import io.mx51.spi.model.*;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
 
 import java.math.BigInteger;
 import java.security.MessageDigest;
+import java.util.concurrent.Executor;
 
 /**
  * This static class helps you with the pairing process as documented here:
@@ -13,6 +15,10 @@ import java.security.MessageDigest;
  */
 public final class PairingHelper {
 
+    // A key request takes two pairs, one for encryption and one for signing.
+    private static final int KEY_PAIR_POOL_SIZE = 4;
+    private static final KeyPairPool KEY_PAIRS = new KeyPairPool(DiffieHellman.MODP_2048_P, DiffieHellman.MODP_2048_G, KEY_PAIR_POOL_SIZE);
+
     private PairingHelper() {
     }
 
@@ -25,6 +31,16 @@ public final class PairingHelper {
         return new PairRequest();
     }
 
+    /**
+     * Starts generating key pairs for the next pairing in the background, so that the key request can be answered
+     * sooner. Pairs used up later are replaced on the same executor.
+     *
+     * @param executor Where to do the work, which takes some tens of milliseconds per pair.
+     */
+    public static void prepareKeyPairs(@NotNull Executor executor) {
+        KEY_PAIRS.fill(executor);
+    }
+
     /**
      * Calculates/generates {@link Secrets} and {@link KeyResponse} given an incoming {@link KeyRequest}.
      *
@@ -53,17 +69,11 @@ public final class PairingHelper {
      * @return Your B value and the secret.
      */
     private static PublicKeyAndSecret calculateMyPublicKeyAndSecret(String theirPublicKey) {
-        // SPI uses the 2048-bit MODP Group as the shared constants for the DH algorithm
-        // https://tools.ietf.org/html/rfc3526#section-3
-        final BigInteger modp2048P = new BigInteger("32317006071311007300338913926423828248817941241140239112842009751400741706634354222619689417363569347117901737909704191754605873209195028853758986185622153212175412514901774520270235796078236248884246189477587641105928646099411723245426622522193230540919037680524235519125679715870117001058055877651038861847280257976054903569732561526167081339361799541336476559160368317896729073178384589680639671900977202194168647225871031411336429319536193471636533209717077448227988588565369208645296636077250268955505928362751121174096972998068410554359584866583291642136218231078990999448652468262416972035911852507045361090559");
-        final BigInteger modp2048G = BigInteger.valueOf(2);
-
         final BigInteger theirPublicBI = spiAHexStringToBigInteger(theirPublicKey);
-        final BigInteger myPrivateBI = DiffieHellman.randomPrivateKey(modp2048P);
-        final BigInteger myPublicBI = DiffieHellman.publicKey(modp2048P, modp2048G, myPrivateBI);
-        final BigInteger secretBI = DiffieHellman.secret(modp2048P, theirPublicBI, myPrivateBI);
+        final KeyPairPool.KeyPair myKeyPair = KEY_PAIRS.take();
+        final BigInteger secretBI = DiffieHellman.secret(DiffieHellman.MODP_2048_P, theirPublicBI, myKeyPair.getPrivateKey());
 
-        final String myPublic = myPublicBI.toString(16).toUpperCase();
+        final String myPublic = myKeyPair.getPublicKey().toString(16).toUpperCase();
         final String secret = dhSecretToSPISecret(secretBI);
 
         return new PublicKeyAndSecret(myPublic, secret);
@@ -10,6 +10,46 @@ public final class RandomHelper {
     private RandomHelper() {
     }
 
+    /**
+     * Generates a uniformly distributed random number of at most the given number of bits, from whole random bytes
+     * with the excess high bits masked off.
+     *
+     * @param bitLength Number of random bits.
+     * @return Random number in the range [0, 2^bitLength).
+     */
+    public static BigInteger randomBigInt(int bitLength) {
+        if (bitLength < 0) throw new IllegalArgumentException("bitLength must not be negative");
+        return new BigInteger(1, randomBytes(bitLength, new byte[(bitLength + 7) / 8]));
+    }
+
+    /**
+     * Generates a uniformly distributed random number below a bound, by rejection sampling: numbers of the bound's bit
+     * length are drawn until one is below it, which on average takes fewer than two draws.
+     *
+     * @param bound Exclusive upper bound, which must be positive.
+     * @return Random number in the range [0, bound).
+     */
+    public static BigInteger randomBigIntBelow(BigInteger bound) {
+        if (bound.signum() <= 0) throw new IllegalArgumentException("bound must be positive");
+        final int bitLength = bound.bitLength();
+        final byte[] bytes = new byte[(bitLength + 7) / 8];
+        BigInteger randBigInt;
+        do {
+            randBigInt = new BigInteger(1, randomBytes(bitLength, bytes));
+        } while (randBigInt.compareTo(bound) >= 0);
+        return randBigInt;
+    }
+
+    /**
+     * Fills the big-endian bytes with random bits, keeping only the low {@code bitLength} of them.
+     */
+    private static byte[] randomBytes(int bitLength, byte[] bytes) {
+        RANDOM_GEN.nextBytes(bytes);
+        final int excessBits = bytes.length * 8 - bitLength;
+        if (bytes.length > 0) bytes[0] &= (byte) (0xFF >>> excessBits);
+        return bytes;
+    }
+
     public static BigInteger randomBigIntMethod1(BigInteger max) {
         // The below code is a technique to generate random positive big integer up to max.
         // You can use different techniques to generate such random number, but be careful
@@ -0,0 +1,324 @@
+package io.mx51.spi.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formats and parses the date layouts used in SPI messages, without creating a {@link SimpleDateFormat} per call.
+ * <p>
+ * Times are in the JVM's default time zone, as with {@link SimpleDateFormat}. Each thread keeps its own copy of the
+ * zone, read again once a minute, and the formatted text of the last second. Parsing handles the common shapes of each
+ * layout directly. Anything else, such as out-of-range fields, years outside 1900-9999, text that is not exactly the
+ * layout's length, or times near a daylight saving change, falls back to a lenient {@link SimpleDateFormat}, so
+ * results are always the same as before.
+ */
+public final class TimestampCodec {
+
+    /**
+     * The layouts that SPI messages use.
+     */
+    public enum Layout {
+        /** {@code 2019-06-14T16:09:46.395}, the message timestamp. */
+        DATE_TIME("yyyy-MM-dd'T'HH:mm:ss.SSS"),
+        /** {@code 05:0005Oct17}, a settlement period time followed by its date. */
+        TIME_SHORT_DATE("HH:mmddMMMyy"),
+        /** {@code 05:00:4505Oct17}, a settlement trigger time followed by its date. */
+        TIME_SECONDS_SHORT_DATE("HH:mm:ssddMMMyy"),
+        /** {@code 20042018}, a bank date. */
+        BANK_DATE("ddMMyyyy"),
+        /** {@code 20042018160940}, a bank date and time. */
+        BANK_DATE_TIME("ddMMyyyyHHmmss");
+
+        private final String pattern;
+        private final char[] fields;
+        private final int length;
+
+        Layout(String pattern) {
+            this.pattern = pattern;
+            this.fields = compile(pattern);
+            this.length = fields.length;
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+    }
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long ZONE_REFRESH_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final String[] MONTHS = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+
+    private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    private TimestampCodec() {
+    }
+
+    /**
+     * @return {@code millis} in the {@link Layout#DATE_TIME} layout, in the default time zone.
+     */
+    public static String formatDateTime(long millis) {
+        final State state = STATE.get();
+        return formatDateTime(millis, state.zone(), state);
+    }
+
+    /**
+     * @return {@code millis} in the {@link Layout#DATE_TIME} layout, in the given time zone.
+     */
+    public static String formatDateTime(long millis, TimeZone zone) {
+        return formatDateTime(millis, zone, STATE.get());
+    }
+
+    /**
+     * Parses text in the default time zone.
+     *
+     * @return The time in epoch milliseconds.
+     * @throws ParseException If {@link SimpleDateFormat} would not parse the text either.
+     */
+    public static long parse(String text, Layout layout) throws ParseException {
+        return parse(text, layout, STATE.get().zone());
+    }
+
+    /**
+     * Parses text in the given time zone.
+     *
+     * @return The time in epoch milliseconds.
+     * @throws ParseException If {@link SimpleDateFormat} would not parse the text either.
+     */
+    public static long parse(String text, Layout layout, TimeZone zone) throws ParseException {
+        if (text.isEmpty()) throw new ParseException("Unparseable date: \"\"", 0);
+
+        final long millis = text.length() == layout.length ? parseExactly(text, layout.fields, zone) : Long.MIN_VALUE;
+        if (millis != Long.MIN_VALUE) return millis;
+
+        final SimpleDateFormat format = new SimpleDateFormat(layout.pattern, Locale.US);
+        format.setTimeZone(zone);
+        return format.parse(text).getTime();
+    }
+
+    private static String formatDateTime(long millis, TimeZone zone, State state) {
+        final long local = millis + zone.getOffset(millis);
+        final long second = floorDiv(local, 1000);
+        final char[] chars = state.chars;
+        if (second != state.second) {
+            // Everything up to the milliseconds only changes once a second.
+            final long days = floorDiv(local, DAY_MILLIS);
+            final int[] date = civil(days, state.date);
+            if (date[0] < 1900 || date[0] > 9999) {
+                final SimpleDateFormat format = new SimpleDateFormat(Layout.DATE_TIME.pattern, Locale.US);
+                format.setTimeZone(zone);
+                return format.format(new Date(millis));
+            }
+            final int secondOfDay = (int) (second - days * 86400);
+            put(chars, 0, date[0], 4);
+            chars[4] = '-';
+            put(chars, 5, date[1], 2);
+            chars[7] = '-';
+            put(chars, 8, date[2], 2);
+            chars[10] = 'T';
+            put(chars, 11, secondOfDay / 3600, 2);
+            chars[13] = ':';
+            put(chars, 14, secondOfDay / 60 % 60, 2);
+            chars[16] = ':';
+            put(chars, 17, secondOfDay % 60, 2);
+            chars[19] = '.';
+            state.second = second;
+        }
+        put(chars, 20, (int) (local - second * 1000), 3);
+        return new String(chars, 0, chars.length);
+    }
+
+    /**
+     * @return The time, or {@link Long#MIN_VALUE} if the text is not a plain instance of the layout.
+     */
+    private static long parseExactly(String text, char[] fields, TimeZone zone) {
+        int year = -1;
+        int twoDigitYear = -1;
+        int month = 1;
+        int day = 1;
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        int millis = 0;
+
+        for (int i = 0; i < fields.length; ) {
+            final char field = fields[i];
+            final boolean isField = "yMdHmsS".indexOf(field) >= 0;
+            int width = 1;
+            while (isField && i + width < fields.length && fields[i + width] == field) width++;
+
+            if (field == 'M' && width == 3) {
+                month = month(text, i);
+            } else if (isField) {
+                final int value = digits(text, i, width);
+                switch (field) {
+                    case 'y':
+                        if (width == 2) twoDigitYear = value;
+                        else year = value;
+                        break;
+                    case 'M':
+                        month = value;
+                        break;
+                    case 'd':
+                        day = value;
+                        break;
+                    case 'H':
+                        hour = value;
+                        break;
+                    case 'm':
+                        minute = value;
+                        break;
+                    case 's':
+                        second = value;
+                        break;
+                    default:
+                        millis = value;
+                }
+                if (value < 0) return Long.MIN_VALUE;
+            } else if (text.charAt(i) != field) {
+                return Long.MIN_VALUE;
+            }
+            if (month < 0) return Long.MIN_VALUE;
+            i += width;
+        }
+
+        if (twoDigitYear >= 0) {
+            // SimpleDateFormat puts two-digit years within 80 years before and 20 after now.
+            final long now = System.currentTimeMillis();
+            final int centuryStart = civil(floorDiv(now + zone.getOffset(now), DAY_MILLIS), new int[3])[0] - 80;
+            // On the boundary it compares whole dates; leave that to SimpleDateFormat.
+            if (twoDigitYear == centuryStart % 100) return Long.MIN_VALUE;
+            year = centuryStart / 100 * 100 + twoDigitYear + (twoDigitYear < centuryStart % 100 ? 100 : 0);
+        }
+
+        if (year < 1900 || year > 9999 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+
+        final long local = days(year, month, day) * DAY_MILLIS + ((hour * 60L + minute) * 60 + second) * 1000 + millis;
+        // Away from a daylight saving change the offset is the same a day either side, and there is only one answer.
+        final long approximate = local - zone.getRawOffset();
+        final int offset = zone.getOffset(approximate - DAY_MILLIS);
+        if (offset != zone.getOffset(approximate + DAY_MILLIS)) return Long.MIN_VALUE;
+        return local - offset;
+    }
+
+    /**
+     * @return The value of {@code width} ASCII digits, or -1 if they are not all digits.
+     */
+    private static int digits(String text, int start, int width) {
+        int value = 0;
+        for (int i = start; i < start + width; i++) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return The month of a three-letter English abbreviation in any case, or -1.
+     */
+    private static int month(String text, int start) {
+        for (int m = 0; m < MONTHS.length; m++) {
+            if (text.regionMatches(true, start, MONTHS[m], 0, 3)) return m + 1;
+        }
+        return -1;
+    }
+
+    private static void put(char[] chars, int start, int value, int width) {
+        for (int i = start + width - 1; i >= start; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * @return The pattern with each character standing for one character of text: a field letter, or a literal.
+     */
+    private static char[] compile(String pattern) {
+        final StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else {
+                sb.append(c);
+            }
+        }
+        final char[] fields = new char[sb.length()];
+        sb.getChars(0, fields.length, fields, 0);
+        return fields;
+    }
+
+    // Proleptic Gregorian calendar arithmetic, which matches GregorianCalendar from 1900 on.
+
+    private static long days(int year, int month, int day) {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = y / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    /**
+     * @return Year, month and day of the epoch day, in {@code date}.
+     */
+    private static int[] civil(long epochDay, int[] date) {
+        final long z = epochDay + 719468;
+        final long era = floorDiv(z, 146097);
+        final int dayOfEra = (int) (z - era * 146097);
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int mp = (5 * dayOfYear + 2) / 153;
+        final int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        final int month = mp < 10 ? mp + 3 : mp - 9;
+        final int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+        date[0] = year;
+        date[1] = month;
+        date[2] = day;
+        return date;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    private static long floorDiv(long x, long y) {
+        final long q = x / y;
+        return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+    }
+
+    private static final class State {
+        private final char[] chars = new char[23];
+        private final int[] date = new int[3];
+        private long second = Long.MIN_VALUE;
+        private TimeZone zone;
+        private long zoneReadAt;
+
+        /**
+         * {@link TimeZone#getDefault()} returns a copy each time, so it is only read again once a minute.
+         */
+        TimeZone zone() {
+            final long now = System.nanoTime();
+            if (zone == null || now - zoneReadAt > ZONE_REFRESH_NANOS) {
+                zone = TimeZone.getDefault();
+                zoneReadAt = now;
+            }
+            return zone;
+        }
+    }
+
+}
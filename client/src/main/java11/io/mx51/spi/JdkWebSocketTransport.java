@@ -0,0 +1,167 @@
+package io.mx51.spi;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Transport} built on {@link java.net.http.WebSocket}.
+ * <p>
+ * Only available on Java 11 and later; obtain it through {@link TransportContext#newJdkWebSocketTransport()}.
+ */
+public final class JdkWebSocketTransport implements Transport {
+
+    private final HttpClient client;
+
+    public JdkWebSocketTransport() {
+        this(HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(TransportContext.WEB_SOCKET_CONNECT_TIMEOUT))
+                .build());
+    }
+
+    /**
+     * @param client Client used to open the sockets. Its connect timeout applies to every socket.
+     */
+    public JdkWebSocketTransport(@NotNull HttpClient client) {
+        this.client = client;
+    }
+
+    @NotNull
+    @Override
+    public Socket connect(@NotNull String url, @NotNull String subProtocol, @NotNull Listener listener) {
+        final JdkSocket socket = new JdkSocket(listener);
+        client.newWebSocketBuilder()
+                .subprotocols(subProtocol)
+                .buildAsync(URI.create(url), socket)
+                .whenComplete((webSocket, t) -> {
+                    if (t != null) socket.fail(t);
+                });
+        return socket;
+    }
+
+    private static final class JdkSocket implements Socket, WebSocket.Listener {
+
+        private final Listener listener;
+        private final AtomicLong queueSize = new AtomicLong();
+        private final StringBuilder partial = new StringBuilder();
+
+        private volatile WebSocket webSocket;
+        private volatile boolean finished;
+        // WebSocket allows only one outstanding send, so each one is chained onto the previous. The chain never
+        // completes exceptionally, so a failed send cannot silently drop the ones queued behind it.
+        private CompletableFuture<?> lastSend = CompletableFuture.completedFuture(null);
+
+        JdkSocket(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean send(@NotNull String text) {
+            final WebSocket webSocket = this.webSocket;
+            if (webSocket == null || finished || webSocket.isOutputClosed()) return false;
+
+            final long size = OutboundQueue.utf8Length(text);
+            queueSize.addAndGet(size);
+            synchronized (this) {
+                lastSend = lastSend
+                        .thenCompose(ignored -> webSocket.sendText(text, true))
+                        .handle((ignored, t) -> {
+                            queueSize.addAndGet(-size);
+                            if (t != null) {
+                                // The socket is no use once a send has failed; later sends are refused.
+                                fail(t);
+                                webSocket.abort();
+                            }
+                            return null;
+                        });
+            }
+            return true;
+        }
+
+        @Override
+        public long queueSize() {
+            return queueSize.get();
+        }
+
+        @Override
+        public void close(int code) {
+            final WebSocket webSocket = this.webSocket;
+            if (webSocket != null && !webSocket.isOutputClosed()) {
+                webSocket.sendClose(code, "");
+            }
+        }
+
+        @Override
+        public void cancel() {
+            finished = true;
+            final WebSocket webSocket = this.webSocket;
+            if (webSocket != null) {
+                webSocket.abort();
+            }
+        }
+
+        @Override
+        public void onOpen(WebSocket webSocket) {
+            this.webSocket = webSocket;
+            listener.onOpen(this);
+            webSocket.request(1);
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            if (!last) {
+                partial.append(data);
+            } else if (partial.length() == 0) {
+                listener.onMessage(data.toString());
+            } else {
+                partial.append(data);
+                final String text = partial.toString();
+                partial.setLength(0);
+                listener.onMessage(text);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            if (!webSocket.isOutputClosed()) {
+                webSocket.sendClose(statusCode, "");
+            }
+            if (!finished) {
+                finished = true;
+                listener.onClosed();
+            }
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            fail(error);
+        }
+
+        void fail(Throwable t) {
+            if (finished) return;
+            finished = true;
+            if (t instanceof CompletionException && t.getCause() != null) {
+                t = t.getCause();
+            }
+            if (t instanceof HttpTimeoutException) {
+                final SocketTimeoutException timeout = new SocketTimeoutException(t.getMessage());
+                timeout.initCause(t);
+                t = timeout;
+            }
+            listener.onFailure(t);
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package io.mx51.spi;
+
+import io.mx51.spi.model.Secrets;
+import io.mx51.spi.util.Crypto;
+import io.mx51.spi.util.CryptoContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.crypto.BadPaddingException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class CryptoContextTest {
+
+    private static final String ENC_KEY = "81CF9E6A14CDAF244A30B298D4CECB505C730CE352C6AF6E1DE61B3232E24D3F";
+    private static final String HMAC_KEY = "D35060723C9EECDB8AEA019581381CB08F64469FC61A5A04FE553EBDB5CD55B9";
+
+    @Test
+    public void testMatchesStaticHelpers() throws GeneralSecurityException {
+        Secrets secrets = new Secrets(ENC_KEY, HMAC_KEY);
+        CryptoContext context = secrets.getCryptoContext();
+        String message = "{\"message\":{\"event\":\"pong\",\"id\":\"ping1\"}}";
+
+        String encrypted = context.aesEncrypt(message);
+        Assert.assertEquals(Crypto.aesEncrypt(secrets.getEncKeyBytes(), message), encrypted);
+        Assert.assertEquals(Crypto.hmacSignature(secrets.getHmacKeyBytes(), encrypted), context.hmacSignature(encrypted));
+        Assert.assertEquals(message, context.aesDecrypt(encrypted));
+
+        // Reused state must give the same results on the next message.
+        Assert.assertEquals(encrypted, context.aesEncrypt(message));
+        Assert.assertEquals(message, context.aesDecrypt(encrypted));
+    }
+
+    @Test
+    public void testVerifyHmac() throws GeneralSecurityException {
+        CryptoContext context = new Secrets(ENC_KEY, HMAC_KEY).getCryptoContext();
+        String encrypted = context.aesEncrypt("hello");
+        String signature = context.hmacSignature(encrypted);
+
+        Assert.assertTrue(context.verifyHmac(encrypted, signature));
+        Assert.assertTrue(context.verifyHmac(encrypted, signature.toLowerCase()));
+        Assert.assertFalse(context.verifyHmac(encrypted + "00", signature));
+        Assert.assertFalse(context.verifyHmac(encrypted, signature.substring(2)));
+        Assert.assertFalse(context.verifyHmac(encrypted, "ZZ" + signature.substring(2)));
+        Assert.assertFalse(context.verifyHmac(encrypted, null));
+    }
+
+    @Test
+    public void testLargeMessages() throws GeneralSecurityException {
+        CryptoContext context = new Secrets(ENC_KEY, HMAC_KEY).getCryptoContext();
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 300 * 1024) sb.append("receipt line ü\n");
+        String message = sb.toString();
+
+        String encrypted = context.aesEncrypt(message);
+        Assert.assertEquals(Crypto.aesEncrypt(new Secrets(ENC_KEY, HMAC_KEY).getEncKeyBytes(), message), encrypted);
+        Assert.assertEquals(message, context.aesDecrypt(encrypted));
+        Assert.assertTrue(context.verifyHmac(encrypted, context.hmacSignature(encrypted)));
+    }
+
+    @Test
+    public void testContextIsBoundToSecrets() {
+        Secrets secrets = new Secrets(ENC_KEY, HMAC_KEY);
+        Secrets rolled = new Secrets(HMAC_KEY, ENC_KEY);
+
+        Assert.assertSame(secrets.getCryptoContext(), secrets.getCryptoContext());
+        Assert.assertNotSame(secrets.getCryptoContext(), rolled.getCryptoContext());
+        Assert.assertNotEquals(secrets.getCryptoContext().hmacSignature("x"), rolled.getCryptoContext().hmacSignature("x"));
+    }
+
+    @Test
+    public void testUsableAfterFailedDecrypt() throws GeneralSecurityException {
+        CryptoContext context = new Secrets(ENC_KEY, HMAC_KEY).getCryptoContext();
+        String encrypted = context.aesEncrypt("hello");
+        CryptoContext otherKeys = new Secrets(HMAC_KEY, ENC_KEY).getCryptoContext();
+
+        try {
+            otherKeys.aesDecrypt(encrypted);
+            Assert.fail("Expected bad padding");
+        } catch (BadPaddingException ignored) {
+        }
+
+        Assert.assertEquals("hello", context.aesDecrypt(encrypted));
+        Assert.assertEquals("hello", otherKeys.aesDecrypt(otherKeys.aesEncrypt("hello")));
+    }
+
+    @Test
+    public void testSharedAcrossThreads() throws Exception {
+        final CryptoContext context = new Secrets(ENC_KEY, HMAC_KEY).getCryptoContext();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final String message = "message from thread " + t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            Assert.assertEquals(message, context.aesDecrypt(context.aesEncrypt(message)));
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        Assert.assertNull(failure.get());
+    }
+}
@@ -100,6 +100,58 @@ public class DiffieHellmanTest {
         Assert.assertTrue(count - new HashSet<BigInteger>(privateKeys).size() < leniency);
     }
 
+    @Test
+    public void private_key_uniformly_distributed() {
+        // Keys from 2 to 21; a chi-squared test with 19 degrees of freedom, failing by chance about once in a million.
+        BigInteger primeP = BigInteger.valueOf(23);
+        int samples = 40000;
+        int[] counts = new int[23];
+        for (int i = 0; i < samples; i++) {
+            counts[DiffieHellman.randomPrivateKey(primeP).intValue()]++;
+        }
+
+        Assert.assertEquals(0, counts[0] + counts[1] + counts[22]);
+        double expected = samples / 20.0;
+        double chiSquared = 0;
+        for (int k = 2; k <= 21; k++) {
+            chiSquared += (counts[k] - expected) * (counts[k] - expected) / expected;
+        }
+        Assert.assertTrue("chi-squared " + chiSquared, chiSquared < 61.0);
+    }
+
+    @Test
+    public void random_below_bound_has_unbiased_bits() {
+        BigInteger bound = new BigInteger(
+                "32317006071311007300338913926423828248817941241140239112842009751400741706634354222619689417363569347117901737909704191754605873209195028853758986185622153212175412514901774520270235796078236248884246189477587641105928646099411723245426622522193230540919037680524235519125679715870117001058055877651038861847280257976054903569732561526167081339361799541336476559160368317896729073178384589680639671900977202194168647225871031411336429319536193471636533209717077448227988588565369208645296636077250268955505928362751121174096972998068410554359584866583291642136218231078990999448652468262416972035911852507045361090559");
+        int samples = 4000;
+        int[] ones = new int[bound.bitLength()];
+        for (int i = 0; i < samples; i++) {
+            BigInteger r = RandomHelper.randomBigIntBelow(bound);
+            Assert.assertTrue(r.signum() >= 0 && r.compareTo(bound) < 0);
+            for (int bit = 0; bit < ones.length; bit++) {
+                if (r.testBit(bit)) ones[bit]++;
+            }
+        }
+
+        // The top 64 bits of the MODP prime are all ones, so below them every bit is set half the time.
+        for (int bit = 0; bit < ones.length - 64; bit++) {
+            Assert.assertTrue("bit " + bit + " set " + ones[bit] + " times", Math.abs(ones[bit] - samples / 2) < 250);
+        }
+    }
+
+    @Test
+    public void random_of_bit_length_in_range() {
+        for (int bitLength : new int[]{0, 1, 7, 8, 9, 2047}) {
+            boolean topBitSeen = false;
+            for (int i = 0; i < 200; i++) {
+                BigInteger r = RandomHelper.randomBigInt(bitLength);
+                Assert.assertTrue(r.signum() >= 0 && r.bitLength() <= bitLength);
+                topBitSeen |= bitLength > 0 && r.testBit(bitLength - 1);
+            }
+            Assert.assertEquals(bitLength > 0, topBitSeen);
+        }
+    }
+
     @Test
     public void public_key_correctly_calculated() {
         BigInteger primeP = BigInteger.valueOf(23);
@@ -110,6 +162,34 @@ public class DiffieHellmanTest {
         Assert.assertEquals(BigInteger.valueOf(8), actual);
     }
 
+    @Test
+    public void modp_2048_public_key_same_as_mod_pow() {
+        BigInteger primeP = new BigInteger(
+                "32317006071311007300338913926423828248817941241140239112842009751400741706634354222619689417363569347117901737909704191754605873209195028853758986185622153212175412514901774520270235796078236248884246189477587641105928646099411723245426622522193230540919037680524235519125679715870117001058055877651038861847280257976054903569732561526167081339361799541336476559160368317896729073178384589680639671900977202194168647225871031411336429319536193471636533209717077448227988588565369208645296636077250268955505928362751121174096972998068410554359584866583291642136218231078990999448652468262416972035911852507045361090559");
+        BigInteger primeG = BigInteger.valueOf(2);
+
+        List<BigInteger> privateKeys = new ArrayList<BigInteger>();
+        for (int i = 0; i < 50; i++) {
+            privateKeys.add(DiffieHellman.randomPrivateKey(primeP));
+        }
+        BigInteger one = BigInteger.ONE;
+        // Edges of the table, and exponents beyond it.
+        privateKeys.add(BigInteger.ZERO);
+        privateKeys.add(one);
+        privateKeys.add(primeP.subtract(one));
+        privateKeys.add(primeP);
+        privateKeys.add(one.shiftLeft(2048).subtract(one));
+        privateKeys.add(one.shiftLeft(2048));
+        privateKeys.add(one.shiftLeft(5000).add(one));
+        for (int bit = 0; bit < 2048; bit += 97) {
+            privateKeys.add(one.shiftLeft(bit));
+        }
+
+        for (BigInteger privateKey : privateKeys) {
+            Assert.assertEquals(privateKey.toString(16), primeG.modPow(privateKey, primeP), DiffieHellman.publicKey(primeP, primeG, privateKey));
+        }
+    }
+
     @Test
     public void secret_key_correctly_calculated() {
         BigInteger primeP = BigInteger.valueOf(23);
@@ -137,6 +217,12 @@ public class DiffieHellmanTest {
 //            System.out.println(ri);
         }
         System.out.println("1000 randoms using method 2: " + (System.currentTimeMillis() - time));
+
+        time = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            BigInteger ri = RandomHelper.randomBigIntBelow(maxInt);
+        }
+        System.out.println("1000 randoms using rejection sampling: " + (System.currentTimeMillis() - time));
     }
 
 }
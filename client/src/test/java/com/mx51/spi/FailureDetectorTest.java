@@ -0,0 +1,107 @@
+package io.mx51.spi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class FailureDetectorTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testMissedPongs() {
+        // arrange
+        MissedPongsFailureDetector detector = new MissedPongsFailureDetector(2);
+        detector.connected(0);
+
+        // act
+        detector.pongMissed(5000 * MS);
+        boolean afterOne = detector.isSuspected(5000 * MS);
+        detector.heartbeat(6000 * MS);
+        detector.pongMissed(11000 * MS);
+        boolean afterHeartbeat = detector.isSuspected(11000 * MS);
+        detector.pongMissed(16000 * MS);
+
+        // assert
+        Assert.assertFalse(afterOne);
+        Assert.assertFalse(afterHeartbeat);
+        Assert.assertTrue(detector.isSuspected(16000 * MS));
+        Assert.assertEquals(0, detector.getCheckIntervalMillis());
+    }
+
+    @Test
+    public void testPhiGrowsWithSilence() {
+        // arrange
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector();
+        detector.connected(0);
+        long t = 0;
+        for (int i = 0; i < 50; i++) {
+            t += (i % 2 == 0 ? 950 : 1050) * MS;
+            detector.heartbeat(t);
+        }
+
+        // act
+        double onTime = detector.phi(t + 1000 * MS);
+        double late = detector.phi(t + 1300 * MS);
+        double later = detector.phi(t + 1600 * MS);
+
+        // assert
+        Assert.assertTrue(onTime < 1);
+        Assert.assertTrue(late > onTime);
+        Assert.assertTrue(later > late);
+        Assert.assertFalse(detector.isSuspected(t + 1200 * MS));
+        Assert.assertTrue(detector.isSuspected(t + 2000 * MS));
+    }
+
+    @Test
+    public void testPhiFollowsIntervals() {
+        // arrange
+        PhiAccrualFailureDetector fast = new PhiAccrualFailureDetector();
+        PhiAccrualFailureDetector slow = new PhiAccrualFailureDetector();
+        fast.connected(0);
+        slow.connected(0);
+        for (int i = 1; i <= 100; i++) {
+            fast.heartbeat(i * 1000 * MS);
+            slow.heartbeat(i * 10000 * MS);
+        }
+
+        // act
+        boolean fastSuspected = fast.isSuspected(100 * 1000 * MS + 3000 * MS);
+        boolean slowSuspected = slow.isSuspected(100 * 10000 * MS + 3000 * MS);
+
+        // assert
+        Assert.assertTrue(fastSuspected);
+        Assert.assertFalse(slowSuspected);
+    }
+
+    @Test
+    public void testPhiIgnoresTimeSpentReconnecting() {
+        // arrange
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector();
+        detector.connected(0);
+        for (int i = 1; i <= 20; i++) {
+            detector.heartbeat(i * 1000 * MS);
+        }
+
+        // act
+        detector.connected(60000 * MS);
+        detector.heartbeat(61000 * MS);
+
+        // assert
+        Assert.assertFalse(detector.isSuspected(62000 * MS));
+        Assert.assertTrue(detector.isSuspected(64000 * MS));
+    }
+
+    @Test
+    public void testPhiZeroBeforeConnecting() {
+        // arrange
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector();
+
+        // act
+        double phi = detector.phi(1000000 * MS);
+
+        // assert
+        Assert.assertEquals(0, phi, 0);
+    }
+}
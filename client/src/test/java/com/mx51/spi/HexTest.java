@@ -0,0 +1,46 @@
+package io.mx51.spi;
+
+import io.mx51.spi.util.Crypto;
+import io.mx51.spi.util.Hex;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HexTest {
+
+    @Test
+    public void testRoundTrip() {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) i;
+
+        String hex = Hex.encode(bytes);
+        Assert.assertEquals(Crypto.byteArrayToHexString(bytes), hex);
+
+        byte[] decoded = new byte[bytes.length + 10];
+        Assert.assertEquals(bytes.length, Hex.decode(hex, decoded));
+        for (int i = 0; i < bytes.length; i++) Assert.assertEquals(bytes[i], decoded[i]);
+        Assert.assertArrayEquals(Crypto.hexStringToByteArray(hex), bytes);
+    }
+
+    @Test
+    public void testDecodeIntoBufferFromCharSequence() {
+        byte[] out = new byte[3];
+        Assert.assertEquals(3, Hex.decode(new StringBuilder("0aFf10"), out));
+        Assert.assertArrayEquals(new byte[]{0x0A, (byte) 0xFF, 0x10}, out);
+    }
+
+    @Test
+    public void testEncodeIntoBuffer() {
+        char[] out = new char[6];
+        Hex.encode(new byte[]{0x00, 0x01, (byte) 0xAB, 0x02}, 1, 2, out);
+        Assert.assertEquals("01AB", new String(out, 0, 4));
+    }
+
+    @Test
+    public void testDecodeRejectsInvalidInput() {
+        byte[] out = new byte[4];
+        Assert.assertEquals(-1, Hex.decode("ABC", out));
+        Assert.assertEquals(-1, Hex.decode("0G", out));
+        Assert.assertEquals(-1, Hex.decode("é0", out));
+        Assert.assertEquals(0, Hex.decode("", out));
+    }
+}
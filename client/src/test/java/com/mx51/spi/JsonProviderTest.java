@@ -0,0 +1,111 @@
+package io.mx51.spi;
+
+import io.mx51.spi.model.JsonProvider;
+import io.mx51.spi.model.Message;
+import io.mx51.spi.model.MessageEnvelope;
+import io.mx51.spi.model.PaymentHistoryEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class JsonProviderTest {
+
+    @Test
+    public void testJacksonIsDefaultWhenOnClasspath() {
+        Assert.assertNotNull(JsonProvider.jackson());
+        Assert.assertSame(JsonProvider.jackson(), JsonProvider.getDefault());
+        Assert.assertEquals("gson", JsonProvider.gson().getName());
+    }
+
+    @Test
+    public void testBackendsReadDataAlike() throws Exception {
+        String[] slices = {
+                "{}",
+                "{\"a\":1,\"b\":-2.5,\"c\":1e3,\"d\":9007199254740993,\"e\":12345678901234567890,\"f\":-0}",
+                "{\"s\":\"x\\\"y\\u00e9\\n\",\"t\":true,\"u\":false,\"n\":null,\"l\":[1,\"2\",null,[],{}],\"o\":{\"k\":1,\"k\":2}}",
+                // Bare words and leading zeros are not JSON, but Gson reads them leniently.
+                "{\"a\":word,\"b\":01,\"c\":[NaN]}"
+        };
+        for (String slice : slices) {
+            String json = "{\"message\":{\"data\":" + slice + "}}";
+            Assert.assertEquals(slice, readData(JsonProvider.gson(), json), readData(JsonProvider.jackson(), json));
+        }
+    }
+
+    @Test
+    public void testBackendsWriteAlike() throws Exception {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("inner", Arrays.asList(1, null, "<b>", 2.5f));
+        nested.put("absent", null);
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("text", "quote \" slash \\ tab \t ctrl \u0001 html <>&=' separators \u2028\u2029 accents \u00e9 emoji \ud83d\ude00");
+        data.put("<key>", true);
+        data.put("double", 1000.0);
+        data.put("int", 1000);
+        data.put("long", 9007199254740993L);
+        data.put("decimal", new BigDecimal("12.50"));
+        data.put("nested", nested);
+        data.put("history", Collections.singletonList(new PaymentHistoryEntry("table1", null)));
+        data.put("empty", Collections.emptyList());
+        data.put("missing", null);
+        Message m = new Message("id1", "event", data, false);
+
+        String gson = encodeEnvelope(JsonProvider.gson(), new MessageEnvelope(m, "enc", "hmac"));
+        String jackson = encodeEnvelope(JsonProvider.jackson(), new MessageEnvelope(m, "enc", "hmac"));
+
+        Assert.assertEquals(gson, jackson);
+        Assert.assertTrue(jackson.contains("\\u003cb\\u003e"));
+    }
+
+    @Test
+    public void testBackendsRejectNaN() throws Exception {
+        for (JsonProvider provider : Arrays.asList(JsonProvider.gson(), JsonProvider.jackson())) {
+            Message m = new Message("id1", "event", Collections.<String, Object>singletonMap("amount", Double.NaN), false);
+            try {
+                encodeEnvelope(provider, new MessageEnvelope(m));
+                Assert.fail(provider.getName() + " wrote NaN");
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void testModelBindingThroughProvider() {
+        List<PaymentHistoryEntry> history = Collections.singletonList(new PaymentHistoryEntry("table1", null));
+
+        String json = JsonProvider.getDefault().toJson(history);
+        PaymentHistoryEntry.ListType parsed = JsonProvider.getDefault().fromJson(json, PaymentHistoryEntry.ListType.class);
+
+        Assert.assertEquals(JsonProvider.gson().toJson(history), json);
+        Assert.assertEquals("table1", parsed.get(0).getPaymentType());
+    }
+
+    private static Map<?, ?> readData(JsonProvider provider, String json) throws Exception {
+        Class<?> numbersClass = Class.forName("io.mx51.spi.model.NumericFields");
+        Constructor<?> constructor = numbersClass.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        Method readData = JsonProvider.class.getDeclaredMethod("readData", String.class, int.class, numbersClass);
+        readData.setAccessible(true);
+        return (Map<?, ?>) readData.invoke(provider, json, json.indexOf("\"data\":") + 7, constructor.newInstance());
+    }
+
+    private static String encodeEnvelope(JsonProvider provider, MessageEnvelope envelope) throws Exception {
+        Method encodeEnvelope = JsonProvider.class.getDeclaredMethod("encodeEnvelope", MessageEnvelope.class);
+        encodeEnvelope.setAccessible(true);
+        try {
+            return (String) encodeEnvelope.invoke(provider, envelope);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+}
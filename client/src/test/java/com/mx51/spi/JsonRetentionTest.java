@@ -0,0 +1,110 @@
+package io.mx51.spi;
+
+import io.mx51.spi.model.Message;
+import io.mx51.spi.model.MessageStamp;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class JsonRetentionTest {
+
+    @Test
+    public void testIncomingJsonNotCopiedWhenTracingIsOff() throws Exception {
+        // arrange
+        com.sun.management.ThreadMXBean threads = threadBean();
+        Assume.assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported());
+        List<Message> received = new ArrayList<>();
+        Spi spi = newSpi(received);
+        Method onSpiMessageReceived = onSpiMessageReceived();
+        String json = vendorMessage("v1", StringUtils.repeat("RECEIPT LINE\r\n", 5000));
+        for (int i = 0; i < 50; i++) onSpiMessageReceived.invoke(spi, json);
+
+        // act
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        onSpiMessageReceived.invoke(spi, json);
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+        // assert
+        Assert.assertTrue("Allocated " + allocated + " bytes for a " + json.length() + " character message",
+                allocated < json.length() / 4);
+        Message m = received.get(received.size() - 1);
+        Assert.assertNull(SpiClientTestUtils.getInstanceField(m, "decryptedJson"));
+        Assert.assertTrue(m.getDecryptedJson().contains("RECEIPT LINE"));
+    }
+
+    @Test
+    public void testIncomingJsonKeptWhenOn() throws Exception {
+        List<Message> received = new ArrayList<>();
+        Spi spi = newSpi(received);
+        spi.setJsonRetention(JsonRetention.ON);
+        String json = vendorMessage("v1", "receipt");
+
+        onSpiMessageReceived().invoke(spi, json);
+
+        Assert.assertSame(json, received.get(0).getDecryptedJson());
+    }
+
+    @Test
+    public void testRingBufferKeepsMostRecent() throws Exception {
+        List<Message> received = new ArrayList<>();
+        Spi spi = newSpi(received);
+        Assert.assertNull(spi.getWireJournal());
+        spi.setJsonRetention(JsonRetention.RING_BUFFER, 2);
+        String[] json = {vendorMessage("v1", "a"), vendorMessage("v2", "b"), vendorMessage("v3", "c")};
+
+        for (String j : json) onSpiMessageReceived().invoke(spi, j);
+
+        List<WireJournal.Entry> entries = spi.getWireJournal().getEntries();
+        Assert.assertEquals(2, entries.size());
+        Assert.assertSame(json[1], entries.get(0).getJson());
+        Assert.assertSame(json[2], entries.get(1).getJson());
+        Assert.assertEquals(WireJournal.Direction.INBOUND, entries.get(1).getDirection());
+        Assert.assertNull(SpiClientTestUtils.getInstanceField(received.get(2), "decryptedJson"));
+    }
+
+    @Test
+    public void testOutgoingJsonRebuiltWhenNotRetained() throws Exception {
+        MessageStamp stamp = new MessageStamp("POS1", null, 0);
+        stamp.setRetainJson(false);
+        Message m = new Message("p1", "vendor_event", Collections.<String, Object>singletonMap("receipt", "x"), false);
+
+        String json = m.toJson(stamp);
+
+        Assert.assertNull(SpiClientTestUtils.getInstanceField(m, "decryptedJson"));
+        Assert.assertEquals(json, m.getDecryptedJson());
+    }
+
+    private static Spi newSpi(final List<Message> received) throws Spi.CompatibilityException {
+        Spi spi = new Spi("POS1", "", "10.20.30.40", null);
+        spi.setMessageHandler("vendor_event", new Spi.EventHandler<Message>() {
+            @Override
+            public void onEvent(Message value) {
+                received.add(value);
+            }
+        });
+        return spi;
+    }
+
+    private static Method onSpiMessageReceived() throws NoSuchMethodException {
+        Method method = Spi.class.getDeclaredMethod("onSpiMessageReceived", String.class);
+        method.setAccessible(true);
+        return method;
+    }
+
+    private static String vendorMessage(String id, String receipt) {
+        return "{\"message\":{\"event\":\"vendor_event\",\"id\":\"" + id + "\",\"data\":{\"receipt\":\"" +
+                receipt.replace("\r\n", "\\r\\n") + "\"}}}";
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+}
@@ -0,0 +1,273 @@
+package io.mx51.spi;
+
+import io.mx51.spi.model.Message;
+import io.mx51.spi.model.MessageStamp;
+import io.mx51.spi.model.Secrets;
+import io.mx51.spi.model.SpiStatus;
+import io.mx51.spi.util.Events;
+import io.mx51.spi.util.PongHelper;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class KeepaliveTest {
+
+    private static final String VENDOR_EVENT = "vendor_event";
+
+    /**
+     * Answers pings with pongs from another thread, as a terminal would, when {@link #answerPings} is set.
+     */
+    private static class FakeTransport implements Transport {
+        final Secrets secrets;
+        final ExecutorService terminal = Executors.newSingleThreadExecutor();
+        final List<Long> pingTimes = new CopyOnWriteArrayList<>();
+        volatile boolean answerPings = true;
+        volatile boolean closed;
+        Listener listener;
+        volatile Socket socket;
+
+        FakeTransport(Secrets secrets) {
+            this.secrets = secrets;
+        }
+
+        @NotNull
+        @Override
+        public Socket connect(@NotNull String url, @NotNull String subProtocol, @NotNull final Listener listener) {
+            this.listener = listener;
+            final Socket socket = new Socket() {
+                @Override
+                public boolean send(@NotNull String text) {
+                    final Message m = Message.fromJson(text, secrets);
+                    if (Events.PING.equals(m.getEventName())) {
+                        pingTimes.add(System.currentTimeMillis());
+                        if (answerPings) {
+                            terminal.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    listener.onMessage(PongHelper.generatePongResponse(m).toJson(stamp(secrets)));
+                                }
+                            });
+                        }
+                    }
+                    return true;
+                }
+
+                @Override
+                public long queueSize() {
+                    return 0;
+                }
+
+                @Override
+                public void close(int code) {
+                    closed = true;
+                }
+
+                @Override
+                public void cancel() {
+                    closed = true;
+                }
+            };
+            this.socket = socket;
+            return socket;
+        }
+    }
+
+    @Test
+    public void testNoPingsWhileTerminalIsSending() throws Exception {
+        // arrange
+        TransportContext context = new TransportContext();
+        Secrets secrets = SpiClientTestUtils.setTestSecrets(null, null);
+        FakeTransport transport = new FakeTransport(secrets);
+        try {
+            Spi spi = newSpi(context, transport, secrets, config(200, 200, 100));
+            spi.start();
+            transport.listener.onOpen(transport.socket);
+            waitFor(transport.pingTimes, 1);
+
+            // act
+            int pingsBefore = transport.pingTimes.size();
+            for (int i = 0; i < 30; i++) {
+                transport.listener.onMessage(new Message("v" + i, VENDOR_EVENT, null, true).toJson(stamp(secrets)));
+                Thread.sleep(50);
+            }
+            int pingsDuringTraffic = transport.pingTimes.size() - pingsBefore;
+            Thread.sleep(600);
+
+            // assert
+            Assert.assertEquals(0, pingsDuringTraffic);
+            Assert.assertTrue(transport.pingTimes.size() > pingsBefore);
+        } finally {
+            transport.terminal.shutdownNow();
+            context.shutdown();
+        }
+    }
+
+    @Test
+    public void testIntervalGrowsWhilePongsArePrompt() throws Exception {
+        // arrange
+        TransportContext context = new TransportContext();
+        Secrets secrets = SpiClientTestUtils.setTestSecrets(null, null);
+        FakeTransport transport = new FakeTransport(secrets);
+        try {
+            Spi spi = newSpi(context, transport, secrets, config(100, 800, 100));
+            spi.start();
+
+            // act
+            transport.listener.onOpen(transport.socket);
+            waitFor(transport.pingTimes, 5);
+
+            // assert
+            List<Long> times = transport.pingTimes;
+            Assert.assertTrue(times.get(4) - times.get(3) >= 700);
+            Assert.assertTrue(spi.getLinkEstimator().getSampleCount() >= 4);
+        } finally {
+            transport.terminal.shutdownNow();
+            context.shutdown();
+        }
+    }
+
+    @Test
+    public void testDisconnectsWhenPongsStop() throws Exception {
+        // arrange
+        TransportContext context = new TransportContext();
+        Secrets secrets = SpiClientTestUtils.setTestSecrets(null, null);
+        FakeTransport transport = new FakeTransport(secrets);
+        try {
+            Spi spi = newSpi(context, transport, secrets, config(200, 800, 100));
+            spi.start();
+            transport.listener.onOpen(transport.socket);
+            waitFor(transport.pingTimes, 3);
+
+            // act
+            transport.answerPings = false;
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!transport.closed && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            // assert
+            Assert.assertTrue(transport.closed);
+        } finally {
+            transport.terminal.shutdownNow();
+            context.shutdown();
+        }
+    }
+
+    @Test
+    public void testPhiAccrualDisconnectsSoonAfterSilence() throws Exception {
+        // arrange
+        TransportContext context = new TransportContext();
+        Secrets secrets = SpiClientTestUtils.setTestSecrets(null, null);
+        FakeTransport transport = new FakeTransport(secrets);
+        try {
+            Spi spi = newSpi(context, transport, secrets, config(100, 100, 2000));
+            spi.setFailureDetector(new PhiAccrualFailureDetector(8.0, 10, 50, 0, 1000, 10));
+            spi.start();
+            transport.listener.onOpen(transport.socket);
+            waitFor(transport.pingTimes, 30);
+
+            // act
+            transport.answerPings = false;
+            long silentSince = System.currentTimeMillis();
+            long deadline = silentSince + 5000;
+            while (!transport.closed && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            // assert
+            Assert.assertTrue(transport.closed);
+            // Well before the pong timeout, which is all the missed pongs detector would go by.
+            Assert.assertTrue(System.currentTimeMillis() - silentSince < 1000);
+        } finally {
+            transport.terminal.shutdownNow();
+            context.shutdown();
+        }
+    }
+
+    @Test
+    public void testSlowCallbackDoesNotHoldUpOtherTerminals() throws Exception {
+        // arrange
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        TransportContext context = new TransportContext(scheduler);
+        Secrets secrets = SpiClientTestUtils.setTestSecrets(null, null);
+        FakeTransport slowTransport = new FakeTransport(secrets);
+        FakeTransport otherTransport = new FakeTransport(secrets);
+        final CountDownLatch callbackEntered = new CountDownLatch(1);
+        final CountDownLatch releaseCallback = new CountDownLatch(1);
+        try {
+            Spi slow = newSpi(context, slowTransport, secrets, config(100, 100, 100));
+            slow.setStatusChangedHandler(new Spi.EventHandler<SpiStatus>() {
+                @Override
+                public void onEvent(SpiStatus status) {
+                    if (status != SpiStatus.PAIRED_CONNECTING) return;
+                    callbackEntered.countDown();
+                    try {
+                        releaseCallback.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            Spi other = newSpi(context, otherTransport, secrets, config(100, 100, 100));
+            slow.start();
+            other.start();
+            slowTransport.listener.onOpen(slowTransport.socket);
+            otherTransport.listener.onOpen(otherTransport.socket);
+            waitFor(otherTransport.pingTimes, 1);
+
+            // act
+            // The slow terminal stops answering, and the POS takes its time over the disconnect.
+            slow.setCurrentStatus(SpiStatus.PAIRED_CONNECTED);
+            slowTransport.answerPings = false;
+            Assert.assertTrue(callbackEntered.await(5, TimeUnit.SECONDS));
+            int pingsBefore = otherTransport.pingTimes.size();
+            Thread.sleep(600);
+
+            // assert
+            Assert.assertTrue(otherTransport.pingTimes.size() > pingsBefore);
+        } finally {
+            releaseCallback.countDown();
+            slowTransport.terminal.shutdownNow();
+            otherTransport.terminal.shutdownNow();
+            context.shutdown();
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static Spi newSpi(TransportContext context, Transport transport, Secrets secrets, KeepaliveConfig config) throws Spi.CompatibilityException {
+        Spi spi = new Spi("RamenPos", "", "10.20.30.40", secrets);
+        spi.setPosInfo("mx51", "2.6.3");
+        spi.setTransportContext(context);
+        spi.setTransport(transport);
+        spi.setKeepaliveConfig(config);
+        return spi;
+    }
+
+    private static KeepaliveConfig config(long minInterval, long maxInterval, long pongTimeout) {
+        KeepaliveConfig config = new KeepaliveConfig();
+        config.setMinPingIntervalMillis(minInterval);
+        config.setMaxPingIntervalMillis(maxInterval);
+        config.setPongTimeoutMillis(pongTimeout);
+        return config;
+    }
+
+    private static MessageStamp stamp(Secrets secrets) {
+        return new MessageStamp("RamenPos", secrets, 0);
+    }
+
+    private static void waitFor(List<Long> pingTimes, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pingTimes.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(pingTimes.size() >= count);
+    }
+}
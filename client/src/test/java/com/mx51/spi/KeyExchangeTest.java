@@ -0,0 +1,135 @@
+package io.mx51.spi;
+
+import io.mx51.spi.model.Message;
+import io.mx51.spi.model.MessageStamp;
+import io.mx51.spi.model.Secrets;
+import io.mx51.spi.util.Events;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+
+public class KeyExchangeTest {
+
+    /**
+     * Delivers the frames of all its sockets on the calling thread, like transports whose sockets share a few threads.
+     */
+    private static class FakeTransport implements Transport {
+        final List<Listener> listeners = new ArrayList<>();
+        final List<Socket> sockets = new ArrayList<>();
+        final List<List<String>> sent = new ArrayList<>();
+
+        @NotNull
+        @Override
+        public Socket connect(@NotNull String url, @NotNull String subProtocol, @NotNull Listener listener) {
+            listeners.add(listener);
+            final List<String> socketSent = new CopyOnWriteArrayList<>();
+            sent.add(socketSent);
+            final Socket socket = new Socket() {
+                @Override
+                public boolean send(@NotNull String text) {
+                    return socketSent.add(text);
+                }
+
+                @Override
+                public long queueSize() {
+                    return 0;
+                }
+
+                @Override
+                public void close(int code) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            };
+            sockets.add(socket);
+            return socket;
+        }
+    }
+
+    @Test
+    public void testPingsAnsweredDuringKeyExchange() throws Exception {
+        // arrange
+        TransportContext context = new TransportContext();
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            // Keeps every compute thread busy, so that the key exchange waits until released.
+            ThreadPoolExecutor compute = (ThreadPoolExecutor) context.getComputeExecutor();
+            for (int i = 0; i < compute.getMaximumPoolSize(); i++) {
+                compute.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            FakeTransport transport = new FakeTransport();
+            Secrets secrets = SpiClientTestUtils.setTestSecrets(null, null);
+            Spi paired = newSpi(context, transport, secrets);
+            paired.start();
+            transport.listeners.get(0).onOpen(transport.sockets.get(0));
+            Spi pairing = newSpi(context, transport, null);
+            pairing.start();
+            pairing.pair();
+            transport.listeners.get(1).onOpen(transport.sockets.get(1));
+
+            // act
+            transport.listeners.get(1).onMessage(keyRequestJson());
+            transport.listeners.get(0).onMessage(new Message("ping1", Events.PING, null, true).toJson(new MessageStamp("RamenPos", secrets, 0)));
+
+            // assert
+            Assert.assertEquals(-1, indexOf(transport.sent.get(1), "key_response"));
+            Message pong = null;
+            for (String json : transport.sent.get(0)) {
+                Message m = Message.fromJson(json, secrets);
+                if (Events.PONG.equals(m.getEventName())) pong = m;
+            }
+            Assert.assertNotNull(pong);
+            Assert.assertEquals("ping1", pong.getId());
+
+            release.countDown();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (indexOf(transport.sent.get(1), "key_response") < 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(indexOf(transport.sent.get(1), "key_response") > 0);
+            Assert.assertNotNull(SpiClientTestUtils.getInstanceField(pairing, "secrets"));
+            Assert.assertEquals("Negotiating pairing...", pairing.getCurrentPairingFlowState().getMessage());
+        } finally {
+            release.countDown();
+            context.shutdown();
+        }
+    }
+
+    private static Spi newSpi(TransportContext context, Transport transport, Secrets secrets) throws Spi.CompatibilityException {
+        Spi spi = new Spi("RamenPos", "", "10.20.30.40", secrets);
+        spi.setPosInfo("mx51", "2.6.3");
+        spi.setTransportContext(context);
+        spi.setTransport(transport);
+        return spi;
+    }
+
+    private static int indexOf(List<String> sent, String fragment) {
+        for (int i = 0; i < sent.size(); i++) {
+            if (sent.get(i).contains(fragment)) return i;
+        }
+        return -1;
+    }
+
+    private static String keyRequestJson() {
+        return "{\"message\":{\"event\":\"key_request\",\"id\":\"62\",\"data\":{" +
+                "\"enc\":{\"A\":\"17E7BE43D53102647040FC090000C215810E28E5E0CBD4F47923E194AE72AB0CDADF922642B73C568AA94A84B61874A475549E1F95847BE2725462E3D635F019BE39B2064F1EFFBE6B80CE97FBB7C0913ADC06A2445980B57647778B127FFCCE8B28A44BADEDE0110A5AFB05FEF7AA3F54988AFB04310A113F713601683D8E30CA2BAFC2EC34879127019E3352D8CAB9603184283AE3C9359D40C12474500018B8640AF371DC8712A06A3A443DF41DA9C1C60FAD2ACB02564A6694382B18811AA30CE38A1FC251DE0669504CAB620C2BA4A84CCC8FBDCBB30BBB3EACA76008599F74C2FDF6231773DC0439969CB5F2904A71DDF57F7DF9394AA29CBE4856FC82\"}," +
+                "\"hmac\":{\"A\":\"89708531EADF129B4F67F00ECBF883C825A0EF3D766E32BC2BA13508B53FC3F5928316DE05CBE82FA1BBF4116E58A68C6F9C3C8FEF492051498188F4E80F82D5764FF50331B34E418E41480FAE0C794F20D9F7AE9819CB317AD2351B165783D57D12C39F95D9A5A292B89D3A26F9BBDE5C218EEC3FE63D910DCB0E1A0E6B570AF94BBD3025EB5E23FFBD9E8D58FE68403B3E50566DA8E2E54EED1A4D754689ECB7266B3D4804E39FB868F1741896757E7844C3389DA49F87D23FB2E9F6ADDBE9C14CC92F322CF3B471CE217E48D0762D5C963827AA6F4316B905F19E0262A35DC4B62E2FB95B7AAD5616C61F31C9A74008EE51BAB2CD6F646320FA30A6DDC4D7\"}}}}";
+    }
+}
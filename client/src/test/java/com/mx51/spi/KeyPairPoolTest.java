@@ -0,0 +1,79 @@
+package io.mx51.spi.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class KeyPairPoolTest {
+
+    /**
+     * Holds tasks until {@link #runAll()}, so that the test decides when the pool is filled.
+     */
+    private static class CollectingExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            List<Runnable> pending = new ArrayList<>(tasks);
+            tasks.clear();
+            for (Runnable task : pending) task.run();
+        }
+    }
+
+    @Test
+    public void testTakeUsesPreparedPair() {
+        // arrange
+        KeyPairPool pool = new KeyPairPool(DiffieHellman.MODP_2048_P, DiffieHellman.MODP_2048_G, 2);
+        CollectingExecutor executor = new CollectingExecutor();
+        pool.fill(executor);
+        executor.runAll();
+        int before = pool.size();
+
+        // act
+        KeyPairPool.KeyPair pair = pool.take();
+
+        // assert
+        Assert.assertEquals(2, before);
+        Assert.assertEquals(1, pool.size());
+        Assert.assertEquals(DiffieHellman.MODP_2048_G.modPow(pair.getPrivateKey(), DiffieHellman.MODP_2048_P), pair.getPublicKey());
+    }
+
+    @Test
+    public void testTakeRefillsInBackground() {
+        // arrange
+        KeyPairPool pool = new KeyPairPool(DiffieHellman.MODP_2048_P, DiffieHellman.MODP_2048_G, 2);
+        CollectingExecutor executor = new CollectingExecutor();
+        pool.fill(executor);
+        executor.runAll();
+
+        // act
+        pool.take();
+        pool.take();
+        int emptied = pool.size();
+        executor.runAll();
+
+        // assert
+        Assert.assertEquals(0, emptied);
+        Assert.assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void testTakeFromEmptyPoolGeneratesPair() {
+        // arrange
+        KeyPairPool pool = new KeyPairPool(DiffieHellman.MODP_2048_P, DiffieHellman.MODP_2048_G, 2);
+
+        // act
+        KeyPairPool.KeyPair pair = pool.take();
+
+        // assert
+        Assert.assertEquals(0, pool.size());
+        Assert.assertEquals(DiffieHellman.MODP_2048_G.modPow(pair.getPrivateKey(), DiffieHellman.MODP_2048_P), pair.getPublicKey());
+    }
+}
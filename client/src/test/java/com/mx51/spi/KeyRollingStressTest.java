@@ -0,0 +1,184 @@
+package io.mx51.spi;
+
+import io.mx51.spi.model.Message;
+import io.mx51.spi.model.MessageStamp;
+import io.mx51.spi.model.Secrets;
+import io.mx51.spi.util.Events;
+import io.mx51.spi.util.KeyRollingHelper;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KeyRollingStressTest {
+
+    private static final String VENDOR_EVENT = "vendor_event";
+    private static final int MAX_SENDS = 2000;
+
+    private static class FakeTransport implements Transport {
+        Listener listener;
+        volatile Socket socket;
+        final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+
+        @NotNull
+        @Override
+        public Socket connect(@NotNull String url, @NotNull String subProtocol, @NotNull Listener listener) {
+            this.listener = listener;
+            final Socket socket = new Socket() {
+                @Override
+                public boolean send(@NotNull String text) {
+                    return sent.add(text);
+                }
+
+                @Override
+                public long queueSize() {
+                    return 0;
+                }
+
+                @Override
+                public void close(int code) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            };
+            this.socket = socket;
+            return socket;
+        }
+    }
+
+    @Test
+    public void testNoMessagesLostAcrossKeyRolls() throws Exception {
+        // arrange
+        final int rolls = 50;
+        final int beforeRoll = 10;
+        final int inFlight = 5;
+        TransportContext context = new TransportContext();
+        try {
+            FakeTransport transport = new FakeTransport();
+            final Spi spi = newSpi(context, transport);
+            final AtomicInteger received = new AtomicInteger();
+            spi.setMessageHandler(VENDOR_EVENT, new Spi.EventHandler<Message>() {
+                @Override
+                public void onEvent(Message m) {
+                    received.incrementAndGet();
+                }
+            });
+            spi.start();
+            transport.listener.onOpen(transport.socket);
+
+            final AtomicBoolean stop = new AtomicBoolean();
+            Thread sender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // Paced and bounded, so that the run takes the same time however fast the machine is.
+                    for (int i = 0; i < MAX_SENDS && !stop.get(); i++) {
+                        spi.send(new Message("out" + i, VENDOR_EVENT, null, true));
+                        if (i % 10 == 9) {
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                }
+            });
+            sender.start();
+
+            // act
+            List<Secrets> generations = new ArrayList<>();
+            Secrets current = SpiClientTestUtils.setTestSecrets(null, null);
+            generations.add(current);
+            int id = 0;
+            for (int r = 0; r < rolls; r++) {
+                for (int i = 0; i < beforeRoll; i++) {
+                    transport.listener.onMessage(vendorJson("in" + id++, current));
+                }
+                transport.listener.onMessage(new Message("roll" + r, Events.KEY_ROLL_REQUEST, null, true).toJson(stamp(current)));
+                // Sent by the terminal before it rolled, received after.
+                for (int i = 0; i < inFlight; i++) {
+                    transport.listener.onMessage(vendorJson("in" + id++, current));
+                }
+                current = KeyRollingHelper.nextSecrets(current);
+                generations.add(current);
+            }
+            stop.set(true);
+            sender.join();
+
+            // assert
+            Assert.assertEquals(rolls * (beforeRoll + inFlight), received.get());
+            int generation = 0;
+            List<String> sent;
+            synchronized (transport.sent) {
+                sent = new ArrayList<>(transport.sent);
+            }
+            for (String json : sent) {
+                Message m = Message.fromJson(json, generations.get(generation));
+                if (!Events.INVALID_HMAC_SIGNATURE.equals(m.getEventName())) continue;
+                // Only ever the next generation, and the first message under it confirms the roll.
+                generation++;
+                Assert.assertTrue(generation < generations.size());
+                m = Message.fromJson(json, generations.get(generation));
+                Assert.assertEquals(Events.KEY_ROLL_RESPONSE, m.getEventName());
+                Assert.assertEquals("roll" + (generation - 1), m.getId());
+            }
+            Assert.assertEquals(rolls, generation);
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    @Test
+    public void testOldKeysRejectedWithoutGracePeriod() throws Exception {
+        // arrange
+        TransportContext context = new TransportContext();
+        try {
+            FakeTransport transport = new FakeTransport();
+            Spi spi = newSpi(context, transport);
+            spi.setKeyRollGracePeriod(0);
+            final AtomicInteger received = new AtomicInteger();
+            spi.setMessageHandler(VENDOR_EVENT, new Spi.EventHandler<Message>() {
+                @Override
+                public void onEvent(Message m) {
+                    received.incrementAndGet();
+                }
+            });
+            spi.start();
+            transport.listener.onOpen(transport.socket);
+            Secrets old = SpiClientTestUtils.setTestSecrets(null, null);
+
+            // act
+            transport.listener.onMessage(new Message("roll", Events.KEY_ROLL_REQUEST, null, true).toJson(stamp(old)));
+            transport.listener.onMessage(vendorJson("old", old));
+            transport.listener.onMessage(vendorJson("new", KeyRollingHelper.nextSecrets(old)));
+
+            // assert
+            Assert.assertEquals(1, received.get());
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    private static Spi newSpi(TransportContext context, Transport transport) throws Spi.CompatibilityException {
+        Spi spi = new Spi("RamenPos", "", "10.20.30.40", SpiClientTestUtils.setTestSecrets(null, null));
+        spi.setPosInfo("mx51", "2.6.3");
+        spi.setTransportContext(context);
+        spi.setTransport(transport);
+        return spi;
+    }
+
+    private static MessageStamp stamp(Secrets secrets) {
+        return new MessageStamp("RamenPos", secrets, 0);
+    }
+
+    private static String vendorJson(String id, Secrets secrets) {
+        return new Message(id, VENDOR_EVENT, null, true).toJson(stamp(secrets));
+    }
+}
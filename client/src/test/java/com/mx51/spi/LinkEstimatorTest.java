@@ -0,0 +1,115 @@
+package io.mx51.spi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LinkEstimatorTest {
+
+    @Test
+    public void testFirstSample() {
+        // arrange
+        LinkEstimator estimator = new LinkEstimator();
+
+        // act
+        estimator.sample(1000, 6050, 1100);
+
+        // assert
+        Assert.assertTrue(estimator.hasSamples());
+        Assert.assertEquals(100, estimator.getSmoothedRtt());
+        Assert.assertEquals(50, estimator.getRttVariation());
+        Assert.assertEquals(100, estimator.getLastRtt());
+        // Stamped half way through the round trip, at our 1050.
+        Assert.assertEquals(5000, estimator.getClockOffset());
+    }
+
+    @Test
+    public void testRttSmoothing() {
+        // arrange
+        LinkEstimator estimator = new LinkEstimator();
+        estimator.sample(0, 50, 100);
+
+        // act
+        estimator.sample(1000, 1100, 1200);
+
+        // assert
+        Assert.assertEquals((7 * 100 + 200) / 8, estimator.getSmoothedRtt());
+        Assert.assertEquals((3 * 50 + 100) / 4, estimator.getRttVariation());
+        Assert.assertEquals(200, estimator.getLastRtt());
+        Assert.assertEquals(2, estimator.getSampleCount());
+    }
+
+    @Test
+    public void testClockOffsetFromShortestRoundTrip() {
+        // arrange
+        LinkEstimator estimator = new LinkEstimator();
+        estimator.sample(0, 5010, 20);
+
+        // act
+        // The pong was held up on its way back, so its offset is too high.
+        estimator.sample(1000, 6010, 1420);
+
+        // assert
+        Assert.assertEquals(5000, estimator.getClockOffset());
+    }
+
+    @Test
+    public void testOldSamplesLeaveTheFilter() {
+        // arrange
+        LinkEstimator estimator = new LinkEstimator();
+        estimator.sample(0, 5010, 20);
+
+        // act
+        for (int i = 1; i <= LinkEstimator.OFFSET_SAMPLES; i++) {
+            estimator.sample(1000 * i, 1000 * i + 5090, 1000 * i + 100);
+        }
+
+        // assert
+        Assert.assertEquals(5040, estimator.getClockOffset());
+    }
+
+    @Test
+    public void testClockStepRestartsTheFilter() {
+        // arrange
+        LinkEstimator estimator = new LinkEstimator();
+        estimator.sample(0, 5010, 20);
+
+        // act
+        // The terminal's clock jumped a minute ahead; the round trip is slower but cannot explain that.
+        estimator.sample(1000, 61050, 1100);
+
+        // assert
+        Assert.assertEquals(60000, estimator.getClockOffset());
+    }
+
+    @Test
+    public void testClearOffsets() {
+        // arrange
+        LinkEstimator estimator = new LinkEstimator();
+        estimator.sample(0, 5010, 20);
+
+        // act
+        estimator.clearOffsets();
+        long offsetBeforePong = estimator.getClockOffset();
+        estimator.sample(1000, 6090, 1100);
+
+        // assert
+        Assert.assertEquals(5000, offsetBeforePong);
+        Assert.assertEquals(5040, estimator.getClockOffset());
+        Assert.assertEquals(2, estimator.getSampleCount());
+    }
+
+    @Test
+    public void testReset() {
+        // arrange
+        LinkEstimator estimator = new LinkEstimator();
+        estimator.sample(0, 5010, 20);
+
+        // act
+        estimator.reset();
+
+        // assert
+        Assert.assertFalse(estimator.hasSamples());
+        Assert.assertEquals(-1, estimator.getSmoothedRtt());
+        Assert.assertEquals(0, estimator.getClockOffset());
+    }
+}
@@ -0,0 +1,215 @@
+package io.mx51.spi;
+
+import com.google.gson.JsonSyntaxException;
+import io.mx51.spi.model.Message;
+import io.mx51.spi.model.MessageDecoder;
+import io.mx51.spi.model.MessageEnvelope;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class MessageDecoderTest {
+
+    private static final String PLAIN = "{\"message\":{\"data\":{\"success\":true,\"purchase_amount\":1000,\"rate\":1.5," +
+            "\"receipt\":\"LINE 1\\r\\nLINE \\u00e9\",\"nothing\":null,\"schemes\":[{\"scheme_name\":\"Visa\",\"total\":\"1\"},3,false]," +
+            "\"nested\":{\"a\":{\"b\":[]}}},\"datetime\":\"2019-06-14T16:09:46.395\",\"event\":\"purchase_response\"," +
+            "\"id\":\"prchs5\",\"unknown\":{\"ignored\":[1,2]}}}";
+
+    private static final String ENCRYPTED = "{\"enc\":\"ABCDEF0123\",\"hmac\":\"0011AA\",\"pos_id\":\"POS1\"}";
+
+    @Test
+    public void testPlainEnvelopeMatchesReflectiveDecoding() {
+        assertSameAsReflective(PLAIN);
+    }
+
+    @Test
+    public void testEncryptedEnvelopeMatchesReflectiveDecoding() {
+        MessageEnvelope env = MessageDecoder.decodeEnvelope(ENCRYPTED);
+
+        Assert.assertNull(env.getMessage());
+        Assert.assertEquals("ABCDEF0123", env.getEnc());
+        Assert.assertEquals("0011AA", env.getHmac());
+        Assert.assertEquals("POS1", env.getPosId());
+    }
+
+    @Test
+    public void testNumbersDecodeAsDoubles() {
+        Message m = MessageDecoder.decodeEnvelope(PLAIN).getMessage();
+
+        Assert.assertEquals(1000.0, m.getData().get("purchase_amount"));
+        Assert.assertEquals(1000, m.getDataIntValue("purchase_amount"));
+        Assert.assertEquals(Message.SuccessState.SUCCESS, m.getSuccessState());
+    }
+
+    @Test
+    public void testOddInputFallsBackToReflectiveDecoding() {
+        // A number where a string is expected, a boolean id, a duplicate key, and trailing whitespace.
+        assertSameAsReflective("{\"message\":{\"id\":12,\"event\":\"ping\",\"data\":{}}}");
+        assertSameAsReflective("{\"message\":{\"id\":true,\"event\":\"ping\",\"data\":{}}}");
+        assertSameAsReflective("{\"message\":{\"id\":\"1\",\"event\":\"x\",\"data\":{\"a\":{\"k\":1,\"k\":2}}}}");
+        assertSameAsReflective("{\"message\":{\"id\":\"1\",\"event\":\"x\",\"data\":null}}  ");
+        assertSameAsReflective("{\"message\":null}");
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testDuplicateDataKeyStillRejected() {
+        MessageDecoder.decodeEnvelope("{\"message\":{\"id\":\"1\",\"data\":{\"k\":1,\"k\":2}}}");
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testInvalidJsonStillRejected() {
+        MessageDecoder.decodeEnvelope("{\"message\":{\"id\":\"1\"}} trailing");
+    }
+
+    @Test
+    public void testDataDecodedOnFirstAccess() throws IllegalAccessException {
+        Message m = MessageDecoder.decodeEnvelope(PLAIN).getMessage();
+
+        Assert.assertEquals("purchase_response", m.getEventName());
+        Assert.assertNotNull(SpiClientTestUtils.getInstanceField(m, "dataSlice"));
+
+        Assert.assertEquals("LINE 1\r\nLINE \u00e9", m.getDataStringValue("receipt"));
+        Assert.assertNull(SpiClientTestUtils.getInstanceField(m, "dataSlice"));
+        Assert.assertSame(m.getData(), m.getData());
+        Assert.assertEquals(MessageDecoder.decodeEnvelopeEagerly(PLAIN).getMessage().getData(), m.getData());
+    }
+
+    @Test
+    public void testLazyMatchesEagerDecoding() {
+        assertSameAsReflective(" {\n  \"message\" : {\n    \"id\" : \"p\\\"1\",\n    \"data\" : { \"a\" : [ 1 , { \"b\" : \"}]\\\\\" } ] , " +
+                "\"c\" : { } , \"d\" : [ ] , \"e\" : true },\n    \"event\" : \"ping\"\n  }\n}\n");
+        assertSameAsReflective("{\"message\":{\"event\":\"pong\",\"data\":{}}}");
+        assertSameAsReflective("{\"message\":{\"event\":\"x\",\"data\":{\"q\":\"say \\\"hi\\\" }\",\"r\":\"\\\\\\\"\"}}}");
+        assertSameAsReflective("{\"message\":{\"event\":\"pong\",\"data\":{\"a\":{\"k\":1,\"k\":2}}}}");
+    }
+
+    @Test
+    public void testMalformedDataRejectedUpFront() {
+        String[] malformed = {
+                "{\"message\":{\"id\":\"1\",\"data\":{\"a\":}}}",
+                "{\"message\":{\"id\":\"1\",\"data\":{\"a\":1 \"b\":2}}}",
+                "{\"message\":{\"id\":\"1\",\"data\":{\"k\":1,\"\\u006b\":2}}}",
+                "{\"message\":{\"id\":\"1\",\"data\":[1]}}"
+        };
+        for (String json : malformed) {
+            try {
+                MessageDecoder.decodeEnvelope(json);
+                Assert.fail("Expected " + json + " to be rejected");
+            } catch (JsonSyntaxException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void testOddDataLeftToEagerDecoding() throws IllegalAccessException {
+        String[] odd = {
+                "{\"a\":\"\\q\"}",
+                "{\"a\":\"\\u00zz\"}",
+                "{\"a\":tru}",
+                "{\"a\":1.2.3}",
+                "{\"a\":[abc]}",
+                "{\"a\":{\"b\":01}}"
+        };
+        for (String data : odd) {
+            String json = "{\"message\":{\"id\":\"1\",\"data\":" + data + "}}";
+            Message eager;
+            try {
+                eager = MessageDecoder.decodeEnvelopeEagerly(json).getMessage();
+            } catch (JsonSyntaxException e) {
+                try {
+                    MessageDecoder.decodeEnvelope(json);
+                    Assert.fail("Expected " + data + " to be rejected");
+                } catch (JsonSyntaxException ignored) {
+                }
+                continue;
+            }
+
+            Message m = MessageDecoder.decodeEnvelope(json).getMessage();
+
+            Assert.assertNull(data, SpiClientTestUtils.getInstanceField(m, "dataSlice"));
+            Assert.assertEquals(data, eager.getData(), m.getData());
+        }
+    }
+
+    @Test
+    public void testIntegralNumbersReadExactly() {
+        String json = "{\"message\":{\"event\":\"x\",\"data\":{\"big\":9007199254740993,\"max\":9223372036854775807," +
+                "\"neg\":-42,\"exp\":1e3,\"frac\":12.5,\"text\":\"77\",\"huge\":1e19,\"over\":2147483648}}}";
+
+        for (MessageEnvelope env : new MessageEnvelope[]{
+                MessageDecoder.decodeEnvelope(json), MessageDecoder.decodeEnvelopeEagerly(json)}) {
+            Message m = env.getMessage();
+            Assert.assertEquals(9007199254740993L, m.getDataLongValue("big"));
+            Assert.assertEquals(Long.MAX_VALUE, m.getDataLongValue("max"));
+            Assert.assertEquals(-42L, m.getDataLongValue("neg"));
+            Assert.assertEquals(1000L, m.getDataLongValue("exp"));
+            Assert.assertEquals(77L, m.getDataLongValue("text"));
+            Assert.assertEquals(0L, m.getDataLongValue("missing"));
+            Assert.assertEquals(-42, m.getDataIntValueExact("neg"));
+            // The map still holds what Gson would give.
+            Assert.assertEquals(9007199254740992.0, m.getData().get("big"));
+            Assert.assertEquals(2147483647, m.getDataIntValue("over"));
+            assertArithmeticException(m, "frac");
+            assertArithmeticException(m, "huge");
+            try {
+                m.getDataIntValueExact("over");
+                Assert.fail("Expected over to overflow an int");
+            } catch (ArithmeticException ignored) {
+            }
+        }
+        assertSameAsReflective(json);
+    }
+
+    @Test
+    public void testChangedDataNotReadFromDecodedNumbers() {
+        Message m = MessageDecoder.decodeEnvelope(PLAIN).getMessage();
+
+        m.getData().put("purchase_amount", 2500.0);
+
+        Assert.assertEquals(2500L, m.getDataLongValue("purchase_amount"));
+    }
+
+    @Test
+    public void testExactAccessorsOnBuiltData() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("amount", 1500);
+        data.put("total", 3000.0);
+        data.put("id", 7L);
+        Message m = new Message("1", "x", data, false);
+
+        Assert.assertEquals(1500L, m.getDataLongValue("amount"));
+        Assert.assertEquals(3000, m.getDataIntValueExact("total"));
+        Assert.assertEquals(7L, m.getDataLongValue("id"));
+    }
+
+    private static void assertArithmeticException(Message m, String attribute) {
+        try {
+            m.getDataLongValue(attribute);
+            Assert.fail("Expected " + attribute + " to be rejected");
+        } catch (ArithmeticException ignored) {
+        }
+    }
+
+    private static void assertSameAsReflective(String json) {
+        MessageEnvelope expected = MessageDecoder.decodeEnvelopeReflectively(json);
+        MessageEnvelope actual = MessageDecoder.decodeEnvelope(json);
+
+        Assert.assertEquals(expected.getEnc(), actual.getEnc());
+        Assert.assertEquals(expected.getHmac(), actual.getHmac());
+        Assert.assertEquals(expected.getPosId(), actual.getPosId());
+        if (expected.getMessage() == null) {
+            Assert.assertNull(actual.getMessage());
+            return;
+        }
+        Message e = expected.getMessage();
+        Message a = actual.getMessage();
+        Assert.assertEquals(e.getId(), a.getId());
+        Assert.assertEquals(e.getEventName(), a.getEventName());
+        Assert.assertEquals(e.getDateTimeStamp(), a.getDateTimeStamp());
+        Assert.assertEquals(e.getPosId(), a.getPosId());
+        Assert.assertEquals(e.getData(), a.getData());
+        Assert.assertEquals(e.getData(), MessageDecoder.decodeEnvelopeEagerly(json).getMessage().getData());
+    }
+}
@@ -0,0 +1,65 @@
+package io.mx51.spi;
+
+import io.mx51.spi.model.Message;
+import io.mx51.spi.util.Events;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class MessageDispatcherTest {
+
+    @Test
+    public void testDispatchesByEventName() {
+        final List<String> handled = new ArrayList<>();
+        MessageDispatcher dispatcher = new MessageDispatcher(Collections.singletonMap(Events.PING, recorder(handled, "ping")));
+        dispatcher.setHandler("vendor_event", recorder(handled, "vendor"));
+
+        Assert.assertTrue(dispatcher.dispatch(new Message("1", Events.PING, null, false)));
+        Assert.assertTrue(dispatcher.dispatch(new Message("2", "vendor_event", null, false)));
+        Assert.assertFalse(dispatcher.dispatch(new Message("3", "unknown_event", null, false)));
+        Assert.assertFalse(dispatcher.dispatch(new Message("4", null, null, false)));
+        Assert.assertEquals(2, handled.size());
+        Assert.assertEquals("ping", handled.get(0));
+        Assert.assertEquals("vendor", handled.get(1));
+
+        dispatcher.setHandler("vendor_event", null);
+        Assert.assertFalse(dispatcher.dispatch(new Message("5", "vendor_event", null, false)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuiltInHandlerCannotBeReplaced() throws Spi.CompatibilityException {
+        Spi spi = new Spi("POS1", "", "10.20.30.40", null);
+
+        spi.setMessageHandler(Events.PURCHASE_RESPONSE, recorder(new ArrayList<String>(), "x"));
+    }
+
+    @Test
+    public void testSpiRoutesVendorEvents() throws Exception {
+        // arrange
+        final List<String> handled = new ArrayList<>();
+        Spi spi = new Spi("POS1", "", "10.20.30.40", null);
+        spi.setMessageHandler("vendor_event", recorder(handled, "vendor"));
+        Method onSpiMessageReceived = Spi.class.getDeclaredMethod("onSpiMessageReceived", String.class);
+        onSpiMessageReceived.setAccessible(true);
+
+        // act
+        onSpiMessageReceived.invoke(spi, "{\"message\":{\"event\":\"vendor_event\",\"id\":\"v1\",\"data\":{}}}");
+        onSpiMessageReceived.invoke(spi, "{\"message\":{\"event\":\"unknown_event\",\"id\":\"u1\",\"data\":{}}}");
+
+        // assert
+        Assert.assertEquals(Collections.singletonList("vendor"), handled);
+    }
+
+    private static Spi.EventHandler<Message> recorder(final List<String> handled, final String name) {
+        return new Spi.EventHandler<Message>() {
+            @Override
+            public void onEvent(Message value) {
+                handled.add(name);
+            }
+        };
+    }
+}
@@ -0,0 +1,112 @@
+package io.mx51.spi;
+
+import com.google.gson.Gson;
+import io.mx51.spi.model.*;
+import io.mx51.spi.util.CryptoContext;
+import io.mx51.spi.util.Events;
+import io.mx51.spi.util.PingHelper;
+import io.mx51.spi.util.PongHelper;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class MessageEncoderTest {
+
+    private static final Gson GSON = new Gson();
+
+    private static final Secrets SECRETS = SpiClientTestUtils.setTestSecrets(null, null);
+
+    @Test
+    public void testMatchesTwoPassEncoding() throws GeneralSecurityException {
+        PurchaseRequest purchase = new PurchaseRequest(1000, "prchs-1");
+        purchase.setTipAmount(100);
+        assertSameAsTwoPass(purchase.toMessage(), "POS1");
+        assertSameAsTwoPass(new PrintingRequest("key", "header\nbody ü\n").toMessage(), "POS1");
+        assertSameAsTwoPass(new PrintingRequest("key", "x").toMessage(), null);
+        assertSameAsTwoPass(new PrintingRequest("key", "x").toMessage(), "<&'=>");
+    }
+
+    @Test
+    public void testMultiByteAndLargeData() throws GeneralSecurityException {
+        StringBuilder receipt = new StringBuilder();
+        // Long enough to span several cipher updates, with characters of every UTF-8 length, split at all offsets.
+        while (receipt.length() < 20000) receipt.append("line é € 😀 ").append(receipt.length()).append('\n');
+        assertSameAsTwoPass(new PrintingRequest("key", receipt.toString()).toMessage(), "POS1");
+
+        // Unpaired surrogates become '?', as with String.getBytes().
+        assertSameAsTwoPass(new PrintingRequest("key", "a\uD83Db\uDE00c\uD83D").toMessage(), "POS1");
+    }
+
+    @Test
+    public void testControlMessagesMatchTwoPass() throws GeneralSecurityException {
+        Message ping = PingHelper.generatePingRequest();
+        assertSameAsTwoPass(ping, "POS1");
+        assertSameAsTwoPass(PongHelper.generatePongResponse(ping), "POS1");
+        assertSameAsTwoPass(new GetLastTransactionRequest().toMessage(), "<&'=>");
+        assertSameAsTwoPass(PingHelper.generatePingRequest(), null);
+
+        // IDs from the terminal that need escaping, and ones long enough to span several cipher updates.
+        assertSameAsTwoPass(PongHelper.generatePongResponse(new Message("p\"<1>\u00e9", Events.PING, null, true)), "POS1");
+        assertSameAsTwoPass(PongHelper.generatePongResponse(new Message(StringUtils.repeat("ping", 3000), Events.PING, null, true)), "POS1");
+    }
+
+    @Test
+    public void testPosIdOfEachStamp() {
+        MessageStamp first = new MessageStamp("POS1", SECRETS, 0);
+        MessageStamp second = new MessageStamp("<POS2>", SECRETS, 0);
+
+        String json1 = PingHelper.generatePingRequest().toJson(first);
+        String json2 = PingHelper.generatePingRequest().toJson(second);
+        first.setPosId("POS3");
+        String json3 = PingHelper.generatePingRequest().toJson(first);
+
+        Assert.assertEquals("POS1", GSON.fromJson(json1, MessageEnvelope.class).getPosId());
+        Assert.assertEquals("<POS2>", GSON.fromJson(json2, MessageEnvelope.class).getPosId());
+        Assert.assertTrue(json2.contains("\"pos_id\":\"\\u003cPOS2\\u003e\""));
+        Assert.assertEquals("POS3", GSON.fromJson(json3, MessageEnvelope.class).getPosId());
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Message message = new PrintingRequest("key", "receipt ü").toMessage();
+        String json = message.toJson(new MessageStamp("POS1", SECRETS, 0));
+
+        Message decoded = Message.fromJson(json, SECRETS);
+        Assert.assertEquals(message.getId(), decoded.getId());
+        Assert.assertEquals("receipt ü", decoded.getDataStringValue("payload"));
+        Assert.assertEquals(decoded.getDecryptedJson(), message.getDecryptedJson());
+    }
+
+    @Test
+    public void testContextUsableAfterFailedSerialisation() {
+        Map<String, Object> data = new LinkedHashMap<String, Object>();
+        // Enough to have gone through the cipher before Gson refuses the NaN.
+        data.put("receipt", StringUtils.repeat("x", 10000));
+        data.put("z", Double.NaN);
+        Message bad = new Message("bad", "x", data, true);
+        try {
+            bad.toJson(new MessageStamp("POS1", SECRETS, 0));
+            Assert.fail("Expected serialisation to fail");
+        } catch (IllegalArgumentException ignored) {
+        }
+
+        String json = new PrintingRequest("key", "next").toMessage().toJson(new MessageStamp("POS1", SECRETS, 0));
+        Assert.assertEquals("next", Message.fromJson(json, SECRETS).getDataStringValue("payload"));
+    }
+
+    private static void assertSameAsTwoPass(Message message, String posId) throws GeneralSecurityException {
+        message.toJson(new MessageStamp(posId, SECRETS, 0));
+        CryptoContext crypto = SECRETS.getCryptoContext();
+
+        String plain = GSON.toJson(new MessageEnvelope(message));
+        String enc = crypto.aesEncrypt(plain);
+        String expected = GSON.toJson(new MessageEnvelope(enc, crypto.hmacSignature(enc), posId));
+
+        Assert.assertEquals(expected, MessageEncoder.encodeEncrypted(message, crypto, posId));
+        Assert.assertEquals(plain, message.getDecryptedJson());
+    }
+}
@@ -0,0 +1,166 @@
+package io.mx51.spi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class OutboundQueueTest {
+
+    private static class FakeSink implements OutboundQueue.Sink {
+        final List<String> sent = new ArrayList<>();
+        long buffered;
+        boolean open = true;
+
+        @Override
+        public long queueSize() {
+            return buffered;
+        }
+
+        @Override
+        public boolean send(String message) {
+            if (!open) return false;
+            sent.add(message);
+            buffered += message.length();
+            return true;
+        }
+    }
+
+    private static OutboundQueueConfig config(int maxMessages, long highWatermark, OutboundQueueConfig.OverflowPolicy policy) {
+        OutboundQueueConfig config = new OutboundQueueConfig();
+        config.setMaxQueuedMessages(maxMessages);
+        config.setWriteBufferHighWatermark(highWatermark);
+        config.setOverflowPolicy(policy);
+        return config;
+    }
+
+    @Test
+    public void testMessagePassesStraightThroughWhenSocketKeepsUp() {
+        OutboundQueue queue = new OutboundQueue(config(2, 100, OutboundQueueConfig.OverflowPolicy.REJECT_NEW));
+        FakeSink sink = new FakeSink();
+
+        Assert.assertEquals(OutboundQueue.Result.ACCEPTED, queue.offer("ping", sink, 0));
+
+        Assert.assertEquals(1, sink.sent.size());
+        Assert.assertEquals(0, queue.getStats().getQueuedMessages());
+        Assert.assertEquals(4, queue.getStats().getSocketBufferedBytes());
+    }
+
+    @Test
+    public void testMessagesHeldBackAboveHighWatermarkAndFlushedLater() {
+        OutboundQueue queue = new OutboundQueue(config(2, 10, OutboundQueueConfig.OverflowPolicy.REJECT_NEW));
+        FakeSink sink = new FakeSink();
+        sink.buffered = 20;
+
+        Assert.assertEquals(OutboundQueue.Result.ACCEPTED, queue.offer("first", sink, 0));
+        Assert.assertTrue(sink.sent.isEmpty());
+        Assert.assertEquals(1, queue.getStats().getQueuedMessages());
+        Assert.assertEquals(25, queue.getStats().getBytesInFlight());
+
+        sink.buffered = 0;
+        queue.flush(sink, TimeUnit.MILLISECONDS.toNanos(30));
+
+        Assert.assertEquals(1, sink.sent.size());
+        Assert.assertEquals(0, queue.getStats().getQueuedMessages());
+        Assert.assertEquals(30, queue.getStats().getMaxQueuedTimeMillis());
+    }
+
+    @Test
+    public void testRejectNewWhenFull() {
+        OutboundQueue queue = new OutboundQueue(config(1, 0, OutboundQueueConfig.OverflowPolicy.REJECT_NEW));
+        FakeSink sink = new FakeSink();
+
+        Assert.assertEquals(OutboundQueue.Result.ACCEPTED, queue.offer("a", sink, 0));
+        Assert.assertEquals(OutboundQueue.Result.REJECTED, queue.offer("b", sink, 0));
+        Assert.assertEquals(1, queue.getStats().getQueuedMessages());
+        Assert.assertEquals(1, queue.getStats().getRejectedMessages());
+    }
+
+    @Test
+    public void testDropOldestWhenFull() {
+        OutboundQueue queue = new OutboundQueue(config(1, 0, OutboundQueueConfig.OverflowPolicy.DROP_OLDEST));
+        FakeSink sink = new FakeSink();
+
+        queue.offer("a", sink, 0);
+        Assert.assertEquals(OutboundQueue.Result.ACCEPTED, queue.offer("b", sink, 0));
+        Assert.assertEquals(1, queue.getStats().getQueuedMessages());
+        Assert.assertEquals(1, queue.getStats().getDroppedMessages());
+    }
+
+    @Test
+    public void testDisconnectWhenFull() {
+        OutboundQueue queue = new OutboundQueue(config(1, 0, OutboundQueueConfig.OverflowPolicy.DISCONNECT));
+        FakeSink sink = new FakeSink();
+
+        queue.offer("a", sink, 0);
+        Assert.assertEquals(OutboundQueue.Result.DISCONNECT, queue.offer("b", sink, 0));
+    }
+
+    @Test
+    public void testDisconnectWhenSocketRefusesMessage() {
+        OutboundQueue queue = new OutboundQueue(config(1, 100, OutboundQueueConfig.OverflowPolicy.REJECT_NEW));
+        FakeSink sink = new FakeSink();
+        sink.open = false;
+
+        Assert.assertEquals(OutboundQueue.Result.DISCONNECT, queue.offer("a", sink, 0));
+    }
+
+    @Test
+    public void testStalledWriterDetected() {
+        OutboundQueueConfig config = config(10, 100, OutboundQueueConfig.OverflowPolicy.REJECT_NEW);
+        config.setStallTimeoutMillis(1000);
+        OutboundQueue queue = new OutboundQueue(config);
+        FakeSink sink = new FakeSink();
+
+        queue.offer("ping", sink, 0);
+        Assert.assertTrue(queue.hasPending());
+        Assert.assertEquals(OutboundQueue.Result.ACCEPTED, queue.flush(sink, TimeUnit.MILLISECONDS.toNanos(900)));
+        Assert.assertEquals(OutboundQueue.Result.DISCONNECT, queue.flush(sink, TimeUnit.MILLISECONDS.toNanos(1100)));
+    }
+
+    @Test
+    public void testDrainingWriterIsNotStalled() {
+        OutboundQueueConfig config = config(10, 100, OutboundQueueConfig.OverflowPolicy.REJECT_NEW);
+        config.setStallTimeoutMillis(1000);
+        OutboundQueue queue = new OutboundQueue(config);
+        FakeSink sink = new FakeSink();
+
+        queue.offer("ping-ping", sink, 0);
+        sink.buffered = 5;
+        Assert.assertEquals(OutboundQueue.Result.ACCEPTED, queue.flush(sink, TimeUnit.MILLISECONDS.toNanos(900)));
+        Assert.assertEquals(OutboundQueue.Result.ACCEPTED, queue.flush(sink, TimeUnit.MILLISECONDS.toNanos(1800)));
+        sink.buffered = 0;
+        Assert.assertEquals(OutboundQueue.Result.ACCEPTED, queue.flush(sink, TimeUnit.MILLISECONDS.toNanos(5000)));
+        Assert.assertFalse(queue.hasPending());
+    }
+
+    @Test
+    public void testBusyWriterIsNotStalled() {
+        OutboundQueueConfig config = config(10, 100, OutboundQueueConfig.OverflowPolicy.REJECT_NEW);
+        config.setStallTimeoutMillis(1000);
+        OutboundQueue queue = new OutboundQueue(config);
+        FakeSink sink = new FakeSink();
+        queue.offer("receipt-00", sink, 0);
+
+        // The writer drains 10 bytes every half second, and a new 10 byte message arrives each time, so the buffer
+        // never shrinks between checks.
+        for (int i = 1; i <= 10; i++) {
+            sink.buffered -= 10;
+            OutboundQueue.Result result = queue.offer("receipt-" + (i < 10 ? "0" + i : "" + i), sink,
+                    TimeUnit.MILLISECONDS.toNanos(500 * i));
+            Assert.assertEquals(OutboundQueue.Result.ACCEPTED, result);
+            Assert.assertEquals(10, sink.buffered);
+        }
+        Assert.assertEquals(11, sink.sent.size());
+    }
+
+    @Test
+    public void testUtf8Length() {
+        Assert.assertEquals(3, OutboundQueue.utf8Length("abc"));
+        Assert.assertEquals(2, OutboundQueue.utf8Length("é"));
+        Assert.assertEquals(3, OutboundQueue.utf8Length("€"));
+        Assert.assertEquals(4, OutboundQueue.utf8Length("😀"));
+    }
+}
@@ -1,15 +1,22 @@
 package io.mx51.spi;
 
 import io.mx51.spi.model.*;
+import io.mx51.spi.util.DiffieHellman;
 import io.mx51.spi.util.PairingHelper;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 public class PairingTest {
 
+    private static final BigInteger MODP_2048_P = new BigInteger(
+            "32317006071311007300338913926423828248817941241140239112842009751400741706634354222619689417363569347117901737909704191754605873209195028853758986185622153212175412514901774520270235796078236248884246189477587641105928646099411723245426622522193230540919037680524235519125679715870117001058055877651038861847280257976054903569732561526167081339361799541336476559160368317896729073178384589680639671900977202194168647225871031411336429319536193471636533209717077448227988588565369208645296636077250268955505928362751121174096972998068410554359584866583291642136218231078990999448652468262416972035911852507045361090559");
+    private static final BigInteger MODP_2048_G = BigInteger.valueOf(2);
+
     @SuppressWarnings({"unchecked", "ConstantConditions", "UnusedAssignment"})
     @Test
     public void testPairingKeyResponse() {
@@ -44,6 +51,24 @@ public class PairingTest {
         Assert.assertTrue(((String) ((Map<String, Object>) msgToSend.getData().get("hmac")).get("B")).length() > 0);
     }
 
+    @Test
+    public void testKeyResponseAgreesWithTerminal() {
+        // Play the terminal's part of the exchange.
+        BigInteger encPrivate = DiffieHellman.randomPrivateKey(MODP_2048_P);
+        BigInteger hmacPrivate = DiffieHellman.randomPrivateKey(MODP_2048_P);
+        Map<String, Object> data = new HashMap<>();
+        data.put("enc", Collections.singletonMap("A", DiffieHellman.publicKey(MODP_2048_P, MODP_2048_G, encPrivate).toString(16).toUpperCase()));
+        data.put("hmac", Collections.singletonMap("A", DiffieHellman.publicKey(MODP_2048_P, MODP_2048_G, hmacPrivate).toString(16).toUpperCase()));
+        SecretsAndKeyResponse result = PairingHelper.generateSecretsAndKeyResponse(new KeyRequest(new Message("63", "key_request", data, false)));
+
+        KeyResponse keyResponse = result.getKeyResponse();
+        Assert.assertNotEquals(keyResponse.getBenc(), keyResponse.getBhmac());
+        BigInteger benc = PairingHelper.spiAHexStringToBigInteger(keyResponse.getBenc());
+        BigInteger bhmac = PairingHelper.spiAHexStringToBigInteger(keyResponse.getBhmac());
+        Assert.assertEquals(PairingHelper.dhSecretToSPISecret(DiffieHellman.secret(MODP_2048_P, benc, encPrivate)), result.getSecrets().getEncKey());
+        Assert.assertEquals(PairingHelper.dhSecretToSPISecret(DiffieHellman.secret(MODP_2048_P, bhmac, hmacPrivate)), result.getSecrets().getHmacKey());
+    }
+
     @Test
     public void testSpiAHexStringToBigInteger() {
         // This is a typical A value coming from the server, that could be wrongly interpreted as a negative value.
@@ -153,6 +153,28 @@ public class PurchaseTest {
         Assert.assertEquals(msg.getEventName(), "cancel_transaction");
     }
 
+    @Test
+    public void testPurchaseResponseExactAmounts() {
+        Secrets secrets = SpiClientTestUtils.setTestSecrets(null, null);
+
+        String jsonStr = "{\"message\":{\"data\":{\"purchase_amount\":2147483648,\"tip_amount\":250.5,\"cash_amount\":300},\"event\":\"purchase_response\",\"id\":\"prchs6\"}}";
+
+        Message msg = Message.fromJson(jsonStr, secrets);
+        PurchaseResponse response = new PurchaseResponse(msg);
+
+        // The int getters stay as lenient as they always were.
+        Assert.assertEquals(Integer.MAX_VALUE, response.getPurchaseAmount());
+        Assert.assertEquals(250, response.getTipAmount());
+        Assert.assertEquals(300, response.getCashoutAmount());
+        Assert.assertEquals(2147483648L, response.getPurchaseAmountExact());
+        Assert.assertEquals(300L, response.getCashoutAmountExact());
+        try {
+            response.getTipAmountExact();
+            Assert.fail("Expected a fractional amount to be rejected");
+        } catch (ArithmeticException ignored) {
+        }
+    }
+
     @Test
     public void testCancelTransactionResponse() {
         Secrets secrets = SpiClientTestUtils.setTestSecrets(null, null);
@@ -0,0 +1,265 @@
+package io.mx51.spi;
+
+import io.mx51.spi.model.Secrets;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class ReconnectPolicyTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testFirstRetryIsFast() {
+        // arrange
+        ReconnectPolicy policy = new ReconnectPolicy();
+        policy.setFirstRetryDelayMillis(100);
+
+        // act
+        long delay = policy.nextDelayMillis(0, 0, new Random(1));
+
+        // assert
+        Assert.assertEquals(100, delay);
+    }
+
+    @Test
+    public void testDecorrelatedJitterWithinBounds() {
+        // arrange
+        ReconnectPolicy policy = new ReconnectPolicy();
+        policy.setBaseDelayMillis(1000);
+        policy.setMaxDelayMillis(15000);
+        Random random = new Random(42);
+
+        // act
+        List<Long> delays = new ArrayList<>();
+        long previous = policy.nextDelayMillis(0, 0, random);
+        for (int attempt = 1; attempt < 200; attempt++) {
+            long delay = policy.nextDelayMillis(attempt, previous, random);
+            Assert.assertTrue(delay >= 1000);
+            Assert.assertTrue(delay <= Math.min(15000, 3 * Math.max(1000, previous)));
+            delays.add(delay);
+            previous = delay;
+        }
+
+        // assert
+        Assert.assertTrue(new HashSet<>(delays).size() > 100);
+        long max = 0;
+        for (long delay : delays) max = Math.max(max, delay);
+        Assert.assertTrue(max > 10000);
+    }
+
+    @Test
+    public void testTerminalsDriftApart() {
+        // arrange
+        ReconnectPolicy policy = new ReconnectPolicy();
+        Random random = new Random(7);
+
+        // act
+        // The third attempt of 50 terminals that lost their connections together.
+        Set<Long> times = new HashSet<>();
+        for (int terminal = 0; terminal < 50; terminal++) {
+            long previous = policy.nextDelayMillis(0, 0, random);
+            long time = previous;
+            for (int attempt = 1; attempt < 3; attempt++) {
+                previous = policy.nextDelayMillis(attempt, previous, random);
+                time += previous;
+            }
+            times.add(time / 100);
+        }
+
+        // assert
+        Assert.assertTrue(times.size() > 25);
+    }
+
+    @Test
+    public void testLimiterAllowsBurstThenRate() {
+        // arrange
+        ReconnectLimiter limiter = new ReconnectLimiter(3, 10);
+        long now = System.nanoTime();
+
+        // act
+        long[] waits = new long[6];
+        for (int i = 0; i < waits.length; i++) waits[i] = limiter.reserve(now);
+
+        // assert
+        Assert.assertEquals(0, waits[0]);
+        Assert.assertEquals(0, waits[1]);
+        Assert.assertEquals(0, waits[2]);
+        Assert.assertEquals(100, waits[3], 1);
+        Assert.assertEquals(200, waits[4], 1);
+        Assert.assertEquals(300, waits[5], 1);
+    }
+
+    @Test
+    public void testLimiterRefills() {
+        // arrange
+        ReconnectLimiter limiter = new ReconnectLimiter(1, 10);
+        long now = System.nanoTime();
+        limiter.reserve(now);
+
+        // act
+        long tooSoon = limiter.reserve(now + 50 * MS);
+        long later = limiter.reserve(now + 1000 * MS);
+
+        // assert
+        Assert.assertEquals(50, tooSoon, 1);
+        Assert.assertEquals(0, later);
+    }
+
+    @Test
+    public void testReconnectStateExposed() throws Exception {
+        // arrange
+        TransportContext context = new TransportContext();
+        final List<Transport.Listener> listeners = new ArrayList<>();
+        final List<Transport.Socket> sockets = new ArrayList<>();
+        Transport transport = new Transport() {
+            @NotNull
+            @Override
+            public Socket connect(@NotNull String url, @NotNull String subProtocol, @NotNull Listener listener) {
+                listeners.add(listener);
+                final Socket socket = new Socket() {
+                    @Override
+                    public boolean send(@NotNull String text) {
+                        return true;
+                    }
+
+                    @Override
+                    public long queueSize() {
+                        return 0;
+                    }
+
+                    @Override
+                    public void close(int code) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                };
+                sockets.add(socket);
+                return socket;
+            }
+        };
+        try {
+            Secrets secrets = SpiClientTestUtils.setTestSecrets(null, null);
+            Spi spi = new Spi("RamenPos", "", "10.20.30.40", secrets);
+            spi.setPosInfo("mx51", "2.6.3");
+            spi.setTransportContext(context);
+            spi.setTransport(transport);
+            ReconnectPolicy policy = new ReconnectPolicy();
+            policy.setFirstRetryDelayMillis(10);
+            policy.setBaseDelayMillis(60000);
+            policy.setMaxDelayMillis(60000);
+            spi.setReconnectPolicy(policy);
+            spi.start();
+            listeners.get(0).onOpen(sockets.get(0));
+
+            // act
+            long before = System.currentTimeMillis();
+            listeners.get(0).onClosed();
+            ReconnectState first = spi.getReconnectState();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (listeners.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            listeners.get(1).onFailure(new Exception("unreachable"));
+            ReconnectState second = spi.getReconnectState();
+
+            // assert
+            Assert.assertEquals(1, first.getAttempt());
+            Assert.assertEquals(10, first.getDelayMillis());
+            Assert.assertTrue(first.getNextAttemptTime() >= before + 10);
+            Assert.assertEquals(2, second.getAttempt());
+            Assert.assertEquals(60000, second.getDelayMillis());
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    @Test
+    public void testCloseReportedByTransportKeepsFastRetry() throws Exception {
+        // arrange
+        TransportContext context = new TransportContext();
+        final List<Transport.Listener> listeners = new CopyOnWriteArrayList<>();
+        final List<Transport.Socket> sockets = new CopyOnWriteArrayList<>();
+        Transport transport = new Transport() {
+            @NotNull
+            @Override
+            public Socket connect(@NotNull String url, @NotNull String subProtocol, @NotNull final Listener listener) {
+                listeners.add(listener);
+                final Socket socket = new Socket() {
+                    @Override
+                    public boolean send(@NotNull String text) {
+                        return true;
+                    }
+
+                    @Override
+                    public long queueSize() {
+                        return 0;
+                    }
+
+                    @Override
+                    public void close(int code) {
+                        // Reported straight away, and again once the close handshake is over.
+                        listener.onClosed();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onClosed();
+                            }
+                        }).start();
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                };
+                sockets.add(socket);
+                return socket;
+            }
+        };
+        try {
+            Secrets secrets = SpiClientTestUtils.setTestSecrets(null, null);
+            Spi spi = new Spi("RamenPos", "", "10.20.30.40", secrets);
+            spi.setPosInfo("mx51", "2.6.3");
+            spi.setTransportContext(context);
+            spi.setTransport(transport);
+            KeepaliveConfig keepalive = new KeepaliveConfig();
+            keepalive.setMinPingIntervalMillis(50);
+            keepalive.setMaxPingIntervalMillis(50);
+            keepalive.setPongTimeoutMillis(50);
+            spi.setKeepaliveConfig(keepalive);
+            spi.setFailureDetector(new MissedPongsFailureDetector(1));
+            ReconnectPolicy policy = new ReconnectPolicy();
+            policy.setFirstRetryDelayMillis(10);
+            policy.setBaseDelayMillis(60000);
+            policy.setMaxDelayMillis(60000);
+            spi.setReconnectPolicy(policy);
+            spi.start();
+
+            // act
+            // The terminal never answers pings, so the connection is dropped from our side.
+            listeners.get(0).onOpen(sockets.get(0));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (listeners.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+
+            // assert
+            Assert.assertEquals(2, listeners.size());
+            Assert.assertEquals(1, spi.getReconnectState().getAttempt());
+            Assert.assertEquals(10, spi.getReconnectState().getDelayMillis());
+        } finally {
+            context.shutdown();
+        }
+    }
+}
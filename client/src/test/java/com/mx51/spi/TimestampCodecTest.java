@@ -0,0 +1,126 @@
+package io.mx51.spi;
+
+import io.mx51.spi.util.TimestampCodec;
+import io.mx51.spi.util.TimestampCodec.Layout;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+public class TimestampCodecTest {
+
+    private static final String[] ZONES = {"UTC", "Australia/Sydney", "America/New_York", "Asia/Kolkata", "Australia/Lord_Howe"};
+
+    @Test
+    public void testFormatMatchesSimpleDateFormat() throws ParseException {
+        Random random = new Random(42);
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            SimpleDateFormat sdf = format(Layout.DATE_TIME, zone);
+            long start = sdf.parse("1950-01-01T00:00:00.000").getTime();
+            long end = sdf.parse("2090-01-01T00:00:00.000").getTime();
+            for (int i = 0; i < 20000; i++) {
+                long millis = start + (long) (random.nextDouble() * (end - start));
+                String expected = sdf.format(new Date(millis));
+                Assert.assertEquals(expected, TimestampCodec.formatDateTime(millis, zone));
+                // Same second again, from the cached prefix.
+                Assert.assertEquals(sdf.format(new Date(millis + 1)), TimestampCodec.formatDateTime(millis + 1, zone));
+                Assert.assertEquals(sdf.parse(expected).getTime(), TimestampCodec.parse(expected, Layout.DATE_TIME, zone));
+            }
+        }
+    }
+
+    @Test
+    public void testAroundDaylightSavingChanges() throws ParseException {
+        TimeZone zone = TimeZone.getTimeZone("Australia/Sydney");
+        SimpleDateFormat sdf = format(Layout.DATE_TIME, zone);
+        for (String change : new String[]{"2019-04-07T03:00:00.000", "2019-10-06T02:00:00.000"}) {
+            long at = sdf.parse(change).getTime();
+            for (long millis = at - TimeUnit.DAYS.toMillis(2); millis < at + TimeUnit.DAYS.toMillis(2); millis += TimeUnit.MINUTES.toMillis(7)) {
+                String text = sdf.format(new Date(millis));
+                Assert.assertEquals(text, TimestampCodec.formatDateTime(millis, zone));
+                Assert.assertEquals(sdf.parse(text).getTime(), TimestampCodec.parse(text, Layout.DATE_TIME, zone));
+            }
+        }
+        // A time that does not exist, in the gap.
+        assertSameAsSimpleDateFormat("2019-10-06T02:30:00.000", Layout.DATE_TIME, zone);
+    }
+
+    @Test
+    public void testOtherLayoutsMatchSimpleDateFormat() throws ParseException {
+        Random random = new Random(7);
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            for (Layout layout : new Layout[]{Layout.TIME_SHORT_DATE, Layout.TIME_SECONDS_SHORT_DATE, Layout.BANK_DATE, Layout.BANK_DATE_TIME}) {
+                SimpleDateFormat sdf = format(layout, zone);
+                for (int i = 0; i < 2000; i++) {
+                    long millis = System.currentTimeMillis() + (long) ((random.nextDouble() - 0.5) * TimeUnit.DAYS.toMillis(40 * 365));
+                    assertSameAsSimpleDateFormat(sdf.format(new Date(millis)), layout, zone);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUnusualInputFallsBack() throws ParseException {
+        TimeZone zone = TimeZone.getTimeZone("Australia/Sydney");
+        String[] timeShortDate = {"05:0005Oct17", "05:0005oct17", "05:0005OCT17", "5:0005Oct17", "05:0005October17",
+                "25:0005Oct17", "05:0031Feb17", "05:0005Oct17trailing", "05:0005Xyz17", "05-0005Oct17"};
+        for (String text : timeShortDate) assertSameAsSimpleDateFormat(text, Layout.TIME_SHORT_DATE, zone);
+
+        String[] bankDate = {"20042018", "32012018", "29022019", "29022020", "2004201", "20a42018", "00012018"};
+        for (String text : bankDate) assertSameAsSimpleDateFormat(text, Layout.BANK_DATE, zone);
+
+        String[] dateTime = {"2019-06-14T16:09:46.395", "2019-06-14T16:09:46.3951", "2019-06-14 16:09:46.395",
+                "0999-06-14T16:09:46.395", "2019-13-14T16:09:46.395"};
+        for (String text : dateTime) assertSameAsSimpleDateFormat(text, Layout.DATE_TIME, zone);
+
+        // Two-digit years either side of the century window, which starts 80 years ago.
+        int centuryStart = Integer.parseInt(new SimpleDateFormat("yy", Locale.US).format(new Date())) - 80 + 100;
+        for (int yy = centuryStart - 1; yy <= centuryStart + 1; yy++) {
+            assertSameAsSimpleDateFormat(String.format("12:0001Jan%02d", (yy + 100) % 100), Layout.TIME_SHORT_DATE, zone);
+        }
+    }
+
+    @Test(expected = ParseException.class)
+    public void testEmptyTextRejected() throws ParseException {
+        TimestampCodec.parse("", Layout.BANK_DATE);
+    }
+
+    @Test
+    public void testDefaultZone() throws ParseException {
+        SimpleDateFormat sdf = new SimpleDateFormat(Layout.DATE_TIME.getPattern(), Locale.US);
+        long now = System.currentTimeMillis();
+
+        Assert.assertEquals(sdf.format(new Date(now)), TimestampCodec.formatDateTime(now));
+        Assert.assertEquals(now, TimestampCodec.parse(sdf.format(new Date(now)), Layout.DATE_TIME));
+    }
+
+    private static void assertSameAsSimpleDateFormat(String text, Layout layout, TimeZone zone) {
+        Long expected;
+        try {
+            expected = format(layout, zone).parse(text).getTime();
+        } catch (ParseException e) {
+            expected = null;
+        }
+        Long actual;
+        try {
+            actual = TimestampCodec.parse(text, layout, zone);
+        } catch (ParseException e) {
+            actual = null;
+        }
+        Assert.assertEquals(text, expected, actual);
+    }
+
+    private static SimpleDateFormat format(Layout layout, TimeZone zone) {
+        SimpleDateFormat sdf = new SimpleDateFormat(layout.getPattern(), Locale.US);
+        sdf.setTimeZone(zone);
+        return sdf;
+    }
+}
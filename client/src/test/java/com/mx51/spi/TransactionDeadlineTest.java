@@ -0,0 +1,105 @@
+package io.mx51.spi;
+
+import io.mx51.spi.model.SpiFlow;
+import io.mx51.spi.model.TransactionFlowState;
+import io.mx51.spi.model.TransactionType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class TransactionDeadlineTest {
+
+    private ScheduledThreadPoolExecutor scheduler;
+    private TransportContext context;
+    private Spi spi;
+
+    @Before
+    public void setUp() throws Spi.CompatibilityException {
+        scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.setRemoveOnCancelPolicy(true);
+        context = new TransportContext(scheduler);
+
+        spi = new Spi("TestPos", "", "10.20.30.40", null);
+        spi.setPosInfo("mx51", "2.6.3");
+        spi.setTransportContext(context);
+        spi.start();
+    }
+
+    @After
+    public void tearDown() {
+        spi.dispose();
+        context.shutdown();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testIdleInstanceHasNoTimers() {
+        Assert.assertEquals(0, scheduler.getQueue().size());
+    }
+
+    @Test
+    public void testSentTransactionArmsGltCheck() {
+        TransactionFlowState txState = startTransaction();
+
+        txState.sent("Sent");
+        spi.txFlowStateChanged();
+
+        Assert.assertEquals(1, scheduler.getQueue().size());
+        long delay = nextDelayMillis();
+        Assert.assertTrue(delay > TimeUnit.SECONDS.toMillis(19) && delay <= TimeUnit.SECONDS.toMillis(20) + 1);
+    }
+
+    @Test
+    public void testCancelArmsEarlierDeadline() {
+        TransactionFlowState txState = startTransaction();
+
+        txState.sent("Sent");
+        txState.cancelling("Cancelling");
+        spi.txFlowStateChanged();
+
+        Assert.assertEquals(1, scheduler.getQueue().size());
+        Assert.assertTrue(nextDelayMillis() <= TimeUnit.SECONDS.toMillis(10) + 1);
+    }
+
+    @Test
+    public void testFinishedTransactionClearsDeadline() {
+        TransactionFlowState txState = startTransaction();
+        txState.sent("Sent");
+        spi.txFlowStateChanged();
+
+        txState.unknownCompleted("Done");
+        spi.txFlowStateChanged();
+
+        Assert.assertEquals(0, scheduler.getQueue().size());
+    }
+
+    @Test
+    public void testExpiredCancelCompletesTransaction() throws InterruptedException {
+        TransactionFlowState txState = startTransaction();
+        txState.sent("Sent");
+        txState.cancelling("Cancelling");
+        txState.setCancelAttemptTime(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(11));
+
+        spi.txFlowStateChanged();
+        Thread.sleep(100);
+
+        Assert.assertTrue(txState.isFinished());
+        Assert.assertEquals(0, scheduler.getQueue().size());
+    }
+
+    private TransactionFlowState startTransaction() {
+        TransactionFlowState txState = new TransactionFlowState("tx1", TransactionType.PURCHASE, 100, null, "Waiting");
+        spi.setCurrentFlow(SpiFlow.TRANSACTION);
+        spi.setCurrentTxFlowState(txState);
+        return txState;
+    }
+
+    private long nextDelayMillis() {
+        return ((Delayed) scheduler.getQueue().peek()).getDelay(TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,127 @@
+package io.mx51.spi;
+
+import io.mx51.spi.service.DeviceService;
+import io.mx51.spi.service.TenantService;
+import okhttp3.OkHttpClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+public class TransportContextTest {
+
+    @Test
+    public void testConnectionsShareDefaultContext() throws IllegalAccessException {
+        Connection conn1 = new Connection("ws://127.0.0.1");
+        Connection conn2 = new Connection("ws://127.0.0.2");
+
+        OkHttpClient client1 = webSocketClientOf(conn1);
+        OkHttpClient client2 = webSocketClientOf(conn2);
+
+        Assert.assertSame(client1, client2);
+        Assert.assertSame(TransportContext.getDefault().getWebSocketClient(), client1);
+    }
+
+    @Test
+    public void testServicesShareDispatcherAndPoolWithConnections() throws IllegalAccessException {
+        TransportContext context = new TransportContext();
+        Connection conn = new Connection("ws://127.0.0.1", context);
+        DeviceService deviceService = new DeviceService(context);
+        TenantService tenantService = new TenantService(context);
+
+        OkHttpClient connClient = webSocketClientOf(conn);
+        OkHttpClient deviceClient = (OkHttpClient) SpiClientTestUtils.getInstanceField(deviceService, "okHttpClient");
+        OkHttpClient tenantClient = (OkHttpClient) SpiClientTestUtils.getInstanceField(tenantService, "okHttpClient");
+
+        Assert.assertSame(connClient.dispatcher(), deviceClient.dispatcher());
+        Assert.assertSame(connClient.dispatcher(), tenantClient.dispatcher());
+        Assert.assertSame(connClient.connectionPool(), deviceClient.connectionPool());
+        Assert.assertSame(connClient.connectionPool(), tenantClient.connectionPool());
+
+        context.shutdown();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDefaultContextCannotBeShutDown() {
+        TransportContext.getDefault().shutdown();
+    }
+
+    @Test
+    public void testInjectedSchedulerIsUsedAndLeftRunning() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        TransportContext context = new TransportContext(scheduler);
+
+        Assert.assertSame(scheduler, context.getScheduler());
+
+        context.shutdown();
+        Assert.assertFalse(scheduler.isShutdown());
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testOwnSchedulerIsShutDown() {
+        TransportContext context = new TransportContext();
+        ScheduledExecutorService scheduler = context.getScheduler();
+
+        context.shutdown();
+        Assert.assertTrue(scheduler.isShutdown());
+    }
+
+    @Test
+    public void testInjectedClientIsLeftRunning() {
+        OkHttpClient client = new OkHttpClient();
+        TransportContext context = new TransportContext(client);
+
+        context.shutdown();
+        Assert.assertFalse(client.dispatcher().executorService().isShutdown());
+        client.dispatcher().executorService().shutdown();
+    }
+
+    @Test
+    public void testOwnClientIsShutDown() {
+        TransportContext context = new TransportContext();
+
+        context.shutdown();
+        Assert.assertTrue(context.getHttpClient().dispatcher().executorService().isShutdown());
+    }
+
+    @Test
+    public void testInjectedCallbackExecutorIsUsedAndLeftRunning() {
+        OkHttpClient client = new OkHttpClient();
+        ExecutorService callbackExecutor = Executors.newFixedThreadPool(2);
+        TransportContext context = new TransportContext(client, null, callbackExecutor);
+
+        Assert.assertSame(callbackExecutor, context.getCallbackExecutor());
+
+        context.shutdown();
+        Assert.assertFalse(callbackExecutor.isShutdown());
+        callbackExecutor.shutdownNow();
+        client.dispatcher().executorService().shutdown();
+    }
+
+    @Test
+    public void testOwnCallbackExecutorIsBoundedAndShutDown() {
+        TransportContext context = new TransportContext(3);
+        ThreadPoolExecutor callbackExecutor = (ThreadPoolExecutor) context.getCallbackExecutor();
+
+        Assert.assertEquals(3, callbackExecutor.getMaximumPoolSize());
+        Assert.assertNotSame(context.getBlockingExecutor(), callbackExecutor);
+
+        context.shutdown();
+        Assert.assertTrue(callbackExecutor.isShutdown());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCallbackThreadsMustBePositive() {
+        new TransportContext(0);
+    }
+
+    private static OkHttpClient webSocketClientOf(Connection conn) throws IllegalAccessException {
+        Object transport = SpiClientTestUtils.getInstanceField(conn, "transport");
+        return (OkHttpClient) SpiClientTestUtils.getInstanceField(transport, "client");
+    }
+}
@@ -0,0 +1,185 @@
+package io.mx51.spi;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TransportTest {
+
+    private static class FakeTransport implements Transport {
+        String url;
+        String subProtocol;
+        Listener listener;
+        Socket socket;
+        final List<String> sent = new ArrayList<>();
+        Integer closedWith;
+        // Reported from inside connect(), before the socket is returned.
+        boolean openAtOnce;
+        Throwable failAtOnce;
+
+        @NotNull
+        @Override
+        public Socket connect(@NotNull String url, @NotNull String subProtocol, @NotNull Listener listener) {
+            this.url = url;
+            this.subProtocol = subProtocol;
+            this.listener = listener;
+            final Socket socket = new Socket() {
+                @Override
+                public boolean send(@NotNull String text) {
+                    return sent.add(text);
+                }
+
+                @Override
+                public long queueSize() {
+                    return 0;
+                }
+
+                @Override
+                public void close(int code) {
+                    closedWith = code;
+                }
+
+                @Override
+                public void cancel() {
+                }
+            };
+            this.socket = socket;
+            if (openAtOnce) listener.onOpen(socket);
+            if (failAtOnce != null) listener.onFailure(failAtOnce);
+            return socket;
+        }
+    }
+
+    private static class RecordingHandler implements Connection.EventHandler {
+        final List<Connection.State> states = new ArrayList<>();
+        final List<String> messages = new ArrayList<>();
+        final List<Throwable> errors = new ArrayList<>();
+
+        @Override
+        public void onConnectionStateChanged(Connection.State state) {
+            states.add(state);
+        }
+
+        @Override
+        public void onMessageReceived(String message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void onError(Throwable thr) {
+            errors.add(thr);
+        }
+    }
+
+    @Test
+    public void testConnectionRunsOverAnyTransport() {
+        FakeTransport transport = new FakeTransport();
+        RecordingHandler handler = new RecordingHandler();
+        Connection conn = new Connection("127.0.0.1", TransportContext.getDefault(), transport, new OutboundQueueConfig());
+        conn.setEventHandler(handler);
+
+        conn.connect();
+        Assert.assertEquals("ws://127.0.0.1", transport.url);
+        Assert.assertEquals("spi." + Spi.PROTOCOL_VERSION, transport.subProtocol);
+        Assert.assertFalse(conn.send("too early"));
+
+        transport.listener.onOpen(transport.socket);
+        Assert.assertTrue(conn.isConnected());
+        Assert.assertTrue(conn.send("hello"));
+        Assert.assertEquals("hello", transport.sent.get(0));
+
+        transport.listener.onMessage("world");
+        Assert.assertEquals("world", handler.messages.get(0));
+
+        conn.disconnect();
+        Assert.assertEquals(Integer.valueOf(1001), transport.closedWith);
+        Assert.assertEquals(Connection.State.DISCONNECTED, conn.getState());
+    }
+
+    @Test
+    public void testConnectTimeoutReportedAsTimeoutException() {
+        FakeTransport transport = new FakeTransport();
+        RecordingHandler handler = new RecordingHandler();
+        Connection conn = new Connection("ws://127.0.0.1", TransportContext.getDefault(), transport, new OutboundQueueConfig());
+        conn.setEventHandler(handler);
+
+        conn.connect();
+        transport.listener.onFailure(new SocketTimeoutException());
+
+        Assert.assertTrue(handler.errors.get(0) instanceof Connection.TimeoutException);
+        Assert.assertEquals(Connection.State.CONNECTING, handler.states.get(0));
+        Assert.assertEquals(Connection.State.DISCONNECTED, handler.states.get(1));
+    }
+
+    @Test
+    public void testLateCallbacksFromOldSocketIgnored() {
+        // arrange
+        FakeTransport transport = new FakeTransport();
+        RecordingHandler handler = new RecordingHandler();
+        Connection conn = new Connection("ws://127.0.0.1", TransportContext.getDefault(), transport, new OutboundQueueConfig());
+        conn.setEventHandler(handler);
+        conn.connect();
+        Transport.Listener oldListener = transport.listener;
+        oldListener.onOpen(transport.socket);
+        conn.disconnect();
+        conn.connect();
+        transport.listener.onOpen(transport.socket);
+        int statesBefore = handler.states.size();
+
+        // act
+        oldListener.onMessage("stale");
+        oldListener.onClosed();
+        oldListener.onFailure(new Exception("stale"));
+
+        // assert
+        Assert.assertEquals(statesBefore, handler.states.size());
+        Assert.assertTrue(handler.messages.isEmpty());
+        Assert.assertTrue(handler.errors.isEmpty());
+        Assert.assertTrue(conn.isConnected());
+        Assert.assertTrue(conn.send("hello"));
+    }
+
+    @Test
+    public void testSendFromOpenBeforeConnectReturns() {
+        // arrange
+        final FakeTransport transport = new FakeTransport();
+        transport.openAtOnce = true;
+        final Connection conn = new Connection("ws://127.0.0.1", TransportContext.getDefault(), transport, new OutboundQueueConfig());
+        final List<Boolean> accepted = new ArrayList<>();
+        conn.setEventHandler(new RecordingHandler() {
+            @Override
+            public void onConnectionStateChanged(Connection.State state) {
+                if (state == Connection.State.CONNECTED) accepted.add(conn.send("pair request"));
+            }
+        });
+
+        // act
+        conn.connect();
+
+        // assert
+        Assert.assertEquals(Collections.singletonList(true), accepted);
+        Assert.assertEquals("pair request", transport.sent.get(0));
+    }
+
+    @Test
+    public void testFailureBeforeConnectReturnsLeavesNoSocket() throws IllegalAccessException {
+        // arrange
+        FakeTransport transport = new FakeTransport();
+        transport.failAtOnce = new Exception("refused");
+        Connection conn = new Connection("ws://127.0.0.1", TransportContext.getDefault(), transport, new OutboundQueueConfig());
+        conn.setEventHandler(new RecordingHandler());
+
+        // act
+        conn.connect();
+
+        // assert
+        Assert.assertEquals(Connection.State.DISCONNECTED, conn.getState());
+        Assert.assertNull(SpiClientTestUtils.getInstanceField(conn, "socket"));
+        Assert.assertNull(SpiClientTestUtils.getInstanceField(conn, "sink"));
+    }
+}